@@ -10,6 +10,16 @@ import static rife.bld.dependencies.Scope.*;
 
 public class S3XtyBuild extends Project {
 
+    private static final List<String> OPENS = List.of(
+            "--add-opens=java.base/java.lang=ALL-UNNAMED",
+            "--add-opens=java.base/java.nio=ALL-UNNAMED",
+            "--add-opens=java.base/java.util=ALL-UNNAMED",
+            "--add-opens=java.base/java.util.concurrent=ALL-UNNAMED",
+            "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED",
+            "--add-opens=java.base/sun.nio.cs=ALL-UNNAMED",
+            "--add-opens=java.base/sun.util.calendar=ALL-UNNAMED"
+    );
+
     public S3XtyBuild() {
         pkg = "io.exsql.s3xty";
         name = "s3xty";
@@ -38,9 +48,18 @@ public class S3XtyBuild extends Project {
                 .javaOptions()
                 .addModules("jdk.incubator.vector");
 
+        // arrow reads the address of direct buffers, spark the cleaner of direct buffers and the internals of the jdk
+        testOperation()
+                .javaOptions()
+                .addAll(OPENS);
+
         runOperation()
                 .javaOptions()
                 .addModules("jdk.incubator.vector");
+
+        runOperation()
+                .javaOptions()
+                .addAll(OPENS);
     }
 
     public static void main(final String[] args) {
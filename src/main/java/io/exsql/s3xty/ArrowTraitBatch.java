@@ -0,0 +1,270 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import io.exsql.s3xty.value.ValueParser;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.complex.StructVector;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.unsafe.Platform;
+import org.apache.spark.unsafe.array.ByteArrayMethods;
+import org.apache.spark.unsafe.types.UTF8String;
+
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+
+/**
+ * The profiles of an Arrow record batch, held by a {@code MAP<STRING, STRING>} or a
+ * {@code LIST<STRUCT<key: STRING, value: STRING>>} column.
+ * <p>
+ * Both layouts are a {@link ListVector} of a {@link StructVector} with a {@code key} and a {@code value}
+ * {@link VarCharVector}. The batch reads the validity, offset and data buffers of those vectors directly: keys are
+ * compared where they are stored and values are parsed from the data buffer, nothing is converted to
+ * {@code ArrayData}. The first entry of a trait wins, entries with a null key are ignored.
+ * <p>
+ * The batch is the accessor of its current profile, selected with {@link #position(int)}, and
+ * {@link #evaluate(SExpressionVM)} runs a program over every profile of the batch. The vectors must stay loaded while
+ * the batch is used.
+ */
+public final class ArrowTraitBatch implements TraitAccessor {
+
+    static final String KEY_FIELD = "key";
+    static final String VALUE_FIELD = "value";
+
+    // the value of a trait the profile holds with a null value, offsets are never negative
+    private static final long NULL_VALUE = -2;
+    private static final long MISSING = -1;
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes;
+
+    private final Object2ObjectOpenHashMap<UTF8String, Value> cache = new Object2ObjectOpenHashMap<>();
+
+    private final int rows;
+
+    private final long validity;
+    private final long offsets;
+    private final long entryValidity;
+    private final long keyValidity;
+    private final long keyOffsets;
+    private final long keyData;
+    private final long valueValidity;
+    private final long valueOffsets;
+    private final long valueData;
+
+    private int start;
+    private int end;
+
+    /**
+     * Creates the batch of a trait column.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param vector the trait column of the batch
+     * @throws IllegalArgumentException if the column does not hold key/value string entries
+     */
+    public ArrowTraitBatch(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ListVector vector) {
+        if (!isTraitVector(vector)) {
+            throw new IllegalArgumentException("Column " + vector.getName() + " does not hold key/value string entries");
+        }
+
+        var entries = (StructVector) vector.getDataVector();
+        var keys = (VarCharVector) entries.getChild(KEY_FIELD);
+        var values = (VarCharVector) entries.getChild(VALUE_FIELD);
+
+        this.fieldTypes = fieldTypes;
+        this.rows = vector.getValueCount();
+        this.validity = vector.getValidityBuffer().memoryAddress();
+        this.offsets = vector.getOffsetBuffer().memoryAddress();
+        this.entryValidity = entries.getValidityBuffer().memoryAddress();
+        this.keyValidity = keys.getValidityBuffer().memoryAddress();
+        this.keyOffsets = keys.getOffsetBuffer().memoryAddress();
+        this.keyData = keys.getDataBuffer().memoryAddress();
+        this.valueValidity = values.getValidityBuffer().memoryAddress();
+        this.valueOffsets = values.getOffsetBuffer().memoryAddress();
+        this.valueData = values.getDataBuffer().memoryAddress();
+    }
+
+    /**
+     * Checks whether a column holds key/value string entries.
+     *
+     * @param vector the column
+     * @return true if the column is a list of structs with a {@code key} and a {@code value} string field
+     */
+    static boolean isTraitVector(final Object vector) {
+        return vector instanceof ListVector list
+                && list.getDataVector() instanceof StructVector entries
+                && entries.getChild(KEY_FIELD) instanceof VarCharVector
+                && entries.getChild(VALUE_FIELD) instanceof VarCharVector;
+    }
+
+    /**
+     * Returns the number of profiles of the batch.
+     *
+     * @return the number of profiles
+     */
+    public int rows() {
+        return this.rows;
+    }
+
+    /**
+     * Makes a profile of the batch the current one.
+     *
+     * @param row the index of the profile in the batch
+     * @return this batch
+     */
+    public ArrowTraitBatch position(final int row) {
+        if (row < 0 || row >= this.rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " is out of the batch of " + this.rows + " rows");
+        }
+
+        if (isSet(this.validity, row)) {
+            this.start = Platform.getInt(null, this.offsets + (long) row * 4);
+            this.end = Platform.getInt(null, this.offsets + (long) (row + 1) * 4);
+        } else {
+            this.start = 0;
+            this.end = 0;
+        }
+
+        if (!this.cache.isEmpty()) {
+            this.cache.clear();
+        }
+
+        return this;
+    }
+
+    /**
+     * Evaluates the program of a VM over every profile of the batch.
+     *
+     * @param vm the VM to evaluate with
+     * @return for every expression of the program, a bitmap with the bit of every profile the expression matched set
+     */
+    public long[][] evaluate(final SExpressionVM vm) {
+        var words = (this.rows + Long.SIZE - 1) >>> 6;
+        long[][] bitmaps = null;
+        for (var row = 0; row < this.rows; row++) {
+            vm.reset();
+            vm.evaluate(this.position(row));
+
+            var results = vm.results();
+            if (bitmaps == null) {
+                bitmaps = new long[results.length][words];
+            }
+
+            for (var expression = 0; expression < results.length; expression++) {
+                if (results[expression]) {
+                    bitmaps[expression][row >>> 6] |= 1L << row;
+                }
+            }
+        }
+
+        return bitmaps == null ? new long[vm.results().length][0] : bitmaps;
+    }
+
+    @Override
+    public Value get(final UTF8String key) {
+        var value = this.cache.get(key);
+        if (value != null || this.cache.containsKey(key)) {
+            return value;
+        }
+
+        var field = this.find(key);
+        if (field == NULL_VALUE) {
+            value = Value.nullValue();
+        } else if (field != MISSING) {
+            value = CachedArrayDataAccessor.decode(this.fieldTypes.getOrDefault(key, DataTypes.StringType), this.string(field));
+        }
+
+        this.cache.put(key, value);
+        return value;
+    }
+
+    @Override
+    public OptionalLong getLong(final UTF8String key) {
+        if (this.fieldTypes.get(key) != DataTypes.LongType) {
+            return TraitAccessor.super.getLong(key);
+        }
+
+        var field = this.find(key);
+        if (field < 0) {
+            return OptionalLong.empty();
+        }
+
+        return OptionalLong.of(this.string(field).toLongExact());
+    }
+
+    @Override
+    public OptionalDouble getDouble(final UTF8String key) {
+        if (this.fieldTypes.get(key) != DataTypes.DoubleType) {
+            return TraitAccessor.super.getDouble(key);
+        }
+
+        var field = this.find(key);
+        if (field < 0) {
+            return OptionalDouble.empty();
+        }
+
+        return OptionalDouble.of(ValueParser.parseDouble(this.string(field)));
+    }
+
+    @Override
+    public boolean getBoolean(final UTF8String key) {
+        if (this.fieldTypes.get(key) != DataTypes.BooleanType) {
+            return TraitAccessor.super.getBoolean(key);
+        }
+
+        var field = this.find(key);
+        if (field < 0 || (int) field != 4) {
+            return false;
+        }
+
+        // same as Boolean.parseBoolean, only the four ascii letters of true match ignoring case
+        var address = this.valueData + (field >>> 32);
+        return (Platform.getByte(null, address) | 0x20) == 't'
+                && (Platform.getByte(null, address + 1) | 0x20) == 'r'
+                && (Platform.getByte(null, address + 2) | 0x20) == 'u'
+                && (Platform.getByte(null, address + 3) | 0x20) == 'e';
+    }
+
+    /**
+     * Finds the value of the first entry of a trait in the current profile.
+     *
+     * @param key the trait
+     * @return the offset of the value in the value data buffer in the upper 32 bits and its size in the lower 32 bits,
+     * {@link #NULL_VALUE} if the value is null or {@link #MISSING} if the profile does not hold the trait
+     */
+    private long find(final UTF8String key) {
+        var size = key.numBytes();
+        for (var i = this.start; i < this.end; i++) {
+            if (!isSet(this.entryValidity, i) || !isSet(this.keyValidity, i)) {
+                continue;
+            }
+
+            var keyStart = Platform.getInt(null, this.keyOffsets + (long) i * 4);
+            var keyEnd = Platform.getInt(null, this.keyOffsets + (long) (i + 1) * 4);
+            if (keyEnd - keyStart != size || !ByteArrayMethods.arrayEquals(null, this.keyData + keyStart, key.getBaseObject(), key.getBaseOffset(), size)) {
+                continue;
+            }
+
+            if (!isSet(this.valueValidity, i)) {
+                return NULL_VALUE;
+            }
+
+            var valueStart = Platform.getInt(null, this.valueOffsets + (long) i * 4);
+            var valueEnd = Platform.getInt(null, this.valueOffsets + (long) (i + 1) * 4);
+            return ((long) valueStart << 32) | (valueEnd - valueStart);
+        }
+
+        return MISSING;
+    }
+
+    // the string points into the value data buffer, the bytes are not copied
+    private UTF8String string(final long field) {
+        return UTF8String.fromAddress(null, this.valueData + (field >>> 32), (int) field);
+    }
+
+    private static boolean isSet(final long validity, final int index) {
+        return (Platform.getByte(null, validity + (index >>> 3)) & (1 << (index & 7))) != 0;
+    }
+
+}
@@ -0,0 +1,126 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the record batches of an Arrow IPC file, one {@link ArrowTraitBatch} at a time.
+ * <p>
+ * The traits are read from the given column, or from the first {@code MAP<STRING, STRING>} or
+ * {@code LIST<STRUCT<key: STRING, value: STRING>>} column of the file:
+ * <pre>{@code
+ * try (var reader = TraitAccessor.forArrowFile(fieldTypes, path, null)) {
+ *     while (reader.next()) {
+ *         var bitmaps = reader.batch().evaluate(vm);
+ *     }
+ * }
+ * }</pre>
+ * A batch is only valid until the next one is loaded.
+ */
+public final class ArrowTraitReader implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArrowTraitReader.class);
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes;
+    private final Path path;
+    private final String column;
+    private final BufferAllocator allocator;
+    private final ArrowFileReader reader;
+
+    private ArrowTraitBatch batch;
+    private int batches = 0;
+
+    ArrowTraitReader(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final Path path, final String column) throws IOException {
+        this.fieldTypes = fieldTypes;
+        this.path = path;
+        this.column = column;
+        this.allocator = new RootAllocator();
+
+        try {
+            this.reader = new ArrowFileReader(FileChannel.open(path, StandardOpenOption.READ), this.allocator);
+        } catch (final IOException | RuntimeException exception) {
+            this.allocator.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Loads the next record batch of the file.
+     *
+     * @return true if a batch was loaded, false at the end of the file
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file has no trait column
+     */
+    public boolean next() throws IOException {
+        if (!this.reader.loadNextBatch()) {
+            this.batch = null;
+            return false;
+        }
+
+        this.batch = new ArrowTraitBatch(this.fieldTypes, this.vector());
+        this.batches++;
+        return true;
+    }
+
+    /**
+     * Returns the current record batch.
+     *
+     * @return the batch loaded by the last call to {@link #next()}
+     */
+    public ArrowTraitBatch batch() {
+        if (this.batch == null) {
+            throw new IllegalStateException("No record batch loaded from " + this.path);
+        }
+
+        return this.batch;
+    }
+
+    private ListVector vector() throws IOException {
+        var root = this.reader.getVectorSchemaRoot();
+        if (this.column != null) {
+            var vector = root.getVector(this.column);
+            if (vector == null) {
+                throw new IllegalArgumentException("Column " + this.column + " not found in " + this.path);
+            }
+
+            if (!ArrowTraitBatch.isTraitVector(vector)) {
+                throw new IllegalArgumentException("Column " + this.column + " of " + this.path + " does not hold key/value string entries");
+            }
+
+            return (ListVector) vector;
+        }
+
+        for (var vector: root.getFieldVectors()) {
+            if (ArrowTraitBatch.isTraitVector(vector)) {
+                return (ListVector) vector;
+            }
+        }
+
+        throw new IllegalArgumentException("No trait column found in " + this.path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        LOGGER.debug("Read {} record batches from {}", this.batches, this.path);
+        this.batch = null;
+        try {
+            this.reader.close();
+        } finally {
+            this.allocator.close();
+        }
+    }
+
+}
@@ -1,16 +1,18 @@
 package io.exsql.s3xty;
 
 import io.exsql.s3xty.value.Value;
+import io.exsql.s3xty.value.ValueParser;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.UnsafeArrayData;
+import org.apache.spark.sql.catalyst.expressions.UnsafeRow;
 import org.apache.spark.sql.catalyst.util.ArrayData;
 import org.apache.spark.sql.types.DataType;
 import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.unsafe.Platform;
+import org.apache.spark.unsafe.bitset.BitSetMethods;
 import org.apache.spark.unsafe.types.UTF8String;
 
-import java.util.Iterator;
-import java.util.OptionalDouble;
-import java.util.OptionalLong;
-
 public class CachedArrayDataAccessor implements TraitAccessor {
 
     public static final DataType STRING_ARRAY_TYPE = DataTypes.createArrayType(DataTypes.StringType);
@@ -20,142 +22,117 @@ public class CachedArrayDataAccessor implements TraitAccessor {
 
     private static final UTF8String DEFAULT_ARRAY_VALUE_DELIMITER = UTF8String.fromString(",");
 
-    private final Object2ObjectOpenHashMap<UTF8String, Value> cache;
+    private static final int ROW_BITSET_WIDTH = UnsafeRow.calculateBitSetWidthInBytes(2);
 
-    private final ArrayDataIterator iterator;
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes;
 
-    public CachedArrayDataAccessor(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ArrayData entries) {
-        this.cache = new Object2ObjectOpenHashMap<>();
-        this.iterator = new ArrayDataIterator(fieldTypes, entries);
-    }
+    private final ArrayData entries;
 
-    public Value get(final UTF8String key) {
-        if (!this.iterator.hasNext() || this.cache.containsKey(key)) {
-            return this.cache.get(key);
-        }
+    private final int length;
 
-        while (this.iterator.hasNext()) {
-            var entry = this.iterator.next();
-            if (entry.key.equals(key)) {
-                this.cache.put(entry.key, entry.value);
-                return entry.value;
-            }
-        }
+    // decoded traits, null for traits the profile does not hold
+    private final Object2ObjectOpenHashMap<UTF8String, Value> cache;
 
-        return null;
-    }
+    // the position of the first entry of every trait scanned past, so that every entry is visited at most once
+    private final Object2IntOpenHashMap<UTF8String> positions;
 
-    public OptionalLong getLong(final UTF8String key) {
-        var value = this.get(key);
-        if (value != null && !value.isNull()) {
-            return OptionalLong.of(value.toLong());
-        }
+    private int scanned;
 
-        return OptionalLong.empty();
+    public CachedArrayDataAccessor(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ArrayData entries) {
+        this.fieldTypes = fieldTypes;
+        this.entries = entries;
+        this.length = entries.numElements();
+        this.cache = new Object2ObjectOpenHashMap<>();
+        this.positions = new Object2IntOpenHashMap<>();
+        this.positions.defaultReturnValue(-1);
     }
 
-    public OptionalDouble getDouble(final UTF8String key) {
-        var value = this.get(key);
-        if (value != null && !value.isNull()) {
-            return OptionalDouble.of(value.toDouble());
+    @Override
+    public Value get(final UTF8String key) {
+        var value = this.cache.get(key);
+        if (value != null || this.cache.containsKey(key)) {
+            return value;
         }
 
-        return OptionalDouble.empty();
-    }
-
-    public boolean getBoolean(final UTF8String key) {
-        var value = this.get(key);
-        if (value != null && !value.isNull()) {
-            return value.toBoolean();
+        // only the keys are compared while searching, values are decoded when their trait is requested
+        var position = this.locate(key);
+        if (position >= 0) {
+            value = decode(this.fieldTypes.getOrDefault(key, DataTypes.StringType), this.entries.getStruct(position, 2).getUTF8String(1));
         }
 
-        return false;
+        this.cache.put(key, value);
+        return value;
     }
 
-    public UTF8String[] getStrings(final UTF8String key) {
-        var value = this.get(key);
-        if (value != null && !value.isNull()) {
-            return value.toStrings();
+    // returns the position of the first entry of a trait, resuming the scan where the previous lookup stopped
+    private int locate(final UTF8String key) {
+        var position = this.positions.getInt(key);
+        if (position >= 0) {
+            return position;
         }
 
-        return new UTF8String[0];
-    }
-
-    public long[] getLongs(final UTF8String key) {
-        var value = this.get(key);
-        if (value != null && !value.isNull()) {
-            return value.toLongs();
+        while (this.scanned < this.length) {
+            var scanned = this.scanned++;
+            var scannedKey = this.key(scanned);
+            if (scannedKey != null && this.positions.putIfAbsent(scannedKey, scanned) == -1 && scannedKey.equals(key)) {
+                return scanned;
+            }
         }
 
-        return new long[0];
+        return -1;
     }
 
-    public double[] getDoubles(final UTF8String key) {
-        var value = this.get(key);
-        if (value != null && !value.isNull()) {
-            return value.toDoubles();
+    // the key of an entry, read in place from unsafe arrays without materializing the row of the entry
+    private UTF8String key(final int position) {
+        if (this.entries.isNullAt(position)) {
+            return null;
         }
 
-        return new double[0];
-    }
+        if (this.entries instanceof UnsafeArrayData unsafe) {
+            var base = unsafe.getBaseObject();
+            var offset = unsafe.getBaseOffset();
+            var element = Platform.getLong(base, offset + UnsafeArrayData.calculateHeaderPortionInBytes(this.length) + (long) position * 8);
+            var row = offset + (int) (element >> 32);
+            if (BitSetMethods.isSet(base, row, 0)) {
+                return null;
+            }
 
-    public boolean[] getBooleans(final UTF8String key) {
-        var value = this.get(key);
-        if (value != null && !value.isNull()) {
-            return value.toBooleans();
+            var keyField = Platform.getLong(base, row + ROW_BITSET_WIDTH);
+            return UTF8String.fromAddress(base, row + (int) (keyField >> 32), (int) keyField);
         }
 
-        return new boolean[0];
+        return this.entries.getStruct(position, 2).getUTF8String(0);
     }
 
-    private record ArrayDataEntry(UTF8String key, Value value) {}
-    private static final class ArrayDataIterator implements Iterator<ArrayDataEntry> {
-        private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes;
-        private final ArrayData arrayData;
-        private final int length;
-        private int index = 0;
-
-        public ArrayDataIterator(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ArrayData arrayData) {
-            this.fieldTypes = fieldTypes;
-            this.arrayData = arrayData;
-            this.length = arrayData.numElements();
+    /**
+     * Decodes the raw string value of a trait according to its declared type.
+     *
+     * @param valueType the declared type of the trait
+     * @param value the raw value, or null
+     * @return the decoded value
+     */
+    static Value decode(final DataType valueType, final UTF8String value) {
+        if (value == null) {
+            return Value.nullValue();
         }
 
-        @Override
-        public boolean hasNext() {
-            return this.index < this.length;
+        if (valueType == DataTypes.BooleanType) {
+            return Value.booleanValue(value.toString());
+        } else if (valueType == DataTypes.LongType) {
+            return Value.longValue(value.toLongExact());
+        } else if (valueType == DataTypes.DoubleType) {
+            return Value.doubleValue(ValueParser.parseDouble(value));
+        } else if (valueType.sameType(STRING_ARRAY_TYPE)) {
+            return Value.stringArrayValue(DEFAULT_ARRAY_VALUE_DELIMITER, value);
+        } else if (valueType.sameType(LONG_ARRAY_TYPE)) {
+            return Value.longArrayValue(DEFAULT_ARRAY_VALUE_DELIMITER, value);
+        } else if (valueType.sameType(DOUBLE_ARRAY_TYPE)) {
+            return Value.doubleArrayValue(DEFAULT_ARRAY_VALUE_DELIMITER, value);
+        } else if (valueType.sameType(BOOLEAN_ARRAY_TYPE)) {
+            return Value.booleanArrayValue(DEFAULT_ARRAY_VALUE_DELIMITER, value);
         }
 
-        @Override
-        public ArrayDataEntry next() {
-            var entry = this.arrayData.getStruct(this.index++, 2);
-            var key = entry.getUTF8String(0);
-            var value = entry.getUTF8String(1);
-
-            var valueType = this.fieldTypes.getOrDefault(key, DataTypes.StringType);
-            Value v = Value.nullValue();
-            if (value != null) {
-                if (valueType == DataTypes.BooleanType) {
-                    v = Value.booleanValue(value.toString());
-                } else if (valueType == DataTypes.LongType) {
-                    v = Value.longValue(value.toLongExact());
-                } else if (valueType == DataTypes.DoubleType) {
-                    v = Value.doubleValue(Double.parseDouble(value.toString()));
-                } else if (valueType.sameType(STRING_ARRAY_TYPE)) {
-                    v = Value.stringArrayValue(DEFAULT_ARRAY_VALUE_DELIMITER, value);
-                } else if (valueType.sameType(LONG_ARRAY_TYPE)) {
-                    v = Value.longArrayValue(DEFAULT_ARRAY_VALUE_DELIMITER, value);
-                } else if (valueType.sameType(DOUBLE_ARRAY_TYPE)) {
-                    v = Value.doubleArrayValue(DEFAULT_ARRAY_VALUE_DELIMITER, value);
-                } else if (valueType.sameType(BOOLEAN_ARRAY_TYPE)) {
-                    v = Value.booleanArrayValue(DEFAULT_ARRAY_VALUE_DELIMITER, value);
-                } else {
-                    v = Value.stringValue(value);
-                }
-            }
-
-            return new ArrayDataEntry(entry.getUTF8String(0), v);
-        }
+        return Value.stringValue(value);
     }
 
 }
@@ -1,7 +1,15 @@
 package io.exsql.s3xty;
 
 import com.google.common.base.Stopwatch;
+import com.google.re2j.PatternSyntaxException;
+import io.exsql.s3xty.value.StringArrayValue;
+import io.exsql.s3xty.value.StringValue;
 import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.types.ArrayType;
 import org.apache.spark.sql.types.DataType;
 import org.apache.spark.sql.types.DataTypes;
 import org.apache.spark.sql.types.StructType;
@@ -9,11 +17,11 @@ import org.apache.spark.unsafe.types.UTF8String;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.io.StreamTokenizer;
-import java.io.StringReader;
+import java.io.Serial;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -24,6 +32,22 @@ public final class Compiler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Compiler.class);
 
+    // Below this many expressions the fork/join overhead is not worth it
+    static final int PARALLEL_THRESHOLD = 512;
+    private static final int TASK_SIZE = 64;
+
+    private static final Object2ObjectOpenHashMap<UTF8String, String> KEYWORDS = new Object2ObjectOpenHashMap<>();
+    static {
+        for (var keyword: new String[] {
+                Keywords.TRAIT_EQ, Keywords.TRAIT_NE, Keywords.TRAIT_LT, Keywords.TRAIT_LE, Keywords.TRAIT_GT,
+                Keywords.TRAIT_GE, Keywords.TRAIT_EXISTS, Keywords.TRAIT_CI_EQ, Keywords.TRAIT_REGEX,
+                Keywords.TRAIT_CONTAINS, Keywords.TRAIT_CI_CONTAINS, Keywords.TRAIT_ELEMENT_CONTAINS,
+                Keywords.TRAIT_CONTAINS_ANY, Keywords.TRAIT_IN, Keywords.NOT, Keywords.AND, Keywords.OR
+        }) {
+            KEYWORDS.put(UTF8String.fromString(keyword), keyword);
+        }
+    }
+
     private Compiler() {}
 
     /**
@@ -40,12 +64,55 @@ public final class Compiler {
     /**
      * Compiles an array of S-expressions into a single program.
      * Each expression is compiled and its result is stored in the result array at the corresponding index.
+     * Large arrays are compiled in parallel on the common fork/join pool, the program is identical to a sequential compilation.
      *
      * @param schema the schema of the data
      * @param expressions the array of S-expressions to compile
      * @return the compiled program with all expressions inlined
      */
     public static Program compile(final StructType schema, final String[] expressions) {
+        var parallel = expressions != null && expressions.length >= PARALLEL_THRESHOLD;
+        return compile(schema, expressions, parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Compiles an array of S-expressions into a single program, interning the string constants of {@code trait-eq},
+     * {@code trait-ne} and {@code trait-in} with a dictionary.
+     * Traits decoded with the same dictionary are then compared by id, see {@link TraitDictionary}.
+     *
+     * @param schema the schema of the data
+     * @param expressions the array of S-expressions to compile
+     * @param dictionary the dictionary the values of the traits are interned with
+     * @return the compiled program with all expressions inlined
+     */
+    public static Program compile(final StructType schema, final String[] expressions, final TraitDictionary dictionary) {
+        if (dictionary == null) {
+            throw new IllegalArgumentException("Dictionary cannot be null");
+        }
+
+        var parallel = expressions != null && expressions.length >= PARALLEL_THRESHOLD;
+        return compile(schema, expressions, parallel ? ForkJoinPool.commonPool() : null, dictionary);
+    }
+
+    /**
+     * Compiles an array of S-expressions into a single program.
+     * Expressions are parsed independently on the given pool and the resulting segments are then linked,
+     * when several expressions are invalid the error of the first one is reported.
+     *
+     * @param schema the schema of the data
+     * @param expressions the array of S-expressions to compile
+     * @param pool the pool to compile on, or null to compile on the calling thread
+     * @return the compiled program with all expressions inlined
+     */
+    static Program compile(final StructType schema, final String[] expressions, final ForkJoinPool pool) {
+        return compile(schema, expressions, pool, null);
+    }
+
+    private static Program compile(final StructType schema,
+                                   final String[] expressions,
+                                   final ForkJoinPool pool,
+                                   final TraitDictionary dictionary) {
+
         if (schema == null) {
             throw new IllegalArgumentException("Schema cannot be null");
         }
@@ -55,56 +122,195 @@ public final class Compiler {
         }
         
         var stopWatch = Stopwatch.createStarted();
-        var instructions = new ArrayList<Instruction>();
         try {
-            for (var i = 0; i < expressions.length; i++) {
-                String expression = expressions[i];
-                if (expression == null || expression.isEmpty()) {
-                    throw new IllegalArgumentException("Expression at index " + i + " cannot be null or empty");
+            var fieldTypes = SchemaHelper.convert(schema);
+            var segments = new Instruction[expressions.length][];
+            if (pool == null) {
+                for (var i = 0; i < expressions.length; i++) {
+                    segments[i] = parseSegment(fieldTypes, dictionary, expressions, i);
                 }
-                
-                // Parse and compile the expression
-                var tokens = new StreamTokenizer(new StringReader(expression));
-                while (tokens.nextToken() != StreamTokenizer.TT_EOF) {
-                    parseExpression(tokens, instructions, schema);
+            } else {
+                var failures = new RuntimeException[expressions.length];
+                pool.invoke(new ParseTask(fieldTypes, dictionary, expressions, segments, failures, 0, expressions.length));
+                for (var failure: failures) {
+                    if (failure != null) {
+                        throw failure;
+                    }
                 }
-                
-                // Store the result at the corresponding index in the result array
-                instructions.add(Instruction.storeResult(i));
             }
 
-            // Add the final halt instruction
-            instructions.add(Instruction.halt());
+            var instructions = link(segments, pool);
 
-            var elapsed = stopWatch.elapsed(TimeUnit.MILLISECONDS);
-            LOGGER.debug("compile phase took: {}ms", elapsed);
+            var elapsed = stopWatch.elapsed(TimeUnit.MICROSECONDS);
+            LOGGER.debug("compile phase took: {}ms ({} expressions/s)", elapsed / 1000, expressions.length * 1_000_000L / Math.max(elapsed, 1));
 
-            return new Program(expressions, instructions.toArray(new Instruction[0]));
+            return new Program(expressions, instructions);
         } catch (final Exception exception) {
             LOGGER.error("Error compiling expressions: {}", String.join("; ", expressions), exception);
             throw new RuntimeException("Error compiling expressions: " + exception, exception);
         }
     }
 
-    private static void parseExpression(final StreamTokenizer tokens, final List<Instruction> instructions, final StructType schema) throws IOException {
-        tokens.nextToken(); // skip (
-        switch (tokens.sval) {
+    /**
+     * Compiles a single S-expression into a relocatable segment.
+     * Jump targets inside the segment are relative to its first instruction and no result is stored,
+     * {@link #link(Instruction[][])} takes care of both when the segment is placed in a program.
+     *
+     * @param schema the schema of the data
+     * @param expression the S-expression to compile
+     * @return the instructions of the segment
+     */
+    static Instruction[] compileSegment(final StructType schema, final String expression) {
+        if (schema == null) {
+            throw new IllegalArgumentException("Schema cannot be null");
+        }
+
+        if (expression == null || expression.isEmpty()) {
+            throw new IllegalArgumentException("Expression cannot be null or empty");
+        }
+
+        try {
+            return parseSegment(SchemaHelper.convert(schema), null, expression);
+        } catch (final Exception exception) {
+            LOGGER.error("Error compiling expression: {}", expression, exception);
+            throw new RuntimeException("Error compiling expression: " + exception, exception);
+        }
+    }
+
+    /**
+     * Links relocatable segments into the instructions of a single program.
+     * The segment at index {@code i} stores its result at index {@code i} of the result array,
+     * a {@code null} segment leaves its result slot untouched.
+     *
+     * @param segments the segments indexed by result slot
+     * @return the linked instructions, terminated by a halt instruction
+     */
+    static Instruction[] link(final Instruction[][] segments) {
+        return link(segments, null);
+    }
+
+    /**
+     * Splits the instructions of a linked program back into the relocatable segments of its expressions,
+     * the inverse of {@link #link(Instruction[][])}.
+     *
+     * @param instructions the linked instructions
+     * @param expressions the number of result slots
+     * @return the segments indexed by result slot, null for the slots no segment stores
+     */
+    static Instruction[][] segments(final Instruction[] instructions, final int expressions) {
+        var segments = new Instruction[expressions][];
+        var base = 0;
+        for (var i = 0; i < instructions.length; i++) {
+            if (instructions[i].operation() != OperationCode.STORE_RESULT) {
+                continue;
+            }
+
+            // every segment ends with the store of its result, jump targets become relative to its first instruction
+            var segment = new Instruction[i - base];
+            for (var j = 0; j < segment.length; j++) {
+                segment[j] = instructions[base + j].relocate(-base);
+            }
+
+            segments[(int) instructions[i].operand(0).toLong()] = segment;
+            base = i + 1;
+        }
+
+        return segments;
+    }
+
+    private static Instruction[] link(final Instruction[][] segments, final ForkJoinPool pool) {
+        // Every segment starts where the previous one and its store result instruction end
+        var offsets = new int[segments.length];
+        var length = 0;
+        for (var slot = 0; slot < segments.length; slot++) {
+            offsets[slot] = length;
+            if (segments[slot] != null) {
+                length += segments[slot].length + 1;
+            }
+        }
+
+        var instructions = new Instruction[length + 1];
+        if (pool == null) {
+            place(segments, offsets, instructions, 0, segments.length);
+        } else {
+            pool.invoke(new LinkTask(segments, offsets, instructions, 0, segments.length));
+        }
+
+        // Add the final halt instruction
+        instructions[length] = Instruction.halt();
+        return instructions;
+    }
+
+    private static void place(final Instruction[][] segments, final int[] offsets, final Instruction[] instructions, final int from, final int to) {
+        for (var slot = from; slot < to; slot++) {
+            var segment = segments[slot];
+            if (segment == null) {
+                continue;
+            }
+
+            var base = offsets[slot];
+            for (var i = 0; i < segment.length; i++) {
+                instructions[base + i] = segment[i].relocate(base);
+            }
+
+            // Store the result at the corresponding index in the result array
+            instructions[base + segment.length] = Instruction.storeResult(slot);
+        }
+    }
+
+    private static Instruction[] parseSegment(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                                              final TraitDictionary dictionary,
+                                              final String[] expressions,
+                                              final int index) {
+
+        String expression = expressions[index];
+        if (expression == null || expression.isEmpty()) {
+            throw new IllegalArgumentException("Expression at index " + index + " cannot be null or empty");
+        }
+
+        return parseSegment(fieldTypes, dictionary, expression);
+    }
+
+    private static Instruction[] parseSegment(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                                              final TraitDictionary dictionary,
+                                              final String expression) {
+
+        // Parse and compile the expression
+        var instructions = new ArrayList<Instruction>();
+        var tokens = new Tokenizer(expression);
+        tokens.next();
+        parseExpression(tokens, instructions, fieldTypes, dictionary);
+
+        // a segment is exactly one expression
+        tokens.expect(Tokenizer.EOF);
+
+        return instructions.toArray(new Instruction[0]);
+    }
+
+    private static void parseExpression(final Tokenizer tokens,
+                                        final List<Instruction> instructions,
+                                        final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                                        final TraitDictionary dictionary) {
+
+        tokens.expect(Tokenizer.OPEN);
+        tokens.next(); // skip (
+        switch (parseKeyword(tokens)) {
             case Keywords.NOT:
-                tokens.nextToken(); // skip "not"
-                parseExpression(tokens, instructions, schema);
+                tokens.next(); // skip "not"
+                parseExpression(tokens, instructions, fieldTypes, dictionary);
                 instructions.add(Instruction.not());
                 break;
             case Keywords.OR:
-                tokens.nextToken(); // skip "or"
+                tokens.next(); // skip "or"
                 
                 // Parse the first operand
-                parseExpression(tokens, instructions, schema);
+                parseExpression(tokens, instructions, fieldTypes, dictionary);
                 
                 // Keep track of all the jump instructions that need to be updated
                 List<Integer> jumpIndices = new ArrayList<>();
                 
                 // Process all remaining operands
-                while (tokens.ttype != ')') {
+                while (tokens.type() != Tokenizer.CLOSE) {
                     // Duplicate the top value for the conditional jump
                     instructions.add(Instruction.dup());
                     
@@ -117,7 +323,7 @@ public final class Compiler {
                     instructions.add(Instruction.pop());
                     
                     // Parse the next operand
-                    parseExpression(tokens, instructions, schema);
+                    parseExpression(tokens, instructions, fieldTypes, dictionary);
                 }
                 
                 // Update all jump targets to point to the instruction after all operands
@@ -126,16 +332,16 @@ public final class Compiler {
                 }
                 break;
             case Keywords.AND:
-                tokens.nextToken(); // skip "and"
+                tokens.next(); // skip "and"
                 
                 // Parse the first operand
-                parseExpression(tokens, instructions, schema);
+                parseExpression(tokens, instructions, fieldTypes, dictionary);
                 
                 // Keep track of all the jump instructions that need to be updated
                 List<Integer> andJumpIndices = new ArrayList<>();
                 
                 // Process all remaining operands
-                while (tokens.ttype != ')') {
+                while (tokens.type() != Tokenizer.CLOSE) {
                     // Duplicate the top value for the conditional jump
                     instructions.add(Instruction.dup());
                     
@@ -148,7 +354,7 @@ public final class Compiler {
                     instructions.add(Instruction.pop());
                     
                     // Parse the next operand
-                    parseExpression(tokens, instructions, schema);
+                    parseExpression(tokens, instructions, fieldTypes, dictionary);
                 }
                 
                 // Update all jump targets to point to the instruction after all operands
@@ -157,20 +363,31 @@ public final class Compiler {
                 }
                 break;
             case Keywords.TRAIT_EXISTS:
-                parseUnaryOperator(tokens, instructions, schema);
+                parseUnaryOperator(tokens, instructions, fieldTypes);
                 break;
             default:
-                parseBinaryOperator(tokens, instructions, schema);
+                parseBinaryOperator(tokens, instructions, fieldTypes, dictionary);
                 break;
         }
-        tokens.nextToken(); // skip )
+        tokens.expect(Tokenizer.CLOSE);
+        tokens.next(); // skip )
     }
 
-    private static void parseUnaryOperator(final StreamTokenizer tokens, final List<Instruction> instructions, final StructType schema) throws IOException {
-        var operator = tokens.sval;
+    private static String parseKeyword(final Tokenizer tokens) {
+        tokens.expect(Tokenizer.ATOM);
+        var keyword = KEYWORDS.get(tokens.token());
+        if (keyword == null) {
+            throw tokens.error("Unknown operator: " + tokens.token());
+        }
+
+        return keyword;
+    }
+
+    private static void parseUnaryOperator(final Tokenizer tokens, final List<Instruction> instructions, final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes) {
+        var operator = parseKeyword(tokens);
 
-        tokens.nextToken(); // consume operator
-        parseGetField(tokens, instructions, schema); // parse the get field operation
+        tokens.next(); // consume operator
+        parseGetField(tokens, instructions, fieldTypes); // parse the get field operation
 
         if (operator.equals(Keywords.TRAIT_EXISTS)) {
             instructions.add(Instruction.isNotNull());
@@ -180,12 +397,24 @@ public final class Compiler {
         throw new IllegalArgumentException("Unknown operator: " + operator);
     }
 
-    private static void parseBinaryOperator(final StreamTokenizer tokens, final List<Instruction> instructions, final StructType schema) throws IOException {
-        var operator = tokens.sval;
+    private static void parseBinaryOperator(final Tokenizer tokens,
+                                            final List<Instruction> instructions,
+                                            final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                                            final TraitDictionary dictionary) {
 
-        tokens.nextToken(); // consume operator
-        var dataType = parseGetField(tokens, instructions, schema); // parse the get field operation
-        parseArgument(tokens, instructions, dataType, operator); // parse the constant value to check against
+        var operator = parseKeyword(tokens);
+        var operatorPosition = tokens.position();
+
+        tokens.next(); // consume operator
+        var field = tokens.value();
+        var dataType = parseGetField(tokens, instructions, fieldTypes); // parse the get field operation
+
+        // the constants of equality and membership tests are interned with the values of the trait
+        var interned = dictionary != null
+                && (operator.equals(Keywords.TRAIT_EQ) || operator.equals(Keywords.TRAIT_NE) || operator.equals(Keywords.TRAIT_IN))
+                && dataType.equals(DataTypes.StringType)
+                && dictionary.encodes(field);
+        parseArgument(tokens, instructions, dataType, operator, interned ? dictionary : null); // parse the constant value to check against
 
         switch (operator) {
             case Keywords.TRAIT_EQ:
@@ -253,13 +482,13 @@ public final class Compiler {
                 instructions.add(Instruction.stringRegexpMatch());
                 break;
             case Keywords.TRAIT_CONTAINS:
-                if (CachedArrayDataAccessor.LONG_ARRAY_TYPE.sameType(dataType)) {
+                if (isArrayOf(dataType, DataTypes.LongType)) {
                     instructions.add(Instruction.longArrayContains());
-                } else if (CachedArrayDataAccessor.DOUBLE_ARRAY_TYPE.sameType(dataType)) {
+                } else if (isArrayOf(dataType, DataTypes.DoubleType)) {
                     instructions.add(Instruction.doubleArrayContains());
-                } else if (CachedArrayDataAccessor.BOOLEAN_ARRAY_TYPE.sameType(dataType)) {
+                } else if (isArrayOf(dataType, DataTypes.BooleanType)) {
                     instructions.add(Instruction.booleanArrayContains());
-                } else if (CachedArrayDataAccessor.STRING_ARRAY_TYPE.sameType(dataType)) {
+                } else if (isArrayOf(dataType, DataTypes.StringType)) {
                     instructions.add(Instruction.stringArrayContains());
                 } else {
                     instructions.add(Instruction.stringContains());
@@ -283,104 +512,216 @@ public final class Compiler {
                 }
                 break;
             case Keywords.TRAIT_CONTAINS_ANY:
-                if (CachedArrayDataAccessor.LONG_ARRAY_TYPE.sameType(dataType)) {
+                if (isArrayOf(dataType, DataTypes.LongType)) {
                     instructions.add(Instruction.longArrayIntersectsNonEmpty());
-                } else if (CachedArrayDataAccessor.DOUBLE_ARRAY_TYPE.sameType(dataType)) {
+                } else if (isArrayOf(dataType, DataTypes.DoubleType)) {
                     instructions.add(Instruction.doubleArrayIntersectsNonEmpty());
-                } else if (CachedArrayDataAccessor.BOOLEAN_ARRAY_TYPE.sameType(dataType)) {
+                } else if (isArrayOf(dataType, DataTypes.BooleanType)) {
                     instructions.add(Instruction.booleanArrayIntersectsNonEmpty());
                 } else {
                     instructions.add(Instruction.stringArrayIntersectsNonEmpty());
                 }
                 break;
             default:
-                throw new IllegalArgumentException("Unknown operator: " + operator);
+                throw new ParseException("Unknown operator: " + operator, operatorPosition);
         }
     }
 
-    private static DataType parseGetField(final StreamTokenizer tokens, final List<Instruction> instructions, final StructType schema) throws IOException {
-        DataType dataType;
-        try {
-            var index = schema.fieldIndex(tokens.sval);
-            dataType = schema.apply(index).dataType();
-            instructions.add(Instruction.load(Value.fieldTypeValue(dataType)));
-        } catch (final IllegalArgumentException illegalArgumentException) {
-            // This is an acceptable path, schema is a hint and not mandatory.
-            // String is the default type when not found in the schema.
-            dataType = DataTypes.StringType;
-            instructions.add(Instruction.load(Value.fieldTypeValue(dataType)));
-        }
+    private static DataType parseGetField(final Tokenizer tokens, final List<Instruction> instructions, final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes) {
+        var field = tokens.value();
 
-        instructions.add(Instruction.load(Value.stringValue(UTF8String.fromString(tokens.sval))));
+        // The schema is a hint and not mandatory.
+        // String is the default type when not found in the schema.
+        var dataType = fieldTypes.getOrDefault(field, DataTypes.StringType);
+        instructions.add(Instruction.load(Value.fieldTypeValue(dataType)));
+        instructions.add(Instruction.load(Value.stringValue(field)));
         instructions.add(Instruction.getField());
 
-        tokens.nextToken(); // consume get field operation
+        tokens.next(); // consume get field operation
 
         return dataType;
     }
 
-    private static void parseArgument(final StreamTokenizer tokens,
+    private static void parseArgument(final Tokenizer tokens,
                                       final List<Instruction> instructions,
                                       final DataType dataType,
-                                      final String operator) throws IOException {
+                                      final String operator,
+                                      final TraitDictionary dictionary) {
 
+        if (operator.equals(Keywords.TRAIT_IN) || operator.equals(Keywords.TRAIT_CONTAINS_ANY)) {
+            parseMultiValueArgument(tokens, instructions, dataType, dictionary);
+            return;
+        }
+
+        var value = parseValue(tokens, dataType, operator);
+        if (dictionary != null && value instanceof StringValue string) {
+            value = dictionary.encode(string.wrapped());
+        }
+
+        instructions.add(Instruction.load(value));
+        tokens.next(); // consume argument
+    }
+
+    private static Value parseValue(final Tokenizer tokens, final DataType dataType, final String operator) {
+        var token = tokens.value();
         try {
-            if (dataType != null) {
-                if (operator.equals(Keywords.TRAIT_IN) || operator.equals(Keywords.TRAIT_CONTAINS_ANY)) {
-                    parseMultiValueArgument(tokens, instructions, dataType);
-                } else if (dataType.equals(DataTypes.LongType) || CachedArrayDataAccessor.LONG_ARRAY_TYPE.sameType(dataType)) {
-                    instructions.add(Instruction.load(Value.longValue(tokens.sval)));
-                } else if (dataType.equals(DataTypes.DoubleType) || CachedArrayDataAccessor.DOUBLE_ARRAY_TYPE.sameType(dataType)) {
-                    instructions.add(Instruction.load(Value.doubleValue(tokens.sval)));
-                } else if (dataType.equals(DataTypes.BooleanType) || CachedArrayDataAccessor.BOOLEAN_ARRAY_TYPE.sameType(dataType)) {
-                    instructions.add(Instruction.load(Value.booleanValue(tokens.sval)));
-                } else if (dataType.equals(DataTypes.StringType) || CachedArrayDataAccessor.STRING_ARRAY_TYPE.sameType(dataType)) {
-                    parseStringArgument(tokens, instructions, operator);
-                } else {
-                    throw new IllegalArgumentException("Unsupported data type: " + dataType);
-                }
+            if (dataType.equals(DataTypes.LongType) || isArrayOf(dataType, DataTypes.LongType)) {
+                return Value.longValue(token.toLongExact());
+            } else if (dataType.equals(DataTypes.DoubleType) || isArrayOf(dataType, DataTypes.DoubleType)) {
+                return Value.doubleValue(token.toString());
+            } else if (dataType.equals(DataTypes.BooleanType) || isArrayOf(dataType, DataTypes.BooleanType)) {
+                return Value.booleanValue(token.toString());
+            } else if (dataType.equals(DataTypes.StringType) || isArrayOf(dataType, DataTypes.StringType)) {
+                return parseStringArgument(token, operator);
             } else {
-                parseStringArgument(tokens, instructions, operator);
+                throw tokens.error("Unsupported data type: " + dataType);
             }
         } catch (final NumberFormatException nfe) {
-            throw new IllegalArgumentException("Invalid value for type " + dataType + ": " + tokens.sval, nfe);
+            throw tokens.error("Invalid value for type " + dataType + ": " + token, nfe);
+        } catch (final PatternSyntaxException pse) {
+            throw tokens.error("Invalid regular expression: " + token, pse);
         }
+    }
 
-        tokens.nextToken(); // consume argument
+    private static Value parseStringArgument(final UTF8String token, final String operator) {
+        return switch (operator) {
+            case Keywords.TRAIT_CI_EQ -> Value.stringValue(token).toLowercase();
+            case Keywords.TRAIT_REGEX -> Value.regexpValue(token.toString());
+            default -> Value.stringValue(token);
+        };
     }
 
-    private static void parseStringArgument(final StreamTokenizer tokens, final List<Instruction> instructions, final String operator) {
-        switch (operator) {
-            case Keywords.TRAIT_CI_EQ -> instructions.add(Instruction.load(Value.stringValue(UTF8String.fromString(tokens.sval)).toLowercase()));
-            case Keywords.TRAIT_REGEX -> instructions.add(Instruction.load(Value.regexpValue(tokens.sval)));
-            default -> instructions.add(Instruction.load(Value.stringValue(UTF8String.fromString(tokens.sval))));
+    // DataType.sameType reads the session configuration on every call, which dominates compile time
+    private static boolean isArrayOf(final DataType dataType, final DataType elementType) {
+        return dataType instanceof ArrayType && ((ArrayType) dataType).elementType().equals(elementType);
+    }
+
+    private static void parseMultiValueArgument(final Tokenizer tokens,
+                                                final List<Instruction> instructions,
+                                                final DataType dataType,
+                                                final TraitDictionary dictionary) {
+
+        tokens.expect(Tokenizer.OPEN);
+        tokens.next(); // consume (
+
+        if (DataTypes.LongType.equals(dataType) || isArrayOf(dataType, DataTypes.LongType)) {
+            var longs = new LongArrayList();
+            while (tokens.type() != Tokenizer.CLOSE) {
+                longs.add(parseValue(tokens, DataTypes.LongType, Keywords.TRAIT_IN).toLong());
+                tokens.next();
+            }
+            instructions.add(Instruction.load(Value.longArrayValue(longs.toLongArray())));
+        } else if (DataTypes.DoubleType.equals(dataType) || isArrayOf(dataType, DataTypes.DoubleType)) {
+            var doubles = new DoubleArrayList();
+            while (tokens.type() != Tokenizer.CLOSE) {
+                doubles.add(parseValue(tokens, DataTypes.DoubleType, Keywords.TRAIT_IN).toDouble());
+                tokens.next();
+            }
+            instructions.add(Instruction.load(Value.doubleArrayValue(doubles.toDoubleArray())));
+        } else if (DataTypes.BooleanType.equals(dataType) || isArrayOf(dataType, DataTypes.BooleanType)) {
+            var booleans = new BooleanArrayList();
+            while (tokens.type() != Tokenizer.CLOSE) {
+                booleans.add(parseValue(tokens, DataTypes.BooleanType, Keywords.TRAIT_IN).toBoolean());
+                tokens.next();
+            }
+            instructions.add(Instruction.load(Value.booleanArrayValue(booleans.toBooleanArray())));
+        } else {
+            var elements = new ArrayList<UTF8String>();
+            while (tokens.type() != Tokenizer.CLOSE) {
+                elements.add(tokens.value());
+                tokens.next();
+            }
+            var strings = Value.stringArrayValue(elements.toArray(new UTF8String[0]));
+            instructions.add(Instruction.load(dictionary == null ? strings : dictionary.encode(strings)));
         }
+
+        tokens.next(); // consume )
     }
 
-    private static void parseMultiValueArgument(final StreamTokenizer tokens, final List<Instruction> instructions, final DataType dataType) throws IOException {
-        tokens.nextToken(); // consume (
+    private static final class ParseTask extends RecursiveAction {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes;
+        private final transient TraitDictionary dictionary;
+        private final transient String[] expressions;
+        private final transient Instruction[][] segments;
+        private final transient RuntimeException[] failures;
+        private final int from;
+        private final int to;
+
+        ParseTask(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                  final TraitDictionary dictionary,
+                  final String[] expressions,
+                  final Instruction[][] segments,
+                  final RuntimeException[] failures,
+                  final int from,
+                  final int to) {
+
+            this.fieldTypes = fieldTypes;
+            this.dictionary = dictionary;
+            this.expressions = expressions;
+            this.segments = segments;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
 
-        var elements = new ArrayList<UTF8String>();
-        while (tokens.ttype != ')') {
-            elements.add(UTF8String.fromString(tokens.sval));
-            tokens.nextToken();
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= TASK_SIZE) {
+                for (var i = this.from; i < this.to; i++) {
+                    try {
+                        this.segments[i] = parseSegment(this.fieldTypes, this.dictionary, this.expressions, i);
+                    } catch (final RuntimeException exception) {
+                        // later expressions of this range cannot be the first failure anymore
+                        this.failures[i] = exception;
+                        return;
+                    }
+                }
+                return;
+            }
+
+            var middle = (this.from + this.to) >>> 1;
+            invokeAll(
+                    new ParseTask(this.fieldTypes, this.dictionary, this.expressions, this.segments, this.failures, this.from, middle),
+                    new ParseTask(this.fieldTypes, this.dictionary, this.expressions, this.segments, this.failures, middle, this.to)
+            );
         }
+    }
+
+    private static final class LinkTask extends RecursiveAction {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
 
-        tokens.nextToken(); // consume )
+        private final transient Instruction[][] segments;
+        private final transient int[] offsets;
+        private final transient Instruction[] instructions;
+        private final int from;
+        private final int to;
 
-        if (DataTypes.LongType.equals(dataType) || CachedArrayDataAccessor.LONG_ARRAY_TYPE.sameType(dataType)) {
-            instructions.add(Instruction.load(Value.longArrayValue(elements.stream().mapToLong(UTF8String::toLongExact).toArray())));
-        } else if (DataTypes.DoubleType.equals(dataType) || CachedArrayDataAccessor.DOUBLE_ARRAY_TYPE.sameType(dataType)) {
-            instructions.add(Instruction.load(Value.doubleArrayValue(elements.stream().mapToDouble(element -> Double.parseDouble(element.toString())).toArray())));
-        } else if (DataTypes.BooleanType.equals(dataType) || CachedArrayDataAccessor.BOOLEAN_ARRAY_TYPE.sameType(dataType)) {
-            var booleans = new boolean[elements.size()];
-            for (int i = 0; i < elements.size(); i++) {
-                booleans[i] = Boolean.parseBoolean(elements.get(i).toString());
+        LinkTask(final Instruction[][] segments, final int[] offsets, final Instruction[] instructions, final int from, final int to) {
+            this.segments = segments;
+            this.offsets = offsets;
+            this.instructions = instructions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= TASK_SIZE * 16) {
+                place(this.segments, this.offsets, this.instructions, this.from, this.to);
+                return;
             }
 
-            instructions.add(Instruction.load(Value.booleanArrayValue(booleans)));
-        } else {
-            instructions.add(Instruction.load(Value.stringArrayValue(elements.toArray(new UTF8String[0]))));
+            var middle = (this.from + this.to) >>> 1;
+            invokeAll(
+                    new LinkTask(this.segments, this.offsets, this.instructions, this.from, middle),
+                    new LinkTask(this.segments, this.offsets, this.instructions, middle, this.to)
+            );
         }
     }
 
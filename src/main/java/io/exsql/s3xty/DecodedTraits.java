@@ -0,0 +1,153 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import io.exsql.s3xty.value.ValueParser;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.unsafe.types.UTF8String;
+
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+
+/**
+ * The traits of a profile, decoded once into typed storage laid out by a {@link TraitLayout}.
+ * <p>
+ * Unlike {@link CachedArrayDataAccessor}, which parses values lazily and caches them, a decoded record is never
+ * written after construction: any number of VMs, on any number of threads, can read it without re-parsing and without
+ * locking. Long, double and boolean traits are served from primitive storage.
+ */
+public final class DecodedTraits implements TraitAccessor {
+
+    private final TraitLayout layout;
+
+    // one bit per slot, a null value is present and flagged in nulls
+    private final long[] present;
+    private final long[] nulls;
+
+    private final long[] longs;
+    private final double[] doubles;
+    private final long[] booleans;
+    private final Value[] values;
+
+    DecodedTraits(final TraitLayout layout, final ArrayData entries) {
+        this.layout = layout;
+        this.present = new long[words(layout.size())];
+        this.nulls = new long[words(layout.size())];
+        this.longs = new long[layout.count(TraitLayout.LONG)];
+        this.doubles = new double[layout.count(TraitLayout.DOUBLE)];
+        this.booleans = new long[words(layout.count(TraitLayout.BOOLEAN))];
+        this.values = new Value[layout.count(TraitLayout.VALUE)];
+
+        for (var i = 0; i < entries.numElements(); i++) {
+            var entry = entries.getStruct(i, 2);
+            var slot = layout.slot(entry.getUTF8String(0));
+
+            // like the cached accessor, the first entry of a trait wins
+            if (slot < 0 || isSet(this.present, slot)) {
+                continue;
+            }
+
+            set(this.present, slot);
+            var raw = entry.getUTF8String(1);
+            if (raw == null) {
+                set(this.nulls, slot);
+                continue;
+            }
+
+            var index = layout.index(slot);
+            try {
+                switch (layout.kind(slot)) {
+                    case TraitLayout.LONG -> this.longs[index] = raw.toLongExact();
+                    case TraitLayout.DOUBLE -> this.doubles[index] = ValueParser.parseDouble(raw);
+                    case TraitLayout.BOOLEAN -> {
+                        if (Boolean.parseBoolean(raw.toString())) {
+                            set(this.booleans, index);
+                        }
+                    }
+                    default -> this.values[index] = layout.decode(slot, raw);
+                }
+            } catch (final NumberFormatException exception) {
+                throw new IllegalArgumentException("Invalid value for trait " + layout.key(slot) + ": " + raw, exception);
+            }
+        }
+    }
+
+    /**
+     * Returns the layout of this record.
+     *
+     * @return the layout
+     */
+    public TraitLayout layout() {
+        return this.layout;
+    }
+
+    @Override
+    public Value get(final UTF8String key) {
+        var slot = this.layout.slot(key);
+        if (slot < 0 || !isSet(this.present, slot)) {
+            return null;
+        }
+
+        if (isSet(this.nulls, slot)) {
+            return Value.nullValue();
+        }
+
+        var index = this.layout.index(slot);
+        return switch (this.layout.kind(slot)) {
+            case TraitLayout.LONG -> Value.longValue(this.longs[index]);
+            case TraitLayout.DOUBLE -> Value.doubleValue(this.doubles[index]);
+            case TraitLayout.BOOLEAN -> Value.booleanValue(isSet(this.booleans, index));
+            default -> this.values[index];
+        };
+    }
+
+    @Override
+    public OptionalLong getLong(final UTF8String key) {
+        var slot = this.layout.slot(key);
+        if (slot < 0 || this.layout.kind(slot) != TraitLayout.LONG) {
+            return TraitAccessor.super.getLong(key);
+        }
+
+        if (!isSet(this.present, slot) || isSet(this.nulls, slot)) {
+            return OptionalLong.empty();
+        }
+
+        return OptionalLong.of(this.longs[this.layout.index(slot)]);
+    }
+
+    @Override
+    public OptionalDouble getDouble(final UTF8String key) {
+        var slot = this.layout.slot(key);
+        if (slot < 0 || this.layout.kind(slot) != TraitLayout.DOUBLE) {
+            return TraitAccessor.super.getDouble(key);
+        }
+
+        if (!isSet(this.present, slot) || isSet(this.nulls, slot)) {
+            return OptionalDouble.empty();
+        }
+
+        return OptionalDouble.of(this.doubles[this.layout.index(slot)]);
+    }
+
+    @Override
+    public boolean getBoolean(final UTF8String key) {
+        var slot = this.layout.slot(key);
+        if (slot < 0 || this.layout.kind(slot) != TraitLayout.BOOLEAN) {
+            return TraitAccessor.super.getBoolean(key);
+        }
+
+        return isSet(this.present, slot) && !isSet(this.nulls, slot) && isSet(this.booleans, this.layout.index(slot));
+    }
+
+    private static int words(final int bits) {
+        return (bits + Long.SIZE - 1) >>> 6;
+    }
+
+    private static boolean isSet(final long[] bitmap, final int bit) {
+        return (bitmap[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private static void set(final long[] bitmap, final int bit) {
+        bitmap[bit >>> 6] |= 1L << bit;
+    }
+
+}
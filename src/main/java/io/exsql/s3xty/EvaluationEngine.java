@@ -0,0 +1,268 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.unsafe.types.UTF8String;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates a program over a set of records split across the workers of a {@link ForkJoinPool}.
+ * <p>
+ * The records are split in halves down to chunks of {@value #CHUNK_SIZE} records, idle workers steal the chunks left
+ * by the busy ones. Every worker thread creates one VM, one accessor and one set of {@link ExpressionBitmaps} per
+ * evaluation and reuses them for every record of every chunk it runs. The bitmaps of the workers are merged once
+ * every chunk was evaluated, so that the workers never synchronize. When only the size of the audience of every
+ * expression is needed, {@code count} keeps a plain array of counters per worker instead of the bitmaps. Counting
+ * still runs the whole program for every record: every expression is counted, so none can be skipped, and the only
+ * short-circuiting is the one of {@code and} and {@code or} inside each expression.
+ * <pre>{@code
+ * var engine = new EvaluationEngine(System.getenv(), ForkJoinPool.commonPool());
+ * var matches = engine.evaluate(program, store);
+ * var audience = matches.cardinality(0);
+ * }</pre>
+ */
+public final class EvaluationEngine {
+
+    static final int CHUNK_SIZE = 4096;
+
+    private final boolean useVectorAPI;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a new engine.
+     *
+     * @param environment the environment of the VMs
+     * @param pool the pool the records are evaluated on
+     */
+    public EvaluationEngine(final Map<String, String> environment, final ForkJoinPool pool) {
+        this.useVectorAPI = SExpressionVM.useVectorAPI(environment);
+        this.pool = pool;
+    }
+
+    /**
+     * Evaluates a program over the records of a store.
+     *
+     * @param program the program to evaluate
+     * @param store the records
+     * @return for every expression of the program, the bitmap of the rows of the records it matches
+     * @throws IllegalArgumentException if the store holds more than {@link Integer#MAX_VALUE} records
+     */
+    public ExpressionBitmaps evaluate(final Program program, final TraitStore store) {
+        return evaluate(program, source(store));
+    }
+
+    /**
+     * Evaluates a program over key/value trait entries.
+     *
+     * @param program the program to evaluate
+     * @param fieldTypes the declared types of the traits
+     * @param records the key/value entries of every record
+     * @return for every expression of the program, the bitmap of the indexes of the records it matches
+     */
+    public ExpressionBitmaps evaluate(final Program program, final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ArrayData[] records) {
+        return evaluate(program, source(fieldTypes, records));
+    }
+
+    /**
+     * Counts the records of a store matched by every expression of a program, without keeping which ones they are.
+     *
+     * @param program the program to evaluate
+     * @param store the records
+     * @return for every expression of the program, the number of records it matches
+     * @throws IllegalArgumentException if the store holds more than {@link Integer#MAX_VALUE} records
+     */
+    public long[] count(final Program program, final TraitStore store) {
+        return count(program, source(store));
+    }
+
+    /**
+     * Counts the records matched by every expression of a program, without keeping which ones they are.
+     *
+     * @param program the program to evaluate
+     * @param fieldTypes the declared types of the traits
+     * @param records the key/value entries of every record
+     * @return for every expression of the program, the number of records it matches
+     */
+    public long[] count(final Program program, final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ArrayData[] records) {
+        return count(program, source(fieldTypes, records));
+    }
+
+    ExpressionBitmaps evaluate(final Program program, final RecordSource source) {
+        var expressions = program.output().length;
+        var matches = new ExpressionBitmaps(expressions);
+        for (var bitmaps: run(program, source, () -> new ExpressionBitmaps(expressions), ExpressionBitmaps::add)) {
+            matches.merge(bitmaps);
+        }
+
+        return matches;
+    }
+
+    long[] count(final Program program, final RecordSource source) {
+        var expressions = program.output().length;
+
+        // every worker counts in its own array, the arrays are only summed once every chunk was evaluated
+        var counts = new long[expressions];
+        for (var partial: run(program, source, () -> new long[expressions], (counter, row, results) -> count(counter, results))) {
+            for (var expression = 0; expression < expressions; expression++) {
+                counts[expression] += partial[expression];
+            }
+        }
+
+        return counts;
+    }
+
+    private static void count(final long[] counts, final boolean[] results) {
+        for (var expression = 0; expression < results.length; expression++) {
+            counts[expression] += results[expression] ? 1 : 0;
+        }
+    }
+
+    // evaluates every record, and returns the accumulated results of every worker
+    private <T> List<T> run(final Program program,
+                                             final RecordSource source,
+                                             final Supplier<T> accumulators,
+                                             final Accumulation<T> accumulation) {
+
+        var rows = source.rows();
+        if (rows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cannot evaluate more than " + Integer.MAX_VALUE + " records at once: " + rows);
+        }
+
+        // the workers only live as long as the evaluation, the pool threads keep nothing once it returns
+        var workers = new ConcurrentHashMap<Thread, Worker<T>>();
+        Function<Thread, Worker<T>> factory = thread -> new Worker<>(new SExpressionVM(this.useVectorAPI, program), source.reader(), accumulators.get());
+        this.pool.invoke(new ChunkTask<>(workers, factory, accumulation, 0, (int) rows));
+
+        var results = new ArrayList<T>(workers.size());
+        for (var worker: workers.values()) {
+            results.add(worker.accumulator());
+        }
+
+        return results;
+    }
+
+    private static RecordSource source(final TraitStore store) {
+        return new RecordSource() {
+            @Override
+            public long rows() {
+                return store.rows();
+            }
+
+            @Override
+            public RecordReader reader() {
+                var cursor = store.cursor();
+                return cursor::position;
+            }
+        };
+    }
+
+    private static RecordSource source(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ArrayData[] records) {
+        return new RecordSource() {
+            @Override
+            public long rows() {
+                return records.length;
+            }
+
+            @Override
+            public RecordReader reader() {
+                var accessor = TraitAccessor.forPartition(fieldTypes);
+                return row -> accessor.reset(records[(int) row]);
+            }
+        };
+    }
+
+    /**
+     * Records that can be read in any order by any number of readers.
+     */
+    interface RecordSource {
+
+        /**
+         * @return the number of records
+         */
+        long rows();
+
+        /**
+         * @return a reader owned by the calling thread
+         */
+        RecordReader reader();
+    }
+
+    /**
+     * Reads the records of a source one at a time, the accessor it returns may be reused for the next record.
+     */
+    @FunctionalInterface
+    interface RecordReader {
+        TraitAccessor read(long row);
+    }
+
+    /**
+     * Adds the results of a record to what a worker accumulated so far.
+     */
+    @FunctionalInterface
+    private interface Accumulation<T> {
+        void add(T accumulator, int row, boolean[] results);
+    }
+
+    private record Worker<T>(SExpressionVM vm, RecordReader reader, T accumulator) {}
+
+    private static final class ChunkTask<T> extends RecursiveAction {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient ConcurrentHashMap<Thread, Worker<T>> workers;
+        private final transient Function<Thread, Worker<T>> factory;
+        private final transient Accumulation<T> accumulation;
+        private final int from;
+        private final int to;
+
+        ChunkTask(final ConcurrentHashMap<Thread, Worker<T>> workers,
+                  final Function<Thread, Worker<T>> factory,
+                  final Accumulation<T> accumulation,
+                  final int from,
+                  final int to) {
+
+            this.workers = workers;
+            this.factory = factory;
+            this.accumulation = accumulation;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= CHUNK_SIZE) {
+                evaluate();
+                return;
+            }
+
+            var middle = (this.from + this.to) >>> 1;
+            invokeAll(
+                    new ChunkTask<>(this.workers, this.factory, this.accumulation, this.from, middle),
+                    new ChunkTask<>(this.workers, this.factory, this.accumulation, middle, this.to)
+            );
+        }
+
+        private void evaluate() {
+            var worker = this.workers.computeIfAbsent(Thread.currentThread(), this.factory);
+            var vm = worker.vm();
+            var accumulator = worker.accumulator();
+            for (var row = this.from; row < this.to; row++) {
+                vm.reset();
+                vm.evaluate(worker.reader().read(row));
+                this.accumulation.add(accumulator, row, vm.results());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+package io.exsql.s3xty;
+
+import org.roaringbitmap.InvalidRoaringFormat;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * The ids of the records matched by every expression of a program, as one compressed Roaring bitmap per expression.
+ * <p>
+ * Unlike the results of a VM, which are overwritten by every record, the bitmaps accumulate the records of a whole
+ * stream. Their size depends on the number and the clustering of the matches, not on the number of records times the
+ * number of expressions: sparse ids are stored in sorted arrays, dense ones in bitmaps and consecutive ones in runs.
+ * The bitmaps of several threads are combined with {@link #merge(ExpressionBitmaps)}.
+ * <pre>{@code
+ * var bitmaps = new ExpressionBitmaps(program.output().length);
+ * while (cursor.next()) {
+ *     vm.reset();
+ *     vm.evaluate(cursor);
+ *     bitmaps.add((int) cursor.row(), vm.results());
+ * }
+ * bitmaps.write(Path.of("segments.bin"));
+ * }</pre>
+ * <p>
+ * Layout on disk: {@code magic:int version:byte expressions:int} followed by every bitmap in the portable Roaring
+ * format. Bitmaps are not thread-safe.
+ */
+public final class ExpressionBitmaps {
+
+    public static final int MAGIC = 0x53335842; // "S3XB"
+    public static final byte VERSION = 1;
+
+    private final RoaringBitmap[] bitmaps;
+
+    /**
+     * Creates empty bitmaps.
+     *
+     * @param expressions the number of expressions of the program
+     */
+    public ExpressionBitmaps(final int expressions) {
+        this.bitmaps = new RoaringBitmap[expressions];
+        for (var expression = 0; expression < expressions; expression++) {
+            this.bitmaps[expression] = new RoaringBitmap();
+        }
+    }
+
+    private ExpressionBitmaps(final RoaringBitmap[] bitmaps) {
+        this.bitmaps = bitmaps;
+    }
+
+    /**
+     * Adds a record to the bitmaps of the expressions it matches.
+     *
+     * @param id the id of the record
+     * @param results the results of the program for the record
+     * @throws IllegalArgumentException if the results are not those of a program with the same number of expressions
+     */
+    public void add(final int id, final boolean[] results) {
+        if (results.length != this.bitmaps.length) {
+            throw new IllegalArgumentException("Expected " + this.bitmaps.length + " results, got " + results.length);
+        }
+
+        for (var expression = 0; expression < results.length; expression++) {
+            if (results[expression]) {
+                this.bitmaps[expression].add(id);
+            }
+        }
+    }
+
+    /**
+     * Adds every record of other bitmaps of the same program to these bitmaps.
+     *
+     * @param other the bitmaps to merge, left unchanged
+     * @return these bitmaps
+     * @throws IllegalArgumentException if the bitmaps are not those of a program with the same number of expressions
+     */
+    public ExpressionBitmaps merge(final ExpressionBitmaps other) {
+        if (other.bitmaps.length != this.bitmaps.length) {
+            throw new IllegalArgumentException("Cannot merge the bitmaps of " + other.bitmaps.length + " expressions into " + this.bitmaps.length);
+        }
+
+        for (var expression = 0; expression < this.bitmaps.length; expression++) {
+            this.bitmaps[expression].or(other.bitmaps[expression]);
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns the bitmap of an expression, changes to it are changes to these bitmaps.
+     *
+     * @param expression the index of the expression
+     * @return the ids of the records the expression matches
+     */
+    public RoaringBitmap get(final int expression) {
+        return this.bitmaps[expression];
+    }
+
+    /**
+     * Returns the number of records matched by an expression.
+     *
+     * @param expression the index of the expression
+     * @return the number of matched records
+     */
+    public long cardinality(final int expression) {
+        return this.bitmaps[expression].getLongCardinality();
+    }
+
+    /**
+     * Returns the number of expressions.
+     *
+     * @return the number of expressions
+     */
+    public int expressions() {
+        return this.bitmaps.length;
+    }
+
+    /**
+     * Converts the containers of consecutive ids to runs where that is smaller, usually once every record was added.
+     */
+    public void runOptimize() {
+        for (var bitmap: this.bitmaps) {
+            bitmap.runOptimize();
+        }
+    }
+
+    /**
+     * Returns the number of bytes the bitmaps take once serialized.
+     *
+     * @return the serialized size
+     */
+    public long serializedSizeInBytes() {
+        var size = (long) Integer.BYTES + 1 + Integer.BYTES;
+        for (var bitmap: this.bitmaps) {
+            size += bitmap.serializedSizeInBytes();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the bitmaps to the given stream.
+     *
+     * @param output the stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public void write(final DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeInt(this.bitmaps.length);
+        for (var bitmap: this.bitmaps) {
+            bitmap.serialize(output);
+        }
+    }
+
+    /**
+     * Writes the bitmaps to a file, replacing it if it exists.
+     *
+     * @param path the file
+     * @throws IOException if writing the file fails
+     */
+    public void write(final Path path) throws IOException {
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            write(output);
+        }
+    }
+
+    /**
+     * Reads bitmaps from the given stream.
+     *
+     * @param input the stream to read from
+     * @return the bitmaps
+     * @throws IOException if reading from the stream fails or the data are not serialized bitmaps
+     */
+    public static ExpressionBitmaps read(final DataInput input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Not serialized expression bitmaps");
+        }
+
+        var version = input.readByte();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported expression bitmaps version: " + version);
+        }
+
+        var expressions = input.readInt();
+        if (expressions < 0) {
+            throw new StreamCorruptedException("Invalid number of expressions: " + expressions);
+        }
+
+        // grown as the bitmaps are read, a count beyond the end of the stream fails without allocating it up front
+        var bitmaps = new ArrayList<RoaringBitmap>(Math.min(expressions, 1024));
+        for (var expression = 0; expression < expressions; expression++) {
+            var bitmap = new RoaringBitmap();
+            try {
+                bitmap.deserialize(input);
+            } catch (final InvalidRoaringFormat invalidRoaringFormat) {
+                throw new StreamCorruptedException("Invalid bitmap of expression " + expression + ": " + invalidRoaringFormat.getMessage());
+            }
+            bitmaps.add(bitmap);
+        }
+
+        return new ExpressionBitmaps(bitmaps.toArray(new RoaringBitmap[0]));
+    }
+
+    /**
+     * Reads bitmaps from a file.
+     *
+     * @param path the file
+     * @return the bitmaps
+     * @throws IOException if reading the file fails or it does not hold serialized bitmaps
+     */
+    public static ExpressionBitmaps read(final Path path) throws IOException {
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return read(input);
+        }
+    }
+
+}
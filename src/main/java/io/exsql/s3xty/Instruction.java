@@ -48,6 +48,25 @@ public record Instruction(OperationCode operation, @Nullable Value[] operands) i
         return operands[index];
     }
 
+    /**
+     * Returns this instruction moved by the given offset.
+     * Only jumps carry an absolute instruction index, every other instruction is returned as is.
+     *
+     * @param offset the number of instructions the code is moved by
+     * @return the relocated instruction
+     */
+    public Instruction relocate(final int offset) {
+        if (offset == 0) {
+            return this;
+        }
+
+        return switch (this.operation) {
+            case JUMP_IF_TRUE -> jumpIfTrue((int) operand(0).toLong() + offset);
+            case JUMP_IF_FALSE -> jumpIfFalse((int) operand(0).toLong() + offset);
+            default -> this;
+        };
+    }
+
     // Factory methods for common instructions
 
     public static Instruction halt() {
@@ -0,0 +1,171 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.BooleanValue;
+import io.exsql.s3xty.value.DoubleValue;
+import io.exsql.s3xty.value.FieldTypeValue;
+import io.exsql.s3xty.value.LongValue;
+import io.exsql.s3xty.value.StringValue;
+import io.exsql.s3xty.value.Value;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.unsafe.types.UTF8String;
+
+/**
+ * An expression of a program that only compares a trait with a constant, such as {@code (trait-gt "long" "50")}, or
+ * checks that it exists.
+ * <p>
+ * Such an expression compiles to {@code (LOAD type) (LOAD key) GET_FIELD (LOAD constant) COMPARISON} or to
+ * {@code (LOAD type) (LOAD key) GET_FIELD IS_NOT_NULL} on a long, double, boolean or string trait.
+ * {@link ProgramExpression} generates it as Java code reading the trait from the accessor and comparing it in place,
+ * with the same results as the VM, and leaves every other expression to the VM in a residual program.
+ *
+ * @param expression the index of the expression in the program
+ * @param type the declared type of the trait
+ * @param key the trait
+ * @param operation the comparison
+ * @param constant the constant the trait is compared with, null for {@code IS_NOT_NULL}
+ */
+record LeafPredicate(int expression, DataType type, UTF8String key, OperationCode operation, Value constant) {
+
+    /**
+     * Finds the expressions of a program that are leaf predicates.
+     *
+     * @param program the program
+     * @return the leaf predicates indexed by expression, null for the other expressions
+     */
+    static LeafPredicate[] of(final Program program) {
+        var segments = Compiler.segments(program.instructions(), program.expressions().length);
+        var leaves = new LeafPredicate[segments.length];
+        for (var expression = 0; expression < segments.length; expression++) {
+            leaves[expression] = of(expression, segments[expression]);
+        }
+
+        return leaves;
+    }
+
+    /**
+     * Creates the program evaluating the expressions that are not leaf predicates, the results of the leaves are left
+     * untouched.
+     *
+     * @param program the program
+     * @param leaves the leaf predicates of the program
+     * @return the residual program, or the program itself if it has no leaf predicate
+     */
+    static Program residual(final Program program, final LeafPredicate[] leaves) {
+        var segments = Compiler.segments(program.instructions(), program.expressions().length);
+        var found = false;
+        for (var leaf: leaves) {
+            if (leaf != null) {
+                segments[leaf.expression] = null;
+                found = true;
+            }
+        }
+
+        return found ? new Program(program.expressions(), Compiler.link(segments)) : program;
+    }
+
+    private static LeafPredicate of(final int expression, final Instruction[] segment) {
+        if (segment == null || segment.length < 4 || segment.length > 5
+                || segment[0].operation() != OperationCode.LOAD || !(segment[0].operand(0) instanceof FieldTypeValue type)
+                || segment[1].operation() != OperationCode.LOAD || !(segment[1].operand(0) instanceof StringValue key)
+                || segment[2].operation() != OperationCode.GET_FIELD) {
+            return null;
+        }
+
+        Value constant = null;
+        if (segment.length == 5) {
+            if (segment[3].operation() != OperationCode.LOAD) {
+                return null;
+            }
+            constant = segment[3].operand(0);
+        }
+
+        var operation = segment[segment.length - 1].operation();
+        if (!supports(type.dataType(), operation, constant)) {
+            return null;
+        }
+
+        return new LeafPredicate(expression, type.dataType(), key.wrapped(), operation, constant);
+    }
+
+    private static boolean supports(final DataType type, final OperationCode operation, final Value constant) {
+        return switch (operation) {
+            // a missing boolean reads as false and an array as empty, neither is ever null
+            case IS_NOT_NULL -> constant == null
+                    && (type.equals(DataTypes.LongType) || type.equals(DataTypes.DoubleType) || type.equals(DataTypes.StringType));
+            case LONG_EQ, LONG_NE, LONG_LT, LONG_LE, LONG_GT, LONG_GE ->
+                    type.equals(DataTypes.LongType) && constant instanceof LongValue;
+            case DOUBLE_EQ, DOUBLE_NE, DOUBLE_LT, DOUBLE_LE, DOUBLE_GT, DOUBLE_GE ->
+                    type.equals(DataTypes.DoubleType) && constant instanceof DoubleValue;
+            case BOOLEAN_EQ, BOOLEAN_NE ->
+                    type.equals(DataTypes.BooleanType) && constant instanceof BooleanValue;
+            case STRING_EQ, STRING_NE, STRING_LT, STRING_LE, STRING_GT, STRING_GE ->
+                    type.equals(DataTypes.StringType) && constant instanceof StringValue string && !string.lowercase();
+            default -> false;
+        };
+    }
+
+    /**
+     * Generates the Java statements storing the result of the predicate, without the syntax Janino does not compile
+     * such as {@code var} or patterns.
+     *
+     * @param accessor the accessor of the profile
+     * @param results the results array
+     * @param key the expression of the key of the trait
+     * @param constant the expression of a {@link Value} holding the constant, for string comparisons
+     * @param local a fresh local variable name
+     * @return the statements
+     */
+    String generate(final String accessor, final String results, final String key, final String constant, final String local) {
+        var result = results + "[" + this.expression + "] = ";
+        if (this.type.equals(DataTypes.StringType)) {
+            if (this.operation == OperationCode.IS_NOT_NULL) {
+                return "{\n"
+                        + "  " + Value.class.getName() + " " + local + " = " + accessor + ".get(" + key + ");\n"
+                        + "  " + result + local + " != null && " + Operation.class.getName() + ".isNotNull(" + local + ");\n"
+                        + "}\n";
+            }
+
+            var comparison = switch (this.operation) {
+                case STRING_LT -> "nullSafeStringLt";
+                case STRING_LE -> "nullSafeStringLe";
+                case STRING_GT -> "nullSafeStringGt";
+                case STRING_GE -> "nullSafeStringGe";
+                default -> "nullSafeStringEq";
+            };
+            var negation = this.operation == OperationCode.STRING_NE ? "!" : "";
+            return result + negation + Operation.class.getName() + "." + comparison + "(" + constant + ", " + accessor + ".get(" + key + "), false);\n";
+        }
+
+        if (this.type.equals(DataTypes.BooleanType)) {
+            var operator = this.operation == OperationCode.BOOLEAN_NE ? " != " : " == ";
+            return result + accessor + ".getBoolean(" + key + ")" + operator + this.constant.toBoolean() + ";\n";
+        }
+
+        var isLong = this.type.equals(DataTypes.LongType);
+        var optional = isLong ? "java.util.OptionalLong" : "java.util.OptionalDouble";
+        var getter = isLong ? "getLong" : "getDouble";
+        if (this.operation == OperationCode.IS_NOT_NULL) {
+            return result + accessor + "." + getter + "(" + key + ").isPresent();\n";
+        }
+
+        var literal = isLong
+                ? this.constant.toLong() + "L"
+                : "java.lang.Double.longBitsToDouble(" + Double.doubleToRawLongBits(this.constant.toDouble()) + "L)";
+        var operator = switch (this.operation) {
+            case LONG_LT, DOUBLE_LT -> " < ";
+            case LONG_LE, DOUBLE_LE -> " <= ";
+            case LONG_GT, DOUBLE_GT -> " > ";
+            case LONG_GE, DOUBLE_GE -> " >= ";
+            default -> " == ";
+        };
+        var negation = this.operation == OperationCode.LONG_NE || this.operation == OperationCode.DOUBLE_NE ? "!" : "";
+
+        // a missing trait never compares, so it is only equal to nothing and not equal to everything
+        return "{\n"
+                + "  " + optional + " " + local + " = " + accessor + "." + getter + "(" + key + ");\n"
+                + "  " + result + negation + "(" + local + ".isPresent() && " + local + "." + (isLong ? "getAsLong" : "getAsDouble") + "()" + operator + literal + ");\n"
+                + "}\n";
+    }
+
+}
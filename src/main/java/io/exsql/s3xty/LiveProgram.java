@@ -0,0 +1,136 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.spark.sql.types.StructType;
+
+import java.util.ArrayList;
+
+/**
+ * A program whose expressions can be added, replaced or removed by id while it is being evaluated.
+ * Every expression is compiled once into a relocatable segment, a change only compiles the affected
+ * expression and links the existing segments into a new {@link Program} that is then published atomically.
+ * Each id keeps its result slot for as long as it is present, slots of removed ids are reused.
+ * VMs created with {@link SExpressionVM#SExpressionVM(java.util.Map, LiveProgram)} pick up the latest
+ * published version at the start of every evaluation.
+ */
+public final class LiveProgram {
+
+    private final StructType schema;
+
+    private final Object2IntOpenHashMap<String> slots = new Object2IntOpenHashMap<>();
+    private final IntRBTreeSet freeSlots = new IntRBTreeSet();
+    private final ArrayList<String> expressions = new ArrayList<>();
+    private final ArrayList<Instruction[]> segments = new ArrayList<>();
+
+    private volatile Program current;
+
+    /**
+     * Creates a new live program without any expression.
+     *
+     * @param schema the schema of the data
+     * @throws IllegalArgumentException if the schema is null
+     */
+    public LiveProgram(final StructType schema) {
+        if (schema == null) {
+            throw new IllegalArgumentException("Schema cannot be null");
+        }
+
+        this.schema = schema;
+        this.slots.defaultReturnValue(-1);
+        this.current = publish();
+    }
+
+    /**
+     * Adds an expression, or replaces the expression already registered under the same id.
+     * Nothing is published when the expression does not compile.
+     *
+     * @param id the id of the expression
+     * @param expression the S-expression to compile
+     * @return the result slot of the expression
+     */
+    public synchronized int put(final String id, final String expression) {
+        if (id == null) {
+            throw new IllegalArgumentException("Id cannot be null");
+        }
+
+        var segment = Compiler.compileSegment(this.schema, expression);
+
+        var slot = this.slots.getInt(id);
+        if (slot < 0) {
+            slot = allocate();
+            this.slots.put(id, slot);
+        }
+
+        this.expressions.set(slot, expression);
+        this.segments.set(slot, segment);
+        this.current = publish();
+        return slot;
+    }
+
+    /**
+     * Removes the expression registered under the given id.
+     *
+     * @param id the id of the expression
+     * @return true if an expression was removed, false otherwise
+     */
+    public synchronized boolean remove(final String id) {
+        var slot = this.slots.removeInt(id);
+        if (slot < 0) {
+            return false;
+        }
+
+        this.expressions.set(slot, null);
+        this.segments.set(slot, null);
+        this.freeSlots.add(slot);
+        this.current = publish();
+        return true;
+    }
+
+    /**
+     * Returns the result slot of the expression registered under the given id.
+     *
+     * @param id the id of the expression
+     * @return the result slot, or -1 if no expression is registered under this id
+     */
+    public synchronized int slot(final String id) {
+        return this.slots.getInt(id);
+    }
+
+    /**
+     * Returns the number of registered expressions.
+     *
+     * @return the number of registered expressions
+     */
+    public synchronized int size() {
+        return this.slots.size();
+    }
+
+    /**
+     * Returns the latest published version of the program.
+     * Published programs are never modified and can be executed by any number of VMs.
+     *
+     * @return the latest published program
+     */
+    public Program current() {
+        return this.current;
+    }
+
+    private int allocate() {
+        if (!this.freeSlots.isEmpty()) {
+            var slot = this.freeSlots.firstInt();
+            this.freeSlots.remove(slot);
+            return slot;
+        }
+
+        this.expressions.add(null);
+        this.segments.add(null);
+        return this.segments.size() - 1;
+    }
+
+    private Program publish() {
+        var instructions = Compiler.link(this.segments.toArray(new Instruction[0][]));
+        return new Program(this.expressions.toArray(new String[0]), instructions);
+    }
+
+}
@@ -0,0 +1,320 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only program executed straight from a memory-mapped file.
+ * <p>
+ * Unlike {@link ProgramCodec}, which has to be decoded into {@link Instruction} objects, this layout is meant to be
+ * executed in place: every instruction is a fixed width {@code opcode:int argument:int} slot, so the VM reads the
+ * code at any index without decoding what precedes it. The argument is the constant pool index of a {@code LOAD},
+ * the target of a jump or the result slot of a {@code STORE_RESULT}. Constants are decoded on first use and the
+ * expression texts are only read when asked for, opening a file therefore costs a single mapping whatever its size,
+ * and the pages are shared through the OS page cache by every process mapping the same file.
+ * <p>
+ * Layout (little endian): {@code magic:int version:int outputs:int constants:int instructions:int}, the code, the
+ * constant offsets table, the expression offsets table, the constants and the expressions.
+ */
+public final class MappedProgram {
+
+    public static final int MAGIC = 0x53335851; // "S3XQ"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+    private static final int INSTRUCTION_SIZE = 2 * Integer.BYTES;
+    private static final OperationCode[] OPERATION_CODES = OperationCode.values();
+
+    private final ByteBuffer buffer;
+    private final int outputs;
+    private final int length;
+    private final int constantsTableOffset;
+    private final int expressionsTableOffset;
+
+    // decoded on first use, racing threads decode the same immutable value
+    private final Value[] constants;
+
+    private MappedProgram(final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new StreamCorruptedException("Not a mapped program");
+        }
+
+        var version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported mapped program version: " + version);
+        }
+
+        this.outputs = buffer.getInt(8);
+        var constants = buffer.getInt(12);
+        this.length = buffer.getInt(16);
+        if (this.outputs < 0 || constants < 0 || this.length <= 0) {
+            throw new StreamCorruptedException("Invalid mapped program counts: " + this.outputs + " outputs, " + constants + " constants, " + this.length + " instructions");
+        }
+
+        // in long arithmetic, so that huge counts cannot wrap around the size of the buffer
+        var constantsTableOffset = HEADER_SIZE + (long) this.length * INSTRUCTION_SIZE;
+        var expressionsTableOffset = constantsTableOffset + (constants + 1L) * Integer.BYTES;
+        var dataOffset = expressionsTableOffset + (this.outputs + 1L) * Integer.BYTES;
+        if (dataOffset > buffer.capacity()) {
+            throw new StreamCorruptedException("Truncated mapped program");
+        }
+
+        this.constantsTableOffset = (int) constantsTableOffset;
+        this.expressionsTableOffset = (int) expressionsTableOffset;
+        this.constants = new Value[constants];
+        validateTable(this.constantsTableOffset, constants + 1, (int) dataOffset);
+        validateTable(this.expressionsTableOffset, this.outputs + 1, (int) dataOffset);
+        validateCode();
+    }
+
+    // the offsets of a table never decrease and stay within the data
+    private void validateTable(final int offset, final int entries, final int dataOffset) throws IOException {
+        var previous = dataOffset;
+        for (var entry = 0; entry < entries; entry++) {
+            var current = this.buffer.getInt(offset + entry * Integer.BYTES);
+            if (current < previous || current > this.buffer.capacity()) {
+                throw new StreamCorruptedException("Invalid mapped program offset " + current + " at " + (offset + entry * Integer.BYTES));
+            }
+            previous = current;
+        }
+    }
+
+    // the VM indexes the operations, the constants and the results with the code, so every instruction is checked once
+    private void validateCode() throws IOException {
+        for (var index = 0; index < this.length; index++) {
+            var opcode = this.buffer.getInt(HEADER_SIZE + index * INSTRUCTION_SIZE);
+            if (opcode < 0 || opcode >= OPERATION_CODES.length) {
+                throw new StreamCorruptedException("Invalid mapped program operation " + opcode + " at " + index);
+            }
+
+            var argument = argument(index);
+            var bound = switch (OPERATION_CODES[opcode]) {
+                case LOAD -> this.constants.length;
+                case JUMP_IF_TRUE, JUMP_IF_FALSE -> this.length;
+                case STORE_RESULT -> this.outputs;
+                default -> Integer.MAX_VALUE;
+            };
+            if (argument < 0 || argument >= bound) {
+                throw new StreamCorruptedException("Invalid mapped program argument " + argument + " of " + OPERATION_CODES[opcode] + " at " + index);
+            }
+        }
+    }
+
+    /**
+     * Maps a program file written by {@link #write(Program, Path)}.
+     *
+     * @param path the path of the program file
+     * @return the mapped program
+     * @throws IOException if the file cannot be mapped or is not a mapped program
+     */
+    public static MappedProgram open(final Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MappedProgram(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Wraps a buffer holding a program in the mapped layout.
+     *
+     * @param buffer the buffer holding the program
+     * @return the program
+     * @throws IOException if the buffer does not hold a mapped program
+     */
+    public static MappedProgram wrap(final ByteBuffer buffer) throws IOException {
+        return new MappedProgram(buffer.slice());
+    }
+
+    /**
+     * Writes a program in the mapped layout.
+     *
+     * @param program the program to write
+     * @param path the path of the program file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(final Program program, final Path path) throws IOException {
+        Files.write(path, toBytes(program));
+    }
+
+    /**
+     * Encodes a program in the mapped layout.
+     *
+     * @param program the program to encode
+     * @return the encoded program
+     * @throws IOException if a constant cannot be encoded
+     */
+    public static byte[] toBytes(final Program program) throws IOException {
+        var pool = new Object2IntOpenHashMap<ByteBuffer>();
+        pool.defaultReturnValue(-1);
+        var constants = new ByteArrayOutputStream();
+        var constantOffsets = new IntArrayList();
+
+        var instructions = program.instructions();
+        var code = ByteBuffer.allocate(instructions.length * INSTRUCTION_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (var instruction: instructions) {
+            var operation = instruction.operation();
+            var argument = 0;
+            switch (operation) {
+                case LOAD -> {
+                    var constant = ProgramCodec.encodeValue(instruction.operand(0));
+                    var key = ByteBuffer.wrap(constant);
+                    argument = pool.getInt(key);
+                    if (argument < 0) {
+                        argument = pool.size();
+                        pool.put(key, argument);
+                        constantOffsets.add(constants.size());
+                        constants.write(constant);
+                    }
+                }
+                case JUMP_IF_TRUE, JUMP_IF_FALSE, STORE_RESULT -> argument = (int) instruction.operand(0).toLong();
+                default -> {}
+            }
+
+            code.putInt(operation.ordinal()).putInt(argument);
+        }
+        constantOffsets.add(constants.size());
+
+        var expressions = new ByteArrayOutputStream();
+        var expressionOffsets = new IntArrayList();
+        for (var expression: program.expressions()) {
+            expressionOffsets.add(expressions.size());
+            if (expression != null) {
+                expressions.write(expression.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        expressionOffsets.add(expressions.size());
+
+        var tables = ByteBuffer.allocate((constantOffsets.size() + expressionOffsets.size()) * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        var dataOffset = HEADER_SIZE + code.capacity() + tables.capacity();
+        for (var i = 0; i < constantOffsets.size(); i++) {
+            tables.putInt(dataOffset + constantOffsets.getInt(i));
+        }
+        for (var i = 0; i < expressionOffsets.size(); i++) {
+            tables.putInt(dataOffset + constants.size() + expressionOffsets.getInt(i));
+        }
+
+        var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(program.expressions().length)
+                .putInt(pool.size())
+                .putInt(instructions.length);
+
+        var output = new ByteArrayOutputStream(dataOffset + constants.size() + expressions.size());
+        var data = new DataOutputStream(output);
+        data.write(header.array());
+        data.write(code.array());
+        data.write(tables.array());
+        constants.writeTo(data);
+        expressions.writeTo(data);
+        data.flush();
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns the number of instructions.
+     *
+     * @return the number of instructions
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * Returns the number of results the program stores.
+     *
+     * @return the number of results
+     */
+    public int outputs() {
+        return this.outputs;
+    }
+
+    public boolean[] output() {
+        return new boolean[this.outputs];
+    }
+
+    /**
+     * Returns the operation code of the instruction at the given index.
+     *
+     * @param index the instruction index
+     * @return the operation code
+     */
+    public OperationCode operation(final int index) {
+        return OPERATION_CODES[this.buffer.getInt(HEADER_SIZE + index * INSTRUCTION_SIZE)];
+    }
+
+    /**
+     * Returns the argument of the instruction at the given index.
+     *
+     * @param index the instruction index
+     * @return the constant index, jump target or result slot of the instruction
+     */
+    public int argument(final int index) {
+        return this.buffer.getInt(HEADER_SIZE + index * INSTRUCTION_SIZE + Integer.BYTES);
+    }
+
+    /**
+     * Returns the constant loaded by the instruction at the given index.
+     *
+     * @param index the instruction index
+     * @return the constant
+     */
+    public Value constant(final int index) {
+        var constant = argument(index);
+        var value = this.constants[constant];
+        if (value == null) {
+            var offset = this.buffer.getInt(this.constantsTableOffset + constant * Integer.BYTES);
+            value = ProgramCodec.decodeValue(this.buffer.duplicate().position(offset));
+            this.constants[constant] = value;
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the text of the expression storing its result in the given slot.
+     *
+     * @param slot the result slot
+     * @return the expression, empty when the slot is unused
+     */
+    public String expression(final int slot) {
+        var start = this.buffer.getInt(this.expressionsTableOffset + slot * Integer.BYTES);
+        var end = this.buffer.getInt(this.expressionsTableOffset + (slot + 1) * Integer.BYTES);
+        var bytes = new byte[end - start];
+        this.buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        var instructionsToString = new StringBuilder();
+        for (int i = 0; i < this.length; i++) {
+            instructionsToString.append(i).append(": ").append(operation(i)).append("(").append(argument(i)).append(")").append("\n\t\t\t");
+        }
+
+        return String.format(
+                """
+                    MappedProgram:
+                        outputs: %d
+                        instructions:
+                            %s
+                """,
+                this.outputs,
+                instructionsToString
+        );
+    }
+
+}
@@ -27,6 +27,12 @@ public final class Operation {
     public static boolean nullSafeStringEq(final Value right, final Value left, final boolean useVectorAPI) {
         if (!(left instanceof StringValue)) return false;
         if (!(right instanceof StringValue)) return false;
+
+        // strings interned by the same dictionary are equal if and only if their ids are
+        var rightId = ((StringValue) right).id();
+        var leftId = ((StringValue) left).id();
+        if (rightId >= 0 && leftId >= 0 && (rightId >>> 32) == (leftId >>> 32)) return rightId == leftId;
+
         return useVectorAPI ?
                 VectorOperation.nullSafeUTF8StringEq(((StringValue) right).wrapped(), ((StringValue) left).wrapped()):
                 nullSafeUTF8StringEq(((StringValue) right).wrapped(), ((StringValue) left).wrapped());
@@ -150,6 +156,9 @@ public final class Operation {
         if (!(left instanceof StringArrayValue)) return false;
         if (!(right instanceof StringValue)) return false;
 
+        var id = ((StringValue) right).id();
+        if (((StringArrayValue) left).encodes(id)) return ((StringArrayValue) left).containsId(id);
+
         var target = ((StringValue) right).wrapped();
         for (var string: ((StringArrayValue) left).wrapped()) {
             if (target.equals(string)) return true;
@@ -0,0 +1,571 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.ParquetReadOptions;
+import org.apache.parquet.VersionParser;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.column.impl.ColumnReaderImpl;
+import org.apache.parquet.column.page.DictionaryPageReadStore;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.values.bloomfilter.BloomFilter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.hadoop.util.HadoopStreams;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+
+/**
+ * Streams the profiles stored in Parquet files, one profile at a time.
+ * <p>
+ * The traits of a profile are read from the first repeated group of the file holding a {@code key} and a
+ * {@code value} string field, which covers both the {@code ARRAY<STRUCT<key, value>>} and the
+ * {@code MAP<STRING, STRING>} layouts written by Spark. Only those two columns are read, one row group at a time, so
+ * memory stays bounded by the size of a row group whatever the size of the files.
+ * <p>
+ * The reader is itself the accessor of the current profile and is reused for every profile:
+ * <pre>{@code
+ * try (var traits = TraitAccessor.forParquetFiles(fieldTypes, fs, path, keys)) {
+ *     while (traits.next()) {
+ *         vm.reset();
+ *         vm.evaluate(traits);
+ *     }
+ * }
+ * }</pre>
+ * When the referenced traits are given, the values of every other trait are skipped without being decoded.
+ * Values are decoded to their declared type on first access.
+ * <p>
+ * When a program is given, its traits are the referenced ones and every row group is first checked against the
+ * program with {@link RowGroupFilter}, using the statistics, dictionaries and bloom filters of the key and value
+ * columns. Row groups where no expression can match are skipped without being read, {@link #row()} keeps counting the
+ * profiles they hold so results can still be related to the rows of the files.
+ */
+public final class ParquetTraitReader implements TraitAccessor, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParquetTraitReader.class);
+
+    private static final String KEY_FIELD = "key";
+    private static final String VALUE_FIELD = "value";
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes;
+    private final FileSystem fs;
+    private final FileStatus[] files;
+    private final KeyConverter keyConverter;
+    private final ValueConverter valueConverter = new ValueConverter();
+    private final RowGroupFilter filter;
+
+    // raw values of the current profile, a null value is kept as a null entry
+    private final Object2ObjectOpenHashMap<UTF8String, UTF8String> values = new Object2ObjectOpenHashMap<>();
+    private final Object2ObjectOpenHashMap<UTF8String, Value> cache = new Object2ObjectOpenHashMap<>();
+
+    private int fileIndex = 0;
+    private ParquetFileReader reader;
+    private ColumnDescriptor keyColumn;
+    private ColumnDescriptor valueColumn;
+    private VersionParser.ParsedVersion writerVersion;
+
+    private ColumnReaderImpl keyReader;
+    private ColumnReaderImpl valueReader;
+    private long remainingRows = 0;
+    private int rowGroupIndex = 0;
+
+    private long row = -1;
+    private long skippedRowGroups = 0;
+    private long skippedRows = 0;
+    private long skippedBytes = 0;
+
+    ParquetTraitReader(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                       final FileSystem fs,
+                       final Path path,
+                       final Set<UTF8String> keys) throws IOException {
+
+        this(fieldTypes, fs, path, keys, null);
+    }
+
+    ParquetTraitReader(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                       final FileSystem fs,
+                       final Path path,
+                       final Program program) throws IOException {
+
+        this(fieldTypes, fs, path, null, new RowGroupFilter(program));
+    }
+
+    private ParquetTraitReader(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                               final FileSystem fs,
+                               final Path path,
+                               final Set<UTF8String> keys,
+                               final RowGroupFilter filter) throws IOException {
+
+        this.fieldTypes = fieldTypes;
+        this.fs = fs;
+        this.filter = filter;
+        this.keyConverter = new KeyConverter(filter != null ? filter.keys() : keys);
+
+        var status = fs.getFileStatus(path);
+        if (status.isDirectory()) {
+            this.files = fs.listStatus(path, file -> !file.getName().startsWith("_") && !file.getName().startsWith("."));
+            Arrays.sort(this.files, Comparator.comparing(FileStatus::getPath));
+        } else {
+            this.files = new FileStatus[] {status};
+        }
+    }
+
+    /**
+     * Advances to the next profile.
+     *
+     * @return false when every profile has been read
+     * @throws UncheckedIOException if the files cannot be read
+     */
+    public boolean next() {
+        this.values.clear();
+        this.cache.clear();
+
+        try {
+            while (this.remainingRows == 0) {
+                if (!nextRowGroup()) {
+                    return false;
+                }
+            }
+        } catch (final IOException exception) {
+            throw new UncheckedIOException("Error reading parquet file: " + this.files[this.fileIndex].getPath(), exception);
+        }
+
+        this.remainingRows--;
+        this.row++;
+
+        // every profile holds at least one (possibly null) entry, the following ones are repeated,
+        // the repetition level goes back to 0 once the row group is fully read
+        do {
+            readEntry();
+            this.keyReader.consume();
+            this.valueReader.consume();
+        } while (this.keyReader.getCurrentRepetitionLevel() > 0);
+
+        return true;
+    }
+
+    @Override
+    public Value get(final UTF8String key) {
+        var value = this.cache.get(key);
+        if (value == null && this.values.containsKey(key)) {
+            value = CachedArrayDataAccessor.decode(this.fieldTypes.getOrDefault(key, DataTypes.StringType), this.values.get(key));
+            this.cache.put(key, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the index of the current profile, counted over every file and including skipped row groups.
+     *
+     * @return the index of the current profile
+     */
+    public long row() {
+        return this.row;
+    }
+
+    /**
+     * Returns the number of row groups skipped because no expression could match.
+     *
+     * @return the number of skipped row groups
+     */
+    public long skippedRowGroups() {
+        return this.skippedRowGroups;
+    }
+
+    /**
+     * Returns the number of profiles held by skipped row groups.
+     *
+     * @return the number of skipped profiles
+     */
+    public long skippedRows() {
+        return this.skippedRows;
+    }
+
+    /**
+     * Returns the number of bytes of trait columns left unread in skipped row groups.
+     *
+     * @return the number of skipped bytes
+     */
+    public long skippedBytes() {
+        return this.skippedBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.filter != null) {
+            LOGGER.debug(
+                    "skipped {} row groups ({} rows, {} bytes) in {} files",
+                    this.skippedRowGroups, this.skippedRows, this.skippedBytes, this.files.length
+            );
+        }
+
+        this.fileIndex = this.files.length;
+        this.remainingRows = 0;
+        if (this.reader != null) {
+            this.reader.close();
+            this.reader = null;
+        }
+    }
+
+    private void readEntry() {
+        if (this.keyReader.getCurrentDefinitionLevel() < this.keyColumn.getMaxDefinitionLevel()) {
+            // empty or null list, null entry or null key
+            return;
+        }
+
+        this.keyReader.writeCurrentValueToConverter();
+        var key = this.keyConverter.current;
+        var valuePresent = this.valueReader.getCurrentDefinitionLevel() == this.valueColumn.getMaxDefinitionLevel();
+        // the first entry of a trait wins, like with the other accessors, even when its value is null
+        if (key == null || this.values.containsKey(key)) {
+            if (valuePresent) {
+                this.valueReader.skip();
+            }
+            return;
+        }
+
+        if (valuePresent) {
+            this.valueReader.writeCurrentValueToConverter();
+            this.values.put(key, this.valueConverter.current);
+        } else {
+            this.values.put(key, null);
+        }
+    }
+
+    private boolean nextRowGroup() throws IOException {
+        while (this.fileIndex < this.files.length) {
+            if (this.reader == null) {
+                open(this.files[this.fileIndex]);
+            }
+
+            var blocks = this.reader.getRowGroups();
+            if (this.rowGroupIndex < blocks.size()) {
+                var block = blocks.get(this.rowGroupIndex++);
+                if (this.filter != null && !this.filter.mayMatch(new RowGroupStatistics(block))) {
+                    this.reader.skipNextRowGroup();
+                    this.row += block.getRowCount();
+                    this.skippedRowGroups++;
+                    this.skippedRows += block.getRowCount();
+                    this.skippedBytes += chunk(block, this.keyColumn).getTotalSize() + chunk(block, this.valueColumn).getTotalSize();
+                    continue;
+                }
+
+                read(this.reader.readNextRowGroup());
+                return true;
+            }
+
+            this.reader.close();
+            this.reader = null;
+            this.fileIndex++;
+        }
+
+        return false;
+    }
+
+    private void open(final FileStatus file) throws IOException {
+        LOGGER.debug("Reading traits from: {}", file.getPath());
+        this.reader = new ParquetFileReader(inputFile(file), ParquetReadOptions.builder().build());
+        this.rowGroupIndex = 0;
+
+        var schema = this.reader.getFileMetaData().getSchema();
+        var keyPath = traitsKeyPath(schema);
+        if (keyPath == null) {
+            this.reader.close();
+            this.reader = null;
+            throw new IllegalArgumentException("No repeated key/value string fields in parquet file: " + file.getPath());
+        }
+
+        var projection = projection(schema, keyPath);
+        this.reader.setRequestedSchema(projection);
+        this.keyColumn = projection.getColumnDescription(keyPath);
+        this.valueColumn = projection.getColumnDescription(sibling(keyPath, VALUE_FIELD));
+
+        try {
+            this.writerVersion = VersionParser.parse(this.reader.getFileMetaData().getCreatedBy());
+        } catch (final RuntimeException | VersionParser.VersionParseException exception) {
+            this.writerVersion = null;
+        }
+    }
+
+    private void read(final PageReadStore rowGroup) {
+        this.keyReader = new ColumnReaderImpl(this.keyColumn, rowGroup.getPageReader(this.keyColumn), this.keyConverter, this.writerVersion);
+        this.valueReader = new ColumnReaderImpl(this.valueColumn, rowGroup.getPageReader(this.valueColumn), this.valueConverter, this.writerVersion);
+        this.remainingRows = rowGroup.getRowCount();
+    }
+
+    private InputFile inputFile(final FileStatus file) {
+        return new InputFile() {
+            @Override
+            public long getLength() {
+                return file.getLen();
+            }
+
+            @Override
+            public SeekableInputStream newStream() throws IOException {
+                return HadoopStreams.wrap(ParquetTraitReader.this.fs.open(file.getPath()));
+            }
+
+            @Override
+            public String toString() {
+                return file.getPath().toString();
+            }
+        };
+    }
+
+    private static String[] traitsKeyPath(final MessageType schema) {
+        for (var column: schema.getColumns()) {
+            var path = column.getPath();
+            if (column.getMaxRepetitionLevel() == 1 && isString(column) && path[path.length - 1].equals(KEY_FIELD)) {
+                var valuePath = sibling(path, VALUE_FIELD);
+                if (schema.containsPath(valuePath) && isString(schema.getColumnDescription(valuePath))) {
+                    return path;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isString(final ColumnDescriptor column) {
+        return column.getPrimitiveType().getPrimitiveTypeName() == PrimitiveType.PrimitiveTypeName.BINARY;
+    }
+
+    private static String[] sibling(final String[] path, final String name) {
+        var sibling = path.clone();
+        sibling[sibling.length - 1] = name;
+        return sibling;
+    }
+
+    // keeps only the key and value fields, and the groups leading to them
+    private static MessageType projection(final MessageType schema, final String[] keyPath) {
+        Type type = null;
+        for (var depth = keyPath.length - 1; depth > 0; depth--) {
+            var group = schema.getType(Arrays.copyOf(keyPath, depth)).asGroupType();
+            type = type == null
+                    ? group.withNewFields(group.getType(KEY_FIELD), group.getType(VALUE_FIELD))
+                    : group.withNewFields(type);
+        }
+
+        return new MessageType(schema.getName(), type);
+    }
+
+    private static ColumnChunkMetaData chunk(final BlockMetaData block, final ColumnDescriptor column) {
+        var path = ColumnPath.get(column.getPath());
+        for (var chunk: block.getColumns()) {
+            if (chunk.getPath().equals(path)) {
+                return chunk;
+            }
+        }
+
+        throw new IllegalStateException("No column chunk for: " + path);
+    }
+
+    // only a column chunk without any plain page is fully described by its dictionary
+    private static boolean isFullyDictionaryEncoded(final ColumnChunkMetaData chunk) {
+        var stats = chunk.getEncodingStats();
+        return stats != null && stats.hasDictionaryPages() && !stats.hasNonDictionaryEncodedPages();
+    }
+
+    private static UTF8String copy(final Binary binary) {
+        return UTF8String.fromBytes(binary.getBytes());
+    }
+
+    /**
+     * What the metadata of a row group tells about its traits, dictionaries and bloom filters are only read when needed.
+     */
+    private final class RowGroupStatistics implements RowGroupFilter.Statistics {
+        private final BlockMetaData block;
+        private final ColumnChunkMetaData keyChunk;
+        private final ColumnChunkMetaData valueChunk;
+        private ObjectOpenHashSet<UTF8String> keys;
+        private BloomFilter bloomFilter;
+        private UTF8String[] values;
+        private boolean valuesRead = false;
+
+        RowGroupStatistics(final BlockMetaData block) {
+            this.block = block;
+            this.keyChunk = chunk(block, ParquetTraitReader.this.keyColumn);
+            this.valueChunk = chunk(block, ParquetTraitReader.this.valueColumn);
+        }
+
+        @Override
+        public boolean mayContain(final UTF8String key) {
+            var binary = Binary.fromConstantByteArray(key.getBytes());
+
+            @SuppressWarnings("unchecked")
+            var statistics = (org.apache.parquet.column.statistics.Statistics<Binary>) this.keyChunk.getStatistics();
+            if (statistics != null && statistics.hasNonNullValue()) {
+                var comparator = statistics.comparator();
+                if (comparator.compare(binary, statistics.genericGetMin()) < 0 || comparator.compare(binary, statistics.genericGetMax()) > 0) {
+                    return false;
+                }
+            }
+
+            if (isFullyDictionaryEncoded(this.keyChunk)) {
+                if (this.keys == null) {
+                    this.keys = new ObjectOpenHashSet<>(dictionary(ParquetTraitReader.this.keyColumn));
+                }
+                return this.keys.contains(key);
+            }
+
+            if (this.keyChunk.getBloomFilterOffset() >= 0) {
+                if (this.bloomFilter == null) {
+                    this.bloomFilter = ParquetTraitReader.this.reader.getBloomFilterDataReader(this.block).readBloomFilter(this.keyChunk);
+                }
+                return this.bloomFilter == null || this.bloomFilter.findHash(this.bloomFilter.hash(binary));
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean mayHaveNullValues() {
+            var statistics = this.valueChunk.getStatistics();
+            return statistics == null || !statistics.isNumNullsSet() || statistics.getNumNulls() > 0;
+        }
+
+        @Override
+        public UTF8String[] values() {
+            if (!this.valuesRead) {
+                this.valuesRead = true;
+                if (isFullyDictionaryEncoded(this.valueChunk)) {
+                    this.values = dictionary(ParquetTraitReader.this.valueColumn);
+                }
+            }
+
+            return this.values;
+        }
+
+        private UTF8String[] dictionary(final ColumnDescriptor column) {
+            DictionaryPageReadStore dictionaries = ParquetTraitReader.this.reader.getDictionaryReader(this.block);
+            var page = dictionaries.readDictionaryPage(column);
+            if (page == null) {
+                return null;
+            }
+
+            try {
+                var dictionary = page.getEncoding().initDictionary(column, page);
+                var entries = new UTF8String[dictionary.getMaxId() + 1];
+                for (var id = 0; id < entries.length; id++) {
+                    entries[id] = copy(dictionary.decodeToBinary(id));
+                }
+                return entries;
+            } catch (final IOException exception) {
+                throw new UncheckedIOException("Error reading dictionary of: " + Arrays.toString(column.getPath()), exception);
+            }
+        }
+    }
+
+    /**
+     * Resolves keys to the referenced traits, or to null for the traits nobody reads.
+     * Dictionary encoded keys are resolved once per row group.
+     */
+    private static final class KeyConverter extends PrimitiveConverter {
+        private final Set<UTF8String> referenced;
+        private UTF8String[] dictionary;
+        private UTF8String current;
+
+        KeyConverter(final Set<UTF8String> referenced) {
+            this.referenced = referenced;
+        }
+
+        @Override
+        public boolean hasDictionarySupport() {
+            return true;
+        }
+
+        @Override
+        public void setDictionary(final Dictionary dictionary) {
+            this.dictionary = new UTF8String[dictionary.getMaxId() + 1];
+            for (var id = 0; id < this.dictionary.length; id++) {
+                this.dictionary[id] = resolve(dictionary.decodeToBinary(id));
+            }
+        }
+
+        @Override
+        public void addValueFromDictionary(final int dictionaryId) {
+            this.current = this.dictionary[dictionaryId];
+        }
+
+        @Override
+        public void addBinary(final Binary value) {
+            this.current = resolve(value);
+        }
+
+        private UTF8String resolve(final Binary binary) {
+            if (this.referenced == null) {
+                return copy(binary);
+            }
+
+            // look the key up in place, only referenced keys are copied
+            var buffer = binary.toByteBuffer();
+            var key = buffer.hasArray()
+                    ? UTF8String.fromBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())
+                    : copy(binary);
+
+            return this.referenced.contains(key) ? key.copy() : null;
+        }
+    }
+
+    /**
+     * Copies values, dictionary encoded values are copied once per row group.
+     */
+    private static final class ValueConverter extends PrimitiveConverter {
+        private Dictionary dictionary;
+        private UTF8String[] decoded;
+        private UTF8String current;
+
+        @Override
+        public boolean hasDictionarySupport() {
+            return true;
+        }
+
+        @Override
+        public void setDictionary(final Dictionary dictionary) {
+            this.dictionary = dictionary;
+            this.decoded = new UTF8String[dictionary.getMaxId() + 1];
+        }
+
+        @Override
+        public void addValueFromDictionary(final int dictionaryId) {
+            var value = this.decoded[dictionaryId];
+            if (value == null) {
+                value = copy(this.dictionary.decodeToBinary(dictionaryId));
+                this.decoded[dictionaryId] = value;
+            }
+
+            this.current = value;
+        }
+
+        @Override
+        public void addBinary(final Binary value) {
+            this.current = copy(value);
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package io.exsql.s3xty;
+
+import java.io.Serial;
+
+/**
+ * Thrown when an S-expression cannot be parsed.
+ * The position is the offset, in UTF-8 bytes, of the offending token in the expression.
+ */
+public final class ParseException extends IllegalArgumentException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    public ParseException(final String message, final int position) {
+        super(message + " at position " + position);
+        this.position = position;
+    }
+
+    public ParseException(final String message, final int position, final Throwable cause) {
+        super(message + " at position " + position, cause);
+        this.position = position;
+    }
+
+    public int position() {
+        return this.position;
+    }
+
+}
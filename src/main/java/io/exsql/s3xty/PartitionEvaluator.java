@@ -0,0 +1,134 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.expressions.JoinedRow;
+import org.apache.spark.sql.catalyst.expressions.UnsafeProjection;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+
+import java.io.Serial;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Evaluates a program over the profiles of a Spark dataset, one partition at a time.
+ * <p>
+ * The program is shipped once to every executor through a broadcast variable. Every partition then creates a single
+ * VM and a single {@link ReusableArrayDataAccessor} and streams its {@link InternalRow}s through them, so that no VM
+ * or accessor is created per row. The results are appended to every row as packed bit columns: the result of
+ * expression {@code i} is bit {@code i % 64} of the long column {@code matches_(i / 64)}, and these columns are null
+ * when the trait column is.
+ * <pre>{@code
+ * var matches = PartitionEvaluator.evaluate(profiles, "traits", schema, program)
+ *         .where("matches_0 & 5 != 0");
+ * }</pre>
+ */
+public final class PartitionEvaluator {
+
+    static final String MATCHES_COLUMN = "matches_";
+
+    private PartitionEvaluator() {}
+
+    /**
+     * Evaluates a program over every profile of a dataset.
+     *
+     * @param profiles the profiles
+     * @param column the {@code ARRAY<STRUCT<key: STRING, value: STRING>>} trait column of the profiles
+     * @param schema the schema the program was compiled with
+     * @param program the program to evaluate
+     * @return the profiles with the packed results of the expressions of the program
+     * @throws IllegalArgumentException if the trait column is missing or does not hold key/value string entries
+     */
+    public static Dataset<Row> evaluate(final Dataset<Row> profiles, final String column, final StructType schema, final Program program) {
+        var input = profiles.schema();
+        if (!input.getFieldIndex(column).isDefined()) {
+            throw new IllegalArgumentException("Column " + column + " not found in " + input.simpleString());
+        }
+
+        var index = input.fieldIndex(column);
+        if (!ProgramExpression.isTraitColumn(input.fields()[index].dataType())) {
+            throw new IllegalArgumentException("Column " + column + " does not hold key/value string entries");
+        }
+
+        var words = words(program.expressions().length);
+        var output = input;
+        for (var word = 0; word < words; word++) {
+            output = output.add(MATCHES_COLUMN + word, DataTypes.LongType, true);
+        }
+
+        var spark = profiles.sparkSession();
+        var broadcast = JavaSparkContext.fromSparkContext(spark.sparkContext()).broadcast(program);
+        var rows = profiles.queryExecution().toRdd().toJavaRDD()
+                .mapPartitions(new Partition(broadcast, SchemaHelper.convert(schema), index, output));
+
+        return spark.internalCreateDataFrame(rows.rdd(), output, false);
+    }
+
+    private static int words(final int expressions) {
+        return (expressions + Long.SIZE - 1) >>> 6;
+    }
+
+    private record Partition(Broadcast<Program> program,
+                             Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                             int column,
+                             StructType output) implements FlatMapFunction<Iterator<InternalRow>, InternalRow> {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Iterator<InternalRow> call(final Iterator<InternalRow> rows) {
+            var vm = new SExpressionVM(System.getenv(), this.program.value());
+            var accessor = TraitAccessor.forPartition(this.fieldTypes);
+            var words = new long[words(vm.results().length)];
+            var bits = new GenericInternalRow(words.length);
+            var joined = new JoinedRow();
+            var projection = UnsafeProjection.create(this.output);
+
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return rows.hasNext();
+                }
+
+                @Override
+                public InternalRow next() {
+                    var row = rows.next();
+                    if (row.isNullAt(column)) {
+                        for (var word = 0; word < words.length; word++) {
+                            bits.setNullAt(word);
+                        }
+                        return projection.apply(joined.apply(row, bits));
+                    }
+
+                    vm.reset();
+                    vm.evaluate(accessor.reset(row.getArray(column)));
+
+                    var results = vm.results();
+                    Arrays.fill(words, 0);
+                    for (var expression = 0; expression < results.length; expression++) {
+                        if (results[expression]) {
+                            words[expression >>> 6] |= 1L << expression;
+                        }
+                    }
+
+                    for (var word = 0; word < words.length; word++) {
+                        bits.setLong(word, words[word]);
+                    }
+                    return projection.apply(joined.apply(row, bits));
+                }
+            };
+        }
+
+    }
+
+}
@@ -1,10 +1,19 @@
 package io.exsql.s3xty;
 
+import io.exsql.s3xty.value.FieldTypeValue;
+import io.exsql.s3xty.value.StringValue;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.unsafe.types.UTF8String;
+
 import java.io.*;
 
 /**
  * Represents a program that can be executed by the VM.
  * A program consists of a list of instructions and the original expression.
+ * <p>
+ * Programs are immutable: the VMs keep their own program counter, so a single instance can back any number of VMs
+ * running concurrently.
  */
 public final class Program implements Serializable {
 
@@ -13,7 +22,6 @@ public final class Program implements Serializable {
 
     private String[] expressions;
     private Instruction[] instructions;
-    private transient int currentIndex = 0;
 
     /**
      * Creates a new program with the given expressions and instructions.
@@ -31,52 +39,31 @@ public final class Program implements Serializable {
         this.instructions = instructions;
     }
 
-    public Program fork() {
-        return new Program(this.expressions, this.instructions);
+    String[] expressions() {
+        return this.expressions;
     }
 
-    /**
-     * Returns whether there are more instructions to execute.
-     *
-     * @return true if there are more instructions, false otherwise
-     */
-    public boolean hasNext() {
-        return this.currentIndex < this.instructions.length;
+    Instruction[] instructions() {
+        return this.instructions;
     }
 
     /**
-     * Returns the next instruction and advances the current index.
-     *
-     * @return the next instruction
-     * @throws IndexOutOfBoundsException if there are no more instructions
-     */
-    public Instruction next() {
-        if (!hasNext()) {
-            throw new IndexOutOfBoundsException("No more instructions");
-        }
-        return this.instructions[currentIndex++];
-    }
-    
-    /**
-     * Gets the current instruction index.
+     * Returns the traits the program reads, with the type their values are decoded as.
+     * Every other trait of a profile can be dropped before evaluating the program without changing its results.
      *
-     * @return the current instruction index
+     * @return the referenced traits and their types
      */
-    public int getCurrentIndex() {
-        return this.currentIndex;
-    }
-    
-    /**
-     * Sets the current instruction index.
-     *
-     * @param index the new instruction index
-     * @throws IndexOutOfBoundsException if the index is out of bounds
-     */
-    public void setCurrentIndex(int index) {
-        if (index < 0 || index >= this.instructions.length) {
-            throw new IndexOutOfBoundsException("Invalid instruction index: " + index);
+    public Object2ObjectOpenHashMap<UTF8String, DataType> referencedTraits() {
+        // trait reads are compiled as (LOAD type) (LOAD key) GET_FIELD
+        var traits = new Object2ObjectOpenHashMap<UTF8String, DataType>();
+        for (var i = 2; i < this.instructions.length; i++) {
+            if (this.instructions[i].operation() == OperationCode.GET_FIELD) {
+                var key = ((StringValue) this.instructions[i - 1].operand(0)).wrapped();
+                traits.putIfAbsent(key, ((FieldTypeValue) this.instructions[i - 2].operand(0)).dataType());
+            }
         }
-        this.currentIndex = index;
+
+        return traits;
     }
 
     public boolean[] output() {
@@ -110,15 +97,15 @@ public final class Program implements Serializable {
 
     @Serial
     private void writeObject(final ObjectOutputStream oos) throws IOException {
-        oos.writeObject(this.expressions);
-        oos.writeObject(this.instructions);
+        ProgramCodec.write(this, oos);
     }
 
+    // programs already decoded in this JVM share their instructions, see ProgramCache
     @Serial
-    private void readObject(final ObjectInputStream ois) throws ClassNotFoundException, IOException {
-        this.expressions = (String[]) ois.readObject();
-        this.instructions = (Instruction[]) ois.readObject();
-        this.currentIndex = 0;
+    private void readObject(final ObjectInputStream ois) throws IOException {
+        var program = ProgramCache.shared().read(ois);
+        this.expressions = program.expressions;
+        this.instructions = program.instructions;
     }
 
 }
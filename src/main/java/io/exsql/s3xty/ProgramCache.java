@@ -0,0 +1,146 @@
+package io.exsql.s3xty;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A registry of decoded programs, keyed by the SHA-256 of their encoding.
+ * <p>
+ * Every Spark task deserializes the programs shipped with it. When the same encoding was already decoded in the
+ * JVM the registered program is served instead, together with its lazily compiled regular expressions.
+ * {@link Program} deserialization goes through the {@link #shared()} registry.
+ * <p>
+ * At most {@code capacity} programs are kept, the least recently used one is evicted first.
+ */
+public final class ProgramCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProgramCache.class);
+
+    /**
+     * The default number of programs kept by the shared registry, overridden by the
+     * {@code s3xty.program.cache.capacity} system property.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final ProgramCache SHARED = new ProgramCache(Integer.getInteger("s3xty.program.cache.capacity", DEFAULT_CAPACITY));
+
+    private final int capacity;
+    private final Object2ObjectLinkedOpenHashMap<HashCode, Program> programs = new Object2ObjectLinkedOpenHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a new registry.
+     *
+     * @param capacity the maximum number of programs kept
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public ProgramCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the registry shared by the whole JVM.
+     *
+     * @return the shared registry
+     */
+    public static ProgramCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Reads an encoded program from the given stream, decoding it only if the same encoding is not registered yet.
+     *
+     * @param input the stream to read from
+     * @return the registered program
+     * @throws IOException if reading from the stream fails or the data is not a valid encoded program
+     */
+    public Program read(final InputStream input) throws IOException {
+        return get(ProgramCodec.readPayload(input));
+    }
+
+    /**
+     * Decodes a program, or returns the registered program with the same encoding.
+     *
+     * @param bytes the encoded program
+     * @return the registered program
+     * @throws IOException if the bytes are not a valid encoded program
+     */
+    public Program fromBytes(final byte[] bytes) throws IOException {
+        return read(new ByteArrayInputStream(bytes));
+    }
+
+    private Program get(final byte[] payload) throws IOException {
+        var key = Hashing.sha256().hashBytes(payload);
+        synchronized (this.programs) {
+            var program = this.programs.getAndMoveToLast(key);
+            if (program != null) {
+                this.hits.incrementAndGet();
+                return program;
+            }
+
+            // decoded under the lock so that concurrent tasks of the same job decode the program once
+            program = ProgramCodec.decodePayload(payload);
+            this.misses.incrementAndGet();
+            this.programs.putAndMoveToLast(key, program);
+            if (this.programs.size() > this.capacity) {
+                this.programs.removeFirst();
+            }
+
+            LOGGER.debug("Registered program {} ({} bytes)", key, payload.length);
+            return program;
+        }
+    }
+
+    /**
+     * Returns the number of programs served without being decoded.
+     *
+     * @return the number of decodes avoided
+     */
+    public long hits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Returns the number of programs decoded.
+     *
+     * @return the number of decodes
+     */
+    public long misses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Returns the number of registered programs.
+     *
+     * @return the number of registered programs
+     */
+    public int size() {
+        synchronized (this.programs) {
+            return this.programs.size();
+        }
+    }
+
+    /**
+     * Removes every registered program, the statistics are kept.
+     */
+    public void clear() {
+        synchronized (this.programs) {
+            this.programs.clear();
+        }
+    }
+
+}
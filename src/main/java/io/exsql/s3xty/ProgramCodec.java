@@ -0,0 +1,416 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.*;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.unsafe.types.UTF8String;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact binary encoding of a {@link Program}.
+ * <p>
+ * Layout: {@code magic:int version:byte length:int payload crc32c:int}, where the payload holds the expressions,
+ * a pool of distinct constant operands and the instructions. Opcodes are written as single bytes, {@code LOAD}
+ * references its constant by pool index and jumps and result slots are written inline as varints.
+ * Regular expressions are stored as their source and only compiled when first evaluated.
+ * <p>
+ * Opcodes are encoded by {@link OperationCode#ordinal()}, reordering the enum requires bumping {@link #VERSION}.
+ */
+public final class ProgramCodec {
+
+    public static final int MAGIC = 0x53335850; // "S3XP"
+    public static final byte VERSION = 1;
+
+    // the largest payload read, the bytes of a longer one are not allocated
+    static final int MAX_PAYLOAD_LENGTH = 1 << 30;
+
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte STRING = 4;
+    private static final byte LOWERCASE_STRING = 5;
+    private static final byte REGEXP = 6;
+    private static final byte FIELD_TYPE = 7;
+    private static final byte STRING_ARRAY = 8;
+    private static final byte LONG_ARRAY = 9;
+    private static final byte DOUBLE_ARRAY = 10;
+    private static final byte BOOLEAN_ARRAY = 11;
+
+    private static final OperationCode[] OPERATION_CODES = OperationCode.values();
+
+    private ProgramCodec() {}
+
+    /**
+     * Encodes a program into a byte array.
+     *
+     * @param program the program to encode
+     * @return the encoded program
+     */
+    public static byte[] toBytes(final Program program) {
+        var output = new ByteArrayOutputStream();
+        try {
+            write(program, output);
+        } catch (final IOException ioException) {
+            throw new UncheckedIOException(ioException);
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Decodes a program from a byte array.
+     *
+     * @param bytes the encoded program
+     * @return the decoded program
+     * @throws IOException if the bytes are not a valid encoded program
+     */
+    public static Program fromBytes(final byte[] bytes) throws IOException {
+        return read(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Writes the encoded program to the given stream.
+     *
+     * @param program the program to encode
+     * @param output the stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public static void write(final Program program, final OutputStream output) throws IOException {
+        var payload = encode(program);
+
+        var checksum = new CRC32C();
+        checksum.update(payload, 0, payload.length);
+
+        var data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(payload.length);
+        data.write(payload);
+        data.writeInt((int) checksum.getValue());
+        data.flush();
+    }
+
+    /**
+     * Reads an encoded program from the given stream.
+     *
+     * @param input the stream to read from
+     * @return the decoded program
+     * @throws IOException if reading from the stream fails or the data is not a valid encoded program
+     */
+    public static Program read(final InputStream input) throws IOException {
+        return decodePayload(readPayload(input));
+    }
+
+    // the payload of an encoded program, once its framing and checksum are verified
+    static byte[] readPayload(final InputStream input) throws IOException {
+        var data = new DataInputStream(input);
+        if (data.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Not an encoded program");
+        }
+
+        var version = data.readByte();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported program encoding version: " + version);
+        }
+
+        var length = data.readInt();
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            throw new StreamCorruptedException("Invalid program payload length: " + length);
+        }
+
+        // read in chunks, so that a length beyond the end of the stream fails without allocating it up front
+        var payload = data.readNBytes(length);
+        if (payload.length != length) {
+            throw new EOFException("Program payload truncated after " + payload.length + " of " + length + " bytes");
+        }
+
+        var checksum = new CRC32C();
+        checksum.update(payload, 0, payload.length);
+        if (data.readInt() != (int) checksum.getValue()) {
+            throw new StreamCorruptedException("Program checksum mismatch");
+        }
+
+        return payload;
+    }
+
+    static Program decodePayload(final byte[] payload) throws IOException {
+        try {
+            return decode(ByteBuffer.wrap(payload));
+        } catch (final RuntimeException exception) {
+            throw new StreamCorruptedException("Invalid program encoding: " + exception);
+        }
+    }
+
+    private static byte[] encode(final Program program) throws IOException {
+        var pool = new Object2IntOpenHashMap<ByteBuffer>();
+        pool.defaultReturnValue(-1);
+        var constants = new ByteArrayOutputStream();
+
+        var code = new ByteArrayOutputStream();
+        var instructions = program.instructions();
+        writeVarInt(code, instructions.length);
+        for (var instruction: instructions) {
+            var operation = instruction.operation();
+            code.write(operation.ordinal());
+            switch (operation) {
+                case LOAD -> {
+                    var constant = encodeValue(instruction.operand(0));
+                    var key = ByteBuffer.wrap(constant);
+                    var index = pool.getInt(key);
+                    if (index < 0) {
+                        index = pool.size();
+                        pool.put(key, index);
+                        constants.write(constant);
+                    }
+
+                    writeVarInt(code, index);
+                }
+                case JUMP_IF_TRUE, JUMP_IF_FALSE, STORE_RESULT -> writeVarInt(code, (int) instruction.operand(0).toLong());
+                default -> {
+                    if (instruction.operands() != null && instruction.operands().length > 0) {
+                        throw new IllegalArgumentException("Unexpected operands for " + instruction);
+                    }
+                }
+            }
+        }
+
+        var payload = new ByteArrayOutputStream();
+        var expressions = program.expressions();
+        writeVarInt(payload, expressions.length);
+        for (var expression: expressions) {
+            if (expression == null) {
+                payload.write(0);
+            } else {
+                payload.write(1);
+                writeBytes(payload, expression.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        writeVarInt(payload, pool.size());
+        constants.writeTo(payload);
+        code.writeTo(payload);
+        return payload.toByteArray();
+    }
+
+    private static Program decode(final ByteBuffer payload) {
+        var expressions = new String[readLength(payload)];
+        for (var i = 0; i < expressions.length; i++) {
+            if (payload.get() != 0) {
+                expressions[i] = new String(readBytes(payload), StandardCharsets.UTF_8);
+            }
+        }
+
+        var pool = new Instruction[readLength(payload)];
+        for (var i = 0; i < pool.length; i++) {
+            pool[i] = Instruction.load(decodeValue(payload));
+        }
+
+        // instructions without operands are immutable and shared
+        var simple = new Instruction[OPERATION_CODES.length];
+        var instructions = new Instruction[readLength(payload)];
+        for (var i = 0; i < instructions.length; i++) {
+            var operation = OPERATION_CODES[payload.get()];
+            instructions[i] = switch (operation) {
+                case LOAD -> pool[readVarInt(payload)];
+                case JUMP_IF_TRUE -> Instruction.jumpIfTrue(readVarInt(payload));
+                case JUMP_IF_FALSE -> Instruction.jumpIfFalse(readVarInt(payload));
+                case STORE_RESULT -> Instruction.storeResult(readVarInt(payload));
+                default -> {
+                    if (simple[operation.ordinal()] == null) {
+                        simple[operation.ordinal()] = Instruction.create(operation);
+                    }
+                    yield simple[operation.ordinal()];
+                }
+            };
+        }
+
+        if (payload.hasRemaining()) {
+            throw new IllegalStateException(payload.remaining() + " trailing bytes");
+        }
+
+        return new Program(expressions, instructions);
+    }
+
+    static byte[] encodeValue(final Value value) throws IOException {
+        var output = new ByteArrayOutputStream();
+        var data = new DataOutputStream(output);
+        if (value.isNull()) {
+            data.writeByte(NULL);
+        } else if (value instanceof BooleanValue) {
+            data.writeByte(BOOLEAN);
+            data.writeBoolean(((BooleanValue) value).wrapped());
+        } else if (value instanceof LongValue) {
+            data.writeByte(LONG);
+            writeVarLong(output, ((LongValue) value).wrapped());
+        } else if (value instanceof DoubleValue) {
+            data.writeByte(DOUBLE);
+            data.writeDouble(((DoubleValue) value).wrapped());
+        } else if (value instanceof StringValue) {
+            data.writeByte(((StringValue) value).lowercase() ? LOWERCASE_STRING : STRING);
+            writeBytes(output, ((StringValue) value).wrapped().getBytes());
+        } else if (value instanceof RegexpValue) {
+            data.writeByte(REGEXP);
+            writeBytes(output, ((RegexpValue) value).source().getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof FieldTypeValue) {
+            data.writeByte(FIELD_TYPE);
+            writeBytes(output, ((FieldTypeValue) value).dataType().json().getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof StringArrayValue) {
+            data.writeByte(STRING_ARRAY);
+            var strings = ((StringArrayValue) value).wrapped();
+            writeVarInt(output, strings.length);
+            for (var string: strings) {
+                writeBytes(output, string.getBytes());
+            }
+        } else if (value instanceof LongArrayValue) {
+            data.writeByte(LONG_ARRAY);
+            var longs = ((LongArrayValue) value).wrapped();
+            writeVarInt(output, longs.length);
+            for (var l: longs) {
+                writeVarLong(output, l);
+            }
+        } else if (value instanceof DoubleArrayValue) {
+            data.writeByte(DOUBLE_ARRAY);
+            var doubles = ((DoubleArrayValue) value).wrapped();
+            writeVarInt(output, doubles.length);
+            for (var d: doubles) {
+                data.writeDouble(d);
+            }
+        } else if (value instanceof BooleanArrayValue) {
+            data.writeByte(BOOLEAN_ARRAY);
+            var booleans = ((BooleanArrayValue) value).wrapped();
+            writeVarInt(output, booleans.length);
+            for (var b: booleans) {
+                data.writeBoolean(b);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value: " + value);
+        }
+
+        data.flush();
+        return output.toByteArray();
+    }
+
+    static Value decodeValue(final ByteBuffer payload) {
+        var tag = payload.get();
+        switch (tag) {
+            case NULL:
+                return Value.nullValue();
+            case BOOLEAN:
+                return Value.booleanValue(payload.get() != 0);
+            case LONG:
+                return Value.longValue(readVarLong(payload));
+            case DOUBLE:
+                return Value.doubleValue(payload.getDouble());
+            case STRING:
+                return Value.stringValue(UTF8String.fromBytes(readBytes(payload)));
+            case LOWERCASE_STRING:
+                return new StringValue(UTF8String.fromBytes(readBytes(payload)), true);
+            case REGEXP:
+                return new RegexpValue(new String(readBytes(payload), StandardCharsets.UTF_8));
+            case FIELD_TYPE:
+                return Value.fieldTypeValue(DataType.fromJson(new String(readBytes(payload), StandardCharsets.UTF_8)));
+            case STRING_ARRAY: {
+                var strings = new UTF8String[readLength(payload)];
+                for (var i = 0; i < strings.length; i++) {
+                    strings[i] = UTF8String.fromBytes(readBytes(payload));
+                }
+                return Value.stringArrayValue(strings);
+            }
+            case LONG_ARRAY: {
+                var longs = new long[readLength(payload)];
+                for (var i = 0; i < longs.length; i++) {
+                    longs[i] = readVarLong(payload);
+                }
+                return Value.longArrayValue(longs);
+            }
+            case DOUBLE_ARRAY: {
+                var doubles = new double[readLength(payload)];
+                for (var i = 0; i < doubles.length; i++) {
+                    doubles[i] = payload.getDouble();
+                }
+                return Value.doubleArrayValue(doubles);
+            }
+            case BOOLEAN_ARRAY: {
+                var booleans = new boolean[readLength(payload)];
+                for (var i = 0; i < booleans.length; i++) {
+                    booleans[i] = payload.get() != 0;
+                }
+                return Value.booleanArrayValue(booleans);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown value tag: " + tag);
+        }
+    }
+
+    private static void writeBytes(final OutputStream output, final byte[] bytes) throws IOException {
+        writeVarInt(output, bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(final ByteBuffer input) {
+        var bytes = new byte[readLength(input)];
+        input.get(bytes);
+        return bytes;
+    }
+
+    // a number of elements, each of them takes at least one of the remaining bytes
+    private static int readLength(final ByteBuffer input) {
+        var length = readVarInt(input);
+        if (length < 0 || length > input.remaining()) {
+            throw new IllegalArgumentException("Invalid length " + length + " with " + input.remaining() + " bytes left");
+        }
+
+        return length;
+    }
+
+    private static void writeVarInt(final OutputStream output, final int value) throws IOException {
+        var v = value;
+        while ((v & ~0x7F) != 0) {
+            output.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        output.write(v);
+    }
+
+    private static int readVarInt(final ByteBuffer input) {
+        var value = 0;
+        for (var shift = 0; shift < 32; shift += 7) {
+            var b = input.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static void writeVarLong(final OutputStream output, final long value) throws IOException {
+        // zig-zag so that small negative constants stay small
+        var v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            output.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        output.write((int) v);
+    }
+
+    private static long readVarLong(final ByteBuffer input) {
+        var value = 0L;
+        for (var shift = 0; shift < 64; shift += 7) {
+            var b = input.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (value >>> 1) ^ -(value & 1);
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varlong");
+    }
+
+}
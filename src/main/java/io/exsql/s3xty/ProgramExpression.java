@@ -0,0 +1,274 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.StringValue;
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.analysis.TypeCheckResult;
+import org.apache.spark.sql.catalyst.expressions.Expression;
+import org.apache.spark.sql.catalyst.expressions.UnsafeArrayData;
+import org.apache.spark.sql.catalyst.expressions.codegen.CodeBlock;
+import org.apache.spark.sql.catalyst.expressions.codegen.CodeGenerator;
+import org.apache.spark.sql.catalyst.expressions.codegen.CodegenContext;
+import org.apache.spark.sql.catalyst.expressions.codegen.ExprCode;
+import org.apache.spark.sql.catalyst.expressions.codegen.JavaCode;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.ArrayType;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import scala.collection.immutable.IndexedSeq;
+import scala.collection.immutable.Seq;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.util.List;
+
+/**
+ * A Catalyst expression evaluating a program over an {@code ARRAY<STRUCT<key: STRING, value: STRING>>} trait column,
+ * with the result of every expression of the program in an {@code ARRAY<BOOLEAN>}.
+ * <p>
+ * Unlike a UDF, the expression reads the trait column as Catalyst data, in place, and takes part in whole-stage code
+ * generation: the generated stage holds a {@link ReusableArrayDataAccessor} per partition, the expressions that only
+ * compare a trait with a constant are generated as Java code reading it from the accessor, see {@link LeafPredicate},
+ * and the other expressions are evaluated by a VM running the rest of the program. Without code generation the whole
+ * program runs on the VM, interpreted. A null trait column gives a null result.
+ * <p>
+ * The expression extends {@link Expression} rather than {@code UnaryExpression}, whose Scala-final
+ * {@code withNewChildrenInternal} cannot be seen from Java.
+ * <pre>{@code
+ * var matches = profiles.select(ProgramExpression.column(col("traits"), schema, program));
+ * }</pre>
+ */
+public final class ProgramExpression extends Expression {
+
+    private static final ArrayType RESULT_TYPE = DataTypes.createArrayType(DataTypes.BooleanType, false);
+
+    static final int LEAVES_PER_FUNCTION = 64;
+
+    private final Expression child;
+    private final Seq<Expression> children;
+    private final Program program;
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes;
+
+    // the interpreted path, created on first use by every copy of the expression
+    private transient SExpressionVM vm;
+    private transient ReusableArrayDataAccessor accessor;
+
+    /**
+     * Creates the expression.
+     *
+     * @param child the trait column
+     * @param program the program to evaluate
+     * @param fieldTypes the declared types of the traits
+     */
+    public ProgramExpression(final Expression child, final Program program, final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes) {
+        this.child = child;
+        this.children = CollectionConverters.asScala(List.of(child)).toSeq();
+        this.program = program;
+        this.fieldTypes = fieldTypes;
+    }
+
+    /**
+     * Creates a column evaluating a program over a trait column.
+     *
+     * @param traits the trait column
+     * @param schema the schema the program was compiled with
+     * @param program the program to evaluate
+     * @return the column of the results of the expressions of the program
+     */
+    public static Column column(final Column traits, final StructType schema, final Program program) {
+        return new Column(new ProgramExpression(traits.expr(), program, SchemaHelper.convert(schema)));
+    }
+
+    /**
+     * Returns the trait column.
+     *
+     * @return the trait column
+     */
+    public Expression child() {
+        return this.child;
+    }
+
+    @Override
+    public Seq<Expression> children() {
+        return this.children;
+    }
+
+    @Override
+    public boolean nullable() {
+        return this.child.nullable();
+    }
+
+    @Override
+    public DataType dataType() {
+        return RESULT_TYPE;
+    }
+
+    @Override
+    public String prettyName() {
+        return "s3xty";
+    }
+
+    // the VM and the accessor are per copy, each projection has to get its own
+    @Override
+    public boolean stateful() {
+        return true;
+    }
+
+    @Override
+    public TypeCheckResult checkInputDataTypes() {
+        if (isTraitColumn(this.child.dataType())) {
+            return TypeCheckResult.TypeCheckSuccess$.MODULE$;
+        }
+
+        return new TypeCheckResult.TypeCheckFailure(
+                "s3xty expects an array<struct<key: string, value: string>> column, not " + this.child.dataType().simpleString()
+        );
+    }
+
+    static boolean isTraitColumn(final DataType dataType) {
+        return dataType instanceof ArrayType array
+                && array.elementType() instanceof StructType entry
+                && entry.fields().length == 2
+                && entry.fields()[0].dataType() == DataTypes.StringType
+                && entry.fields()[1].dataType() == DataTypes.StringType;
+    }
+
+    @Override
+    public Object eval(final InternalRow row) {
+        var entries = (ArrayData) this.child.eval(row);
+        if (entries == null) {
+            return null;
+        }
+
+        if (this.vm == null) {
+            this.vm = new SExpressionVM(System.getenv(), this.program);
+            this.accessor = TraitAccessor.forPartition(this.fieldTypes);
+        }
+
+        this.vm.reset();
+        this.vm.evaluate(this.accessor.reset(entries));
+        return UnsafeArrayData.fromPrimitiveArray(this.vm.results());
+    }
+
+    @Override
+    public ExprCode doGenCode(final CodegenContext ctx, final ExprCode ev) {
+        var leaves = LeafPredicate.of(this.program);
+        var residual = LeafPredicate.residual(this.program, leaves);
+
+        var program = ctx.addReferenceObj("program", residual, Program.class.getName());
+        var fieldTypes = ctx.addReferenceObj("fieldTypes", this.fieldTypes, Object2ObjectOpenHashMap.class.getName());
+        var vm = ctx.addMutableState(
+                SExpressionVM.class.getName(),
+                "vm",
+                name -> name + " = new " + SExpressionVM.class.getName() + "(java.lang.System.getenv(), " + program + ");",
+                true,
+                true
+        );
+        var accessor = ctx.addMutableState(
+                ReusableArrayDataAccessor.class.getName(),
+                "accessor",
+                // janino cannot call the static methods of an interface such as TraitAccessor.forPartition
+                name -> name + " = new " + ReusableArrayDataAccessor.class.getName() + "(" + fieldTypes + ");",
+                true,
+                true
+        );
+
+        // the leaves are generated in functions of a bounded size, the methods of the stage stay small enough to be compiled
+        var results = ctx.freshName("results");
+        var leafCode = new StringBuilder();
+        var body = new StringBuilder();
+        var generated = 0;
+        for (var leaf: leaves) {
+            if (leaf == null) {
+                continue;
+            }
+
+            var key = ctx.addReferenceObj("key", leaf.key(), UTF8String.class.getName());
+            String constant = null;
+            if (leaf.constant() instanceof StringValue string) {
+                var wrapped = ctx.addReferenceObj("constant", string.wrapped(), UTF8String.class.getName());
+                constant = ctx.addMutableState(
+                        Value.class.getName(),
+                        "constant",
+                        name -> name + " = new " + StringValue.class.getName() + "(" + wrapped + ", false);",
+                        false,
+                        true
+                );
+            }
+
+            body.append(leaf.generate(accessor, "results", key, constant, ctx.freshName("trait")));
+            if (++generated % LEAVES_PER_FUNCTION == 0) {
+                leafCode.append(addLeafFunction(ctx, body, results));
+            }
+        }
+        if (!body.isEmpty()) {
+            leafCode.append(addLeafFunction(ctx, body, results));
+        }
+
+        // the residual program only holds the expressions that are not leaves, it is skipped when there are none
+        var interpreted = residual.instructions().length > 1;
+        var entries = this.child.genCode(ctx);
+        var code = entries.code() + "\n"
+                + "boolean " + ev.isNull() + " = " + entries.isNull() + ";\n"
+                + CodeGenerator.javaType(RESULT_TYPE) + " " + ev.value() + " = null;\n"
+                + "if (!" + ev.isNull() + ") {\n"
+                + "  " + accessor + ".reset(" + entries.value() + ");\n"
+                + (interpreted ? "  " + vm + ".reset();\n  " + vm + ".evaluate(" + accessor + ");\n" : "")
+                + "  boolean[] " + results + " = " + vm + ".results();\n"
+                + leafCode
+                + "  " + ev.value() + " = " + UnsafeArrayData.class.getName() + ".fromPrimitiveArray(" + results + ");\n"
+                + "}";
+
+        ev.code_$eq(new CodeBlock(CollectionConverters.asScala(List.of(code)).toSeq(), CollectionConverters.asScala(List.<JavaCode>of()).toSeq()));
+        return ev;
+    }
+
+    private static String addLeafFunction(final CodegenContext ctx, final StringBuilder body, final String results) {
+        var name = ctx.freshName("evaluateLeaves");
+        var function = ctx.addNewFunction(name, "private void " + name + "(boolean[] results) {\n" + body + "}\n", false);
+        body.setLength(0);
+        return "  " + function + "(" + results + ");\n";
+    }
+
+    @Override
+    public Expression withNewChildrenInternal(final IndexedSeq<Expression> newChildren) {
+        return new ProgramExpression(newChildren.apply(0), this.program, this.fieldTypes);
+    }
+
+    @Override
+    public int productArity() {
+        return 3;
+    }
+
+    @Override
+    public Object productElement(final int n) {
+        return switch (n) {
+            case 0 -> this.child;
+            case 1 -> this.program;
+            case 2 -> this.fieldTypes;
+            default -> throw new IndexOutOfBoundsException("Invalid element index: " + n);
+        };
+    }
+
+    @Override
+    public boolean canEqual(final Object that) {
+        return that instanceof ProgramExpression;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof ProgramExpression expression
+                && this.child.equals(expression.child)
+                && this.program == expression.program
+                && this.fieldTypes.equals(expression.fieldTypes);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+}
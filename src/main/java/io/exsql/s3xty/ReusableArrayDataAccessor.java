@@ -0,0 +1,231 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import io.exsql.s3xty.value.ValueParser;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.unsafe.types.UTF8String;
+
+import java.util.Arrays;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+
+/**
+ * An accessor over the key/value entries of a profile that is rebound to the next profile with
+ * {@link #reset(ArrayData)} instead of being allocated again.
+ * <p>
+ * The traits of its {@link TraitLayout} are located and decoded lazily into scratch arrays allocated once: the
+ * position of their entry, their long, double or boolean value and, for strings and arrays, their {@link Value}.
+ * Slots are tagged with the generation of the profile that filled them, so a reset only bumps the generation and
+ * never clears the arrays. Long, double and boolean traits are served without allocating; other traits are cached in
+ * a map cleared on reset.
+ * <p>
+ * An accessor is not thread-safe, each thread processing a partition uses its own.
+ */
+public final class ReusableArrayDataAccessor implements TraitAccessor {
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes;
+    private final TraitLayout layout;
+
+    private final int[] located;
+    private final int[] positions;
+    private final int[] decoded;
+    private final boolean[] nulls;
+
+    private final long[] longs;
+    private final double[] doubles;
+    private final boolean[] booleans;
+    private final Value[] values;
+
+    private final Object2ObjectOpenHashMap<UTF8String, Value> undeclared = new Object2ObjectOpenHashMap<>();
+
+    private ArrayData entries;
+    private int length;
+    private int scanned;
+    private int generation;
+
+    /**
+     * Creates an accessor holding the declared traits in scratch arrays.
+     *
+     * @param fieldTypes the declared types of the traits
+     */
+    public ReusableArrayDataAccessor(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes) {
+        this(fieldTypes, TraitLayout.of(fieldTypes, null));
+    }
+
+    /**
+     * Creates an accessor holding the traits of a layout in scratch arrays, other traits are looked up on demand.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param layout the traits to keep in scratch arrays
+     */
+    public ReusableArrayDataAccessor(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final TraitLayout layout) {
+        this.fieldTypes = fieldTypes;
+        this.layout = layout;
+        this.located = new int[layout.size()];
+        this.positions = new int[layout.size()];
+        this.decoded = new int[layout.size()];
+        this.nulls = new boolean[layout.size()];
+        this.longs = new long[layout.count(TraitLayout.LONG)];
+        this.doubles = new double[layout.count(TraitLayout.DOUBLE)];
+        this.booleans = new boolean[layout.count(TraitLayout.BOOLEAN)];
+        this.values = new Value[layout.count(TraitLayout.VALUE)];
+        this.reset(ArrayData.toArrayData(new Object[0]));
+    }
+
+    /**
+     * Rebinds this accessor to the entries of another profile, forgetting everything decoded from the previous one.
+     *
+     * @param entries the key/value entries of the profile
+     * @return this accessor
+     */
+    public ReusableArrayDataAccessor reset(final ArrayData entries) {
+        this.entries = entries;
+        this.length = entries.numElements();
+        this.scanned = 0;
+
+        // generation 0 is never used, so that fresh slots are never mistaken for current ones
+        if (++this.generation == 0) {
+            Arrays.fill(this.located, 0);
+            Arrays.fill(this.decoded, 0);
+            this.generation = 1;
+        }
+
+        if (!this.undeclared.isEmpty()) {
+            this.undeclared.clear();
+        }
+
+        return this;
+    }
+
+    @Override
+    public Value get(final UTF8String key) {
+        var slot = this.layout.slot(key);
+        if (slot < 0) {
+            return this.getUndeclared(key);
+        }
+
+        if (!this.decode(slot)) {
+            return null;
+        }
+
+        if (this.nulls[slot]) {
+            return Value.nullValue();
+        }
+
+        var index = this.layout.index(slot);
+        return switch (this.layout.kind(slot)) {
+            case TraitLayout.LONG -> Value.longValue(this.longs[index]);
+            case TraitLayout.DOUBLE -> Value.doubleValue(this.doubles[index]);
+            case TraitLayout.BOOLEAN -> Value.booleanValue(this.booleans[index]);
+            default -> this.values[index];
+        };
+    }
+
+    @Override
+    public OptionalLong getLong(final UTF8String key) {
+        var slot = this.layout.slot(key);
+        if (slot < 0 || this.layout.kind(slot) != TraitLayout.LONG) {
+            return TraitAccessor.super.getLong(key);
+        }
+
+        if (!this.decode(slot) || this.nulls[slot]) {
+            return OptionalLong.empty();
+        }
+
+        return OptionalLong.of(this.longs[this.layout.index(slot)]);
+    }
+
+    @Override
+    public OptionalDouble getDouble(final UTF8String key) {
+        var slot = this.layout.slot(key);
+        if (slot < 0 || this.layout.kind(slot) != TraitLayout.DOUBLE) {
+            return TraitAccessor.super.getDouble(key);
+        }
+
+        if (!this.decode(slot) || this.nulls[slot]) {
+            return OptionalDouble.empty();
+        }
+
+        return OptionalDouble.of(this.doubles[this.layout.index(slot)]);
+    }
+
+    @Override
+    public boolean getBoolean(final UTF8String key) {
+        var slot = this.layout.slot(key);
+        if (slot < 0 || this.layout.kind(slot) != TraitLayout.BOOLEAN) {
+            return TraitAccessor.super.getBoolean(key);
+        }
+
+        return this.decode(slot) && !this.nulls[slot] && this.booleans[this.layout.index(slot)];
+    }
+
+    // decodes the value of a slot for the current profile, returns false if the profile does not hold the trait
+    private boolean decode(final int slot) {
+        if (this.decoded[slot] == this.generation) {
+            return true;
+        }
+
+        var position = this.locate(slot);
+        if (position < 0) {
+            return false;
+        }
+
+        var raw = this.entries.getStruct(position, 2).getUTF8String(1);
+        this.nulls[slot] = raw == null;
+        if (raw != null) {
+            var index = this.layout.index(slot);
+            switch (this.layout.kind(slot)) {
+                case TraitLayout.LONG -> this.longs[index] = raw.toLongExact();
+                case TraitLayout.DOUBLE -> this.doubles[index] = ValueParser.parseDouble(raw);
+                case TraitLayout.BOOLEAN -> this.booleans[index] = Boolean.parseBoolean(raw.toString());
+                default -> this.values[index] = this.layout.decode(slot, raw);
+            }
+        }
+
+        this.decoded[slot] = this.generation;
+        return true;
+    }
+
+    // returns the position of the first entry of a slot, recording the position of every slot scanned past
+    private int locate(final int slot) {
+        if (this.located[slot] == this.generation) {
+            return this.positions[slot];
+        }
+
+        while (this.scanned < this.length) {
+            var position = this.scanned++;
+            var scannedSlot = this.layout.slot(this.entries.getStruct(position, 2).getUTF8String(0));
+            if (scannedSlot >= 0 && this.located[scannedSlot] != this.generation) {
+                this.located[scannedSlot] = this.generation;
+                this.positions[scannedSlot] = position;
+                if (scannedSlot == slot) {
+                    return position;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private Value getUndeclared(final UTF8String key) {
+        if (this.undeclared.containsKey(key)) {
+            return this.undeclared.get(key);
+        }
+
+        Value value = null;
+        for (var i = 0; i < this.length; i++) {
+            var entry = this.entries.getStruct(i, 2);
+            if (entry.getUTF8String(0).equals(key)) {
+                value = CachedArrayDataAccessor.decode(this.fieldTypes.getOrDefault(key, DataTypes.StringType), entry.getUTF8String(1));
+                break;
+            }
+        }
+
+        this.undeclared.put(key, value);
+        return value;
+    }
+
+}
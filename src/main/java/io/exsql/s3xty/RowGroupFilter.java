@@ -0,0 +1,259 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.FieldTypeValue;
+import io.exsql.s3xty.value.StringValue;
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.unsafe.types.UTF8String;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides, from what is known about a group of profiles, whether any expression of a program can match one of them.
+ * <p>
+ * The program is interpreted over sets of outcomes instead of values: every trait predicate yields whether it may be
+ * true and whether it may be false for some profile of the group, {@code not} swaps both, and the short-circuit jumps
+ * of {@code and} and {@code or} follow every branch that may be taken. A predicate is decided by running it in a VM
+ * against every value the trait may take: missing, null, and every entry of the value dictionary when there is one.
+ * Predicates are decided independently of each other, even when they read the same trait. The answer is therefore
+ * conservative, a group is only ruled out when no expression can store a true result.
+ * <p>
+ * The min/max statistics of the value column are not used: the values of every trait share that single string
+ * column, so its bounds mix traits and compare as strings, and cannot bound a numeric trait such as {@code ltv}. A
+ * range predicate is only ruled out through the value dictionary, when there is one, or when its trait is missing.
+ */
+final class RowGroupFilter {
+
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+    private static final int UNKNOWN = FALSE | TRUE;
+
+    /**
+     * What is known about the traits of a group of profiles.
+     */
+    interface Statistics {
+
+        /**
+         * @param key the trait
+         * @return false if no profile of the group holds the trait
+         */
+        boolean mayContain(UTF8String key);
+
+        /**
+         * @return false if no trait of the group has a null value
+         */
+        boolean mayHaveNullValues();
+
+        /**
+         * @return every value a trait of the group holds, or null when they are not known
+         */
+        UTF8String[] values();
+    }
+
+    private final Instruction[] instructions;
+    private final Int2ObjectOpenHashMap<Predicate> predicates = new Int2ObjectOpenHashMap<>();
+    private final Set<UTF8String> keys;
+
+    RowGroupFilter(final Program program) {
+        this.instructions = program.instructions();
+        this.keys = program.referencedTraits().keySet();
+        for (var i = 2; i < this.instructions.length; i++) {
+            if (this.instructions[i].operation() != OperationCode.GET_FIELD) {
+                continue;
+            }
+
+            var key = ((StringValue) this.instructions[i - 1].operand(0)).wrapped();
+
+            // trait predicates are either (IS_NOT_NULL field) or (OP field constant)
+            var end = i + 1;
+            if (end < this.instructions.length && this.instructions[end].operation() == OperationCode.LOAD) {
+                end++;
+            }
+            if (end < this.instructions.length) {
+                this.predicates.put(end, new Predicate(key, Arrays.copyOfRange(this.instructions, i - 2, end + 1)));
+            }
+        }
+    }
+
+    /**
+     * Returns the traits the program reads.
+     *
+     * @return the referenced traits
+     */
+    Set<UTF8String> keys() {
+        return this.keys;
+    }
+
+    /**
+     * Checks whether an expression of the program may match a profile of the group.
+     *
+     * @param statistics what is known about the group
+     * @return false only if no expression can match any profile of the group
+     */
+    boolean mayMatch(final Statistics statistics) {
+        var decoded = new Object2ObjectOpenHashMap<DataType, Value[]>();
+        var incoming = new IntArrayList[this.instructions.length + 1];
+
+        // the stack holds the possible outcomes of booleans, and 0 for any other value
+        var stack = new IntArrayList();
+        for (var i = 0; i < this.instructions.length; i++) {
+            if (incoming[i] != null) {
+                stack = stack == null ? incoming[i] : merge(stack, incoming[i]);
+            }
+
+            if (stack == null) {
+                continue;
+            }
+
+            var instruction = this.instructions[i];
+            switch (instruction.operation()) {
+                case HALT -> stack = null;
+                case LOAD -> stack.add(0);
+                case GET_FIELD -> {
+                    stack.popInt();
+                    stack.popInt();
+                    stack.add(0);
+                }
+                case DUP -> stack.add(stack.topInt());
+                case POP -> stack.popInt();
+                case NOT -> {
+                    var outcome = stack.popInt();
+                    stack.add(((outcome & FALSE) << 1) | ((outcome & TRUE) >> 1));
+                }
+                case JUMP_IF_TRUE, JUMP_IF_FALSE -> {
+                    var outcome = stack.popInt();
+                    var taken = instruction.operation() == OperationCode.JUMP_IF_TRUE ? TRUE : FALSE;
+
+                    // and/or duplicate the operand they test, each branch then knows which outcome it holds
+                    var tested = i > 0 && this.instructions[i - 1].operation() == OperationCode.DUP && incoming[i] == null;
+                    if ((outcome & taken) != 0) {
+                        var target = (int) instruction.operand(0).toLong();
+                        var branch = stack.clone();
+                        if (tested) {
+                            branch.set(branch.size() - 1, taken);
+                        }
+                        incoming[target] = incoming[target] == null ? branch : merge(incoming[target], branch);
+                    }
+
+                    if ((outcome & ~taken) == 0) {
+                        stack = null;
+                    } else if (tested) {
+                        stack.set(stack.size() - 1, outcome & ~taken);
+                    }
+                }
+                case STORE_RESULT -> {
+                    if ((stack.popInt() & TRUE) != 0) {
+                        return true;
+                    }
+                }
+                default -> {
+                    stack.popInt();
+                    if (instruction.operation() != OperationCode.IS_NOT_NULL) {
+                        stack.popInt();
+                    }
+
+                    var predicate = this.predicates.get(i);
+                    stack.add(predicate == null ? UNKNOWN : predicate.evaluate(statistics, decoded));
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static IntArrayList merge(final IntArrayList stack, final IntArrayList other) {
+        for (var i = 0; i < stack.size(); i++) {
+            stack.set(i, stack.getInt(i) | other.getInt(i));
+        }
+        return stack;
+    }
+
+    /**
+     * A single trait predicate, evaluated on its own against candidate values.
+     */
+    private static final class Predicate implements TraitAccessor {
+        private final UTF8String key;
+        private final DataType dataType;
+        private final SExpressionVM vm;
+        private Value value;
+
+        Predicate(final UTF8String key, final Instruction[] instructions) {
+            var code = Arrays.copyOf(instructions, instructions.length + 2);
+            code[instructions.length] = Instruction.storeResult(0);
+            code[instructions.length + 1] = Instruction.halt();
+
+            this.key = key;
+            this.dataType = ((FieldTypeValue) instructions[0].operand(0)).dataType();
+            this.vm = new SExpressionVM(Map.of(), new Program(new String[1], code));
+        }
+
+        @Override
+        public Value get(final UTF8String key) {
+            return this.key.equals(key) ? this.value : null;
+        }
+
+        int evaluate(final RowGroupFilter.Statistics statistics, final Object2ObjectOpenHashMap<DataType, Value[]> decoded) {
+            try {
+                var outcome = evaluate((Value) null);
+                if (!statistics.mayContain(this.key)) {
+                    return outcome;
+                }
+
+                if (statistics.mayHaveNullValues()) {
+                    outcome |= evaluate(Value.nullValue());
+                }
+
+                var values = values(statistics, decoded);
+                if (values == null) {
+                    return UNKNOWN;
+                }
+
+                for (var i = 0; i < values.length && outcome != UNKNOWN; i++) {
+                    if (values[i] != null) {
+                        outcome |= evaluate(values[i]);
+                    }
+                }
+
+                return outcome;
+            } catch (final RuntimeException exception) {
+                return UNKNOWN;
+            }
+        }
+
+        private int evaluate(final Value value) {
+            this.value = value;
+            this.vm.reset();
+            this.vm.evaluate(this);
+            return this.vm.results()[0] ? TRUE : FALSE;
+        }
+
+        // the dictionary is shared by every trait, values of other types that do not decode are left out
+        private Value[] values(final RowGroupFilter.Statistics statistics, final Object2ObjectOpenHashMap<DataType, Value[]> cache) {
+            var decoded = cache.get(this.dataType);
+            if (decoded == null) {
+                var values = statistics.values();
+                if (values == null) {
+                    return null;
+                }
+
+                decoded = new Value[values.length];
+                for (var i = 0; i < values.length; i++) {
+                    try {
+                        decoded[i] = CachedArrayDataAccessor.decode(this.dataType, values[i]);
+                    } catch (final RuntimeException exception) {
+                        decoded[i] = null;
+                    }
+                }
+                cache.put(this.dataType, decoded);
+            }
+
+            return decoded;
+        }
+    }
+
+}
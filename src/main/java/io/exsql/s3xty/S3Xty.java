@@ -1,19 +1,17 @@
 package io.exsql.s3xty;
 
 import com.google.common.base.Stopwatch;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import org.apache.spark.sql.catalyst.util.ArrayData;
-import org.apache.spark.sql.types.DataType;
 import org.apache.spark.sql.types.StructType;
 import org.apache.spark.unsafe.types.UTF8String;
-import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 public class S3Xty {
 
@@ -41,57 +39,47 @@ public class S3Xty {
             var program = Compiler.compile(schema, expressions);
             LOGGER.debug("\n{}", program);
 
-            var threads = new ArrayList<Thread>();
-
-            LOGGER.info("Starting evaluation of {} expressions", expressions.length);
-            var globalStopWatch = Stopwatch.createStarted();
-            for (var evaluation = 0; evaluation < evaluations; evaluation++) {
-                var thread = new Thread(createTask(evaluation, program.fork(), initializeTraitAccessors(fieldTypes, data)));
-                thread.start();
-                threads.add(thread);
-            }
-
-            for (var thread: threads) {
-                thread.join();
+            // profiles are decoded once off-heap and shared by every worker of the engine
+            var layout = TraitLayout.of(fieldTypes, collectKeys(data));
+            try (var store = TraitStore.load(fieldTypes, layout, data)) {
+                LOGGER.info("Stored {} profiles in {} bytes", store.rows(), store.bytes());
+
+                // every evaluation is split across the cores by the engine
+                var engine = new EvaluationEngine(System.getenv(), ForkJoinPool.commonPool());
+
+                LOGGER.info("Starting evaluation of {} expressions", expressions.length);
+                var globalStopWatch = Stopwatch.createStarted();
+                for (var evaluation = 0; evaluation < evaluations; evaluation++) {
+                    var stopWatch = Stopwatch.createStarted();
+                    var matches = engine.evaluate(program, store);
+                    var elapsed = stopWatch.elapsed(TimeUnit.MILLISECONDS);
+                    totalActualTime.addAndGet(elapsed);
+
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("matches: {}", IntStream.range(0, matches.expressions()).mapToLong(matches::cardinality).boxed().toList());
+                    }
+
+                    LOGGER.info("evaluating #{} took: {}ms", evaluation, elapsed);
+                }
+
+                LOGGER.info(
+                        "evaluating {} expressions on {} profiles {} times took: {}s (actual: {}ms)",
+                        expressions, records, evaluations, globalStopWatch.elapsed(TimeUnit.SECONDS), totalActualTime.get()
+                );
             }
-
-            LOGGER.info(
-                    "evaluating {} expressions on {} profiles {} times took: {}s (actual: {}ms)",
-                    expressions, records, evaluations, globalStopWatch.elapsed(TimeUnit.SECONDS), totalActualTime.get()
-            );
         } catch (final Throwable throwable) {
             LOGGER.error("An error occurred while evaluating expression. See logs for more details.", throwable);
         }
     }
 
-    private static @NotNull Runnable createTask(final int evaluation, final Program program, final TraitAccessor[] accessors) {
-        return () -> {
-            var vm = new SExpressionVM(System.getenv(), program);
-            var stopWatch = Stopwatch.createStarted();
-            for (var accessor: accessors) {
-                vm.reset();
-                vm.evaluate(accessor);
+    private static ObjectOpenHashSet<UTF8String> collectKeys(final ArrayData[] data) {
+        var keys = new ObjectOpenHashSet<UTF8String>();
+        for (var entries: data) {
+            for (var i = 0; i < entries.numElements(); i++) {
+                keys.add(entries.getStruct(i, 2).getUTF8String(0));
             }
-
-            var elapsed = stopWatch.elapsed(TimeUnit.MILLISECONDS);
-            totalActualTime.addAndGet(elapsed);
-
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("result: {}", Arrays.toString(vm.results()));
-            }
-
-            LOGGER.info("evaluating #{} took: {}ms", evaluation, elapsed);
-        };
-    }
-
-    private static TraitAccessor[] initializeTraitAccessors(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
-                                                            final ArrayData[] data) {
-
-        var bags = new TraitAccessor[data.length];
-        for (var i = 0; i < data.length; i++) {
-            bags[i] = TraitAccessor.forArrayData(fieldTypes, data[i]);
         }
-        return bags;
+        return keys;
     }
 
 }
\ No newline at end of file
@@ -5,7 +5,6 @@ import org.apache.spark.sql.types.DataTypes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiFunction;
@@ -20,6 +19,13 @@ public final class SExpressionVM {
 
     public static final int DEFAULT_STACK_SIZE = 256;
 
+    private static final Instruction[] OPERAND_LESS_INSTRUCTIONS = new Instruction[OperationCode.values().length];
+    static {
+        for (var operation: OperationCode.values()) {
+            OPERAND_LESS_INSTRUCTIONS[operation.ordinal()] = Instruction.create(operation);
+        }
+    }
+
     // Stack for operands
     private final Value[] stack = new Value[DEFAULT_STACK_SIZE];
     private int sp = 0;
@@ -27,22 +33,64 @@ public final class SExpressionVM {
     // Execution context
     private TraitAccessor accessor;
     
-    // Instruction handlers
-    private final Map<OperationCode, InstructionHandler> instructionHandlers = new HashMap<>();
-    private final Program program;
+    // Instruction handlers, indexed by operation ordinal and shared by every VM
+    private static final InstructionHandler[] INSTRUCTION_HANDLERS = new InstructionHandler[OperationCode.values().length];
+    static {
+        registerDefaultInstructionHandlers();
+    }
+
+    private final LiveProgram live;
+    private final MappedProgram mapped;
+    private Program program;
     private final boolean useVectorAPI;
 
     // Results array for storing multiple expression results
-    private final boolean[] results;
+    private boolean[] results;
 
     /**
      * Creates a new SExpressionVM with the default instruction handlers.
      */
     public SExpressionVM(final Map<String, String> environment, final Program program) {
+        this(environment, null, program);
+    }
+
+    /**
+     * Creates a new SExpressionVM that evaluates the latest published version of a live program.
+     * A new version is picked up at the start of the next evaluation, never in the middle of one.
+     */
+    public SExpressionVM(final Map<String, String> environment, final LiveProgram live) {
+        this(environment, live, live.current());
+    }
+
+    /**
+     * Creates a new SExpressionVM that executes a memory-mapped program in place.
+     * Any number of VMs can share the same mapped program.
+     */
+    public SExpressionVM(final Map<String, String> environment, final MappedProgram mapped) {
+        this.live = null;
+        this.mapped = mapped;
+        this.results = mapped.output();
+        this.useVectorAPI = useVectorAPI(environment);
+    }
+
+    private SExpressionVM(final Map<String, String> environment, final LiveProgram live, final Program program) {
+        this(useVectorAPI(environment), live, program);
+    }
+
+    SExpressionVM(final boolean useVectorAPI, final Program program) {
+        this(useVectorAPI, null, program);
+    }
+
+    private SExpressionVM(final boolean useVectorAPI, final LiveProgram live, final Program program) {
+        this.live = live;
+        this.mapped = null;
         this.program = program;
         this.results = program.output();
-        this.useVectorAPI = Boolean.parseBoolean(environment.getOrDefault("S3XTY_VM_USE_VECTOR_API", "false"));
-        registerDefaultInstructionHandlers();
+        this.useVectorAPI = useVectorAPI;
+    }
+
+    static boolean useVectorAPI(final Map<String, String> environment) {
+        return Boolean.parseBoolean(environment.getOrDefault("S3XTY_VM_USE_VECTOR_API", "false"));
     }
 
     /**
@@ -51,29 +99,98 @@ public final class SExpressionVM {
      * @param accessor the value bag to use for field lookups
      */
     public void evaluate(final TraitAccessor accessor) {
+        if (this.mapped != null) {
+            evaluateMapped(accessor);
+            return;
+        }
+
+        if (this.live != null) {
+            var latest = this.live.current();
+            if (latest != this.program) {
+                this.program = latest;
+                this.results = latest.output();
+            }
+        }
+
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Evaluating: \n{}", program);
+            LOGGER.debug("Evaluating: \n{}", this.program);
         }
 
         this.accessor = accessor;
 
-        while (program.hasNext()) {
-            var instruction = program.next();
+        // the program counter is local, the program itself is never modified and can back any number of VMs
+        var instructions = this.program.instructions();
+        var pc = 0;
+        while (pc < instructions.length) {
+            var instruction = instructions[pc];
             var operation = instruction.operation();
-            
+
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Executing instruction: {} at index {}", instruction, program.getCurrentIndex() - 1);
+                LOGGER.debug("Executing instruction: {} at index {}", instruction, pc);
             }
-            
-            var handler = instructionHandlers.get(operation);
-            if (handler != null) {
-                handler.execute(this, program, instruction);
-            } else {
-                throw new IllegalStateException("Unknown operation: " + operation);
+
+            pc++;
+            switch (operation) {
+                case HALT -> pc = instructions.length;
+                case JUMP_IF_TRUE -> {
+                    if (((BooleanValue) pop()).wrapped()) {
+                        pc = (int) ((LongValue) instruction.operand(0)).wrapped();
+                    }
+                }
+                case JUMP_IF_FALSE -> {
+                    if (!((BooleanValue) pop()).wrapped()) {
+                        pc = (int) ((LongValue) instruction.operand(0)).wrapped();
+                    }
+                }
+                default -> {
+                    var handler = INSTRUCTION_HANDLERS[operation.ordinal()];
+                    if (handler == null) {
+                        throw new IllegalStateException("Unknown operation: " + operation);
+                    }
+                    handler.execute(this, instruction);
+                }
             }
         }
     }
 
+    /**
+     * Executes the mapped program, like {@link #evaluate(TraitAccessor)} the program counter is kept here.
+     * Operands are read from the mapping, every other instruction goes through the shared operand-less handlers.
+     */
+    private void evaluateMapped(final TraitAccessor accessor) {
+        this.accessor = accessor;
+
+        var length = this.mapped.length();
+        var pc = 0;
+        while (pc < length) {
+            var operation = this.mapped.operation(pc);
+            var next = pc + 1;
+            switch (operation) {
+                case HALT -> next = length;
+                case LOAD -> push(this.mapped.constant(pc));
+                case JUMP_IF_TRUE -> {
+                    if (((BooleanValue) pop()).wrapped()) {
+                        next = this.mapped.argument(pc);
+                    }
+                }
+                case JUMP_IF_FALSE -> {
+                    if (!((BooleanValue) pop()).wrapped()) {
+                        next = this.mapped.argument(pc);
+                    }
+                }
+                case STORE_RESULT -> this.results[this.mapped.argument(pc)] = ((BooleanValue) this.stack[this.sp - 1]).wrapped();
+                default -> {
+                    var handler = INSTRUCTION_HANDLERS[operation.ordinal()];
+                    if (handler == null) {
+                        throw new IllegalStateException("Unknown operation: " + operation);
+                    }
+                    handler.execute(this, OPERAND_LESS_INSTRUCTIONS[operation.ordinal()]);
+                }
+            }
+            pc = next;
+        }
+    }
+
     /**
      * Returns the result of the program execution.
      * The result is the boolean value at the top of the stack.
@@ -94,6 +211,15 @@ public final class SExpressionVM {
         return this.results;
     }
 
+    /**
+     * Returns the program the VM evaluates, null when it executes a mapped program.
+     *
+     * @return the program
+     */
+    Program program() {
+        return this.program;
+    }
+
     /**
      * Resets the VM state.
      */
@@ -151,15 +277,10 @@ public final class SExpressionVM {
     /**
      * Registers the default instruction handlers.
      */
-    private void registerDefaultInstructionHandlers() {
-        // General Operations
-        instructionHandlers.put(OperationCode.HALT, (vm, program, instruction) -> {
-            // Do nothing, just halt execution
-        });
-        
+    private static void registerDefaultInstructionHandlers() {
         // Memory Operations
-        instructionHandlers.put(OperationCode.LOAD, (vm, program, instruction) -> vm.push(instruction.operand(0)));
-        instructionHandlers.put(OperationCode.GET_FIELD, (vm, program, instruction) -> {
+        register(OperationCode.LOAD, (vm, instruction) -> vm.push(instruction.operand(0)));
+        register(OperationCode.GET_FIELD, (vm, instruction) -> {
             var fieldPosition = vm.pop();
             var fieldType = vm.pop();
             var dataType = ((FieldTypeValue) fieldType).dataType();
@@ -199,29 +320,14 @@ public final class SExpressionVM {
         });
         
         // Combining Operations
-        instructionHandlers.put(OperationCode.NOT, (vm, program, instruction) -> vm.push(Value.booleanValue(!((BooleanValue) vm.pop()).wrapped())));
-        
-        // Control Flow Operations
-        instructionHandlers.put(OperationCode.JUMP_IF_TRUE, (vm, program, instruction) -> {
-            if (((BooleanValue) vm.pop()).wrapped()) {
-                int jumpTarget = (int) ((LongValue) instruction.operand(0)).wrapped();
-                program.setCurrentIndex(jumpTarget);
-            }
-        });
+        register(OperationCode.NOT, (vm, instruction) -> vm.push(Value.booleanValue(!((BooleanValue) vm.pop()).wrapped())));
         
-        instructionHandlers.put(OperationCode.JUMP_IF_FALSE, (vm, program, instruction) -> {
-            if (!((BooleanValue) vm.pop()).wrapped()) {
-                int jumpTarget = (int) ((LongValue) instruction.operand(0)).wrapped();
-                program.setCurrentIndex(jumpTarget);
-            }
-        });
-
         // Stack Operations
-        instructionHandlers.put(OperationCode.DUP, (vm, program, instruction) -> vm.dup());
-        instructionHandlers.put(OperationCode.POP, (vm, program, instruction) -> vm.pop());
+        register(OperationCode.DUP, (vm, instruction) -> vm.dup());
+        register(OperationCode.POP, (vm, instruction) -> vm.pop());
         
         // Result Operations
-        instructionHandlers.put(OperationCode.STORE_RESULT, (vm, program, instruction) -> {
+        register(OperationCode.STORE_RESULT, (vm, instruction) -> {
             int index = (int) ((LongValue) instruction.operand(0)).wrapped();
             boolean result = ((BooleanValue) vm.stack[vm.sp - 1]).wrapped();
             
@@ -230,30 +336,30 @@ public final class SExpressionVM {
         });
 
         // Register unary operations
-        instructionHandlers.put(OperationCode.IS_NOT_NULL, (vm, program, instruction) -> vm.push(Value.booleanValue(Operation.isNotNull(vm.pop()))));
+        register(OperationCode.IS_NOT_NULL, (vm, instruction) -> vm.push(Value.booleanValue(Operation.isNotNull(vm.pop()))));
 
         // Register binary operations
         registerBinaryOperation(OperationCode.LONG_EQ, Operation::nullSafeLongEq);
         registerBinaryOperation(OperationCode.DOUBLE_EQ, Operation::nullSafeDoubleEq);
         registerBinaryOperation(OperationCode.BOOLEAN_EQ, Operation::nullSafeBooleanEq);
-        registerBinaryOperation(OperationCode.STRING_EQ, (v1, v2) -> Operation.nullSafeStringEq(v1, v2, useVectorAPI));
-        registerBinaryOperation(OperationCode.STRING_CI_EQ, (v1, v2) -> Operation.nullSafeStringCiEq(v1, v2, useVectorAPI));
+        registerStringOperation(OperationCode.STRING_EQ, Operation::nullSafeStringEq);
+        registerStringOperation(OperationCode.STRING_CI_EQ, Operation::nullSafeStringCiEq);
         registerBinaryOperation(OperationCode.LONG_NE, (v1, v2) -> !Operation.nullSafeLongEq(v1, v2));
         registerBinaryOperation(OperationCode.DOUBLE_NE, (v1, v2) -> !Operation.nullSafeDoubleEq(v1, v2));
         registerBinaryOperation(OperationCode.BOOLEAN_NE, (v1, v2) -> !Operation.nullSafeBooleanEq(v1, v2));
-        registerBinaryOperation(OperationCode.STRING_NE, (v1, v2) -> !Operation.nullSafeStringEq(v1, v2, useVectorAPI));
+        registerStringOperation(OperationCode.STRING_NE, (v1, v2, vector) -> !Operation.nullSafeStringEq(v1, v2, vector));
         registerBinaryOperation(OperationCode.LONG_LT, Operation::nullSafeLongLt);
         registerBinaryOperation(OperationCode.DOUBLE_LT, Operation::nullSafeDoubleLt);
-        registerBinaryOperation(OperationCode.STRING_LT, (v1, v2) -> Operation.nullSafeStringLt(v1, v2, useVectorAPI));
+        registerStringOperation(OperationCode.STRING_LT, Operation::nullSafeStringLt);
         registerBinaryOperation(OperationCode.LONG_LE, Operation::nullSafeLongLe);
         registerBinaryOperation(OperationCode.DOUBLE_LE, Operation::nullSafeDoubleLe);
-        registerBinaryOperation(OperationCode.STRING_LE, (v1, v2) -> Operation.nullSafeStringLe(v1, v2, useVectorAPI));
+        registerStringOperation(OperationCode.STRING_LE, Operation::nullSafeStringLe);
         registerBinaryOperation(OperationCode.LONG_GT, Operation::nullSafeLongGt);
         registerBinaryOperation(OperationCode.DOUBLE_GT, Operation::nullSafeDoubleGt);
-        registerBinaryOperation(OperationCode.STRING_GT, (v1, v2) -> Operation.nullSafeStringGt(v1, v2, useVectorAPI));
+        registerStringOperation(OperationCode.STRING_GT, Operation::nullSafeStringGt);
         registerBinaryOperation(OperationCode.LONG_GE, Operation::nullSafeLongGe);
         registerBinaryOperation(OperationCode.DOUBLE_GE, Operation::nullSafeDoubleGe);
-        registerBinaryOperation(OperationCode.STRING_GE, (v1, v2) -> Operation.nullSafeStringGe(v1, v2, useVectorAPI));
+        registerStringOperation(OperationCode.STRING_GE, Operation::nullSafeStringGe);
         registerBinaryOperation(OperationCode.STRING_REGEXP_MATCH, Operation::stringRegexMatch);
         registerBinaryOperation(OperationCode.STRING_CONTAINS, Operation::nullSafeStringContains);
         registerBinaryOperation(OperationCode.STRING_CI_CONTAINS, Operation::nullSafeStringCiContains);
@@ -278,8 +384,30 @@ public final class SExpressionVM {
      * @param opCode the operation code
      * @param operation the operation function that takes two values and returns a boolean result
      */
-    private void registerBinaryOperation(final OperationCode opCode, final BiFunction<Value, Value, Boolean> operation) {
-        instructionHandlers.put(opCode, (vm, program, instruction) -> vm.push(Value.booleanValue(operation.apply(vm.pop(), vm.pop()))));
+    private static void registerBinaryOperation(final OperationCode opCode, final BiFunction<Value, Value, Boolean> operation) {
+        register(opCode, (vm, instruction) -> vm.push(Value.booleanValue(operation.apply(vm.pop(), vm.pop()))));
+    }
+
+    /**
+     * Registers a binary string operation handler, which compares with the vector API when the VM is configured to.
+     *
+     * @param opCode the operation code
+     * @param operation the operation function that takes two values and whether to use the vector API
+     */
+    private static void registerStringOperation(final OperationCode opCode, final StringOperation operation) {
+        register(opCode, (vm, instruction) -> vm.push(Value.booleanValue(operation.apply(vm.pop(), vm.pop(), vm.useVectorAPI))));
+    }
+
+    private static void register(final OperationCode opCode, final InstructionHandler handler) {
+        INSTRUCTION_HANDLERS[opCode.ordinal()] = handler;
+    }
+
+    /**
+     * Interface for string operations.
+     */
+    @FunctionalInterface
+    private interface StringOperation {
+        boolean apply(final Value right, final Value left, final boolean useVectorAPI);
     }
 
     /**
@@ -287,7 +415,7 @@ public final class SExpressionVM {
      */
     @FunctionalInterface
     private interface InstructionHandler {
-        void execute(final SExpressionVM vm, final Program program, final Instruction instruction);
+        void execute(final SExpressionVM vm, final Instruction instruction);
     }
 
 }
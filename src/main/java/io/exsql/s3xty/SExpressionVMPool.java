@@ -0,0 +1,115 @@
+package io.exsql.s3xty;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * A pool of VMs keyed by the program they evaluate, for callers that evaluate a program once per request.
+ * <p>
+ * Every thread keeps its own idle VMs, so that acquiring and releasing them never contends. At most
+ * {@code capacity} idle VMs are kept per thread, the least recently released one is dropped first. The environment
+ * is read once by the pool, and VMs are reset when they are handed out.
+ * <pre>{@code
+ * try (var lease = pool.acquire(program)) {
+ *     lease.vm().evaluate(accessor);
+ *     return lease.vm().results().clone();
+ * }
+ * }</pre>
+ */
+public final class SExpressionVMPool {
+
+    private final boolean useVectorAPI;
+    private final int capacity;
+    private final ThreadLocal<ArrayList<SExpressionVM>> idle;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param environment the environment of the VMs
+     * @param capacity the maximum number of idle VMs kept per thread
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public SExpressionVMPool(final Map<String, String> environment, final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.useVectorAPI = SExpressionVM.useVectorAPI(environment);
+        this.capacity = capacity;
+        this.idle = ThreadLocal.withInitial(() -> new ArrayList<>(capacity));
+    }
+
+    /**
+     * Acquires a reset VM evaluating the given program, it goes back to the pool when the lease is closed.
+     *
+     * @param program the program to evaluate
+     * @return the lease of the VM
+     */
+    public Lease acquire(final Program program) {
+        // only the VMs are pooled, a lease kept after its close never hands out a VM leased again
+        var idle = this.idle.get();
+        for (var i = idle.size() - 1; i >= 0; i--) {
+            var vm = idle.get(i);
+            if (vm.program() == program) {
+                idle.remove(i);
+                vm.reset();
+                return new Lease(vm);
+            }
+        }
+
+        return new Lease(new SExpressionVM(this.useVectorAPI, program));
+    }
+
+    /**
+     * Returns the number of idle VMs of the current thread.
+     *
+     * @return the number of idle VMs
+     */
+    public int idle() {
+        return this.idle.get().size();
+    }
+
+    /**
+     * A VM handed out by the pool, every acquisition gets its own lease.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final SExpressionVM vm;
+        private boolean released;
+
+        private Lease(final SExpressionVM vm) {
+            this.vm = vm;
+        }
+
+        /**
+         * Returns the leased VM, it must not be used once the lease is closed.
+         *
+         * @return the VM
+         */
+        public SExpressionVM vm() {
+            if (this.released) {
+                throw new IllegalStateException("VM already released");
+            }
+            return this.vm;
+        }
+
+        /**
+         * Returns the VM to the pool of the current thread, closing a lease more than once has no effect.
+         */
+        @Override
+        public void close() {
+            if (this.released) {
+                return;
+            }
+
+            this.released = true;
+            var idle = SExpressionVMPool.this.idle.get();
+            if (idle.size() == SExpressionVMPool.this.capacity) {
+                idle.remove(0);
+            }
+            idle.add(this.vm);
+        }
+
+    }
+
+}
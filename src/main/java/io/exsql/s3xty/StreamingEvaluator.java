@@ -0,0 +1,501 @@
+package io.exsql.s3xty;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.catalyst.util.GenericArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Evaluates a program over NDJSON or CSV trait exports of any size, with a memory footprint that does not depend on
+ * the size of the input.
+ * <p>
+ * The export is streamed through three stages connected by bounded queues: a reader thread parses the records, the
+ * workers evaluate them, each with its own VM and {@link ReusableArrayDataAccessor}, and the calling thread writes
+ * one {@code id<TAB>expression,expression,...} line per record with the indexes of the expressions it matches. A
+ * fixed number of records circulates between the stages and is reused from record to record: the reader waits for
+ * the writer to hand one back before parsing further, so a slow stage holds back the ones before it. Lines are
+ * written in the order the workers complete the records, not in the order of the input.
+ * <p>
+ * In an NDJSON export every record is an object whose id field holds the record id and every other field a trait,
+ * arrays are joined with commas, the delimiter of array traits, so their elements cannot contain a comma. A CSV export starts with a header naming its columns, every column other than the id
+ * column is a trait and empty unquoted cells are missing traits.
+ * <p>
+ * The first failure of any stage stops the reader, the records already read are drained and the failure is thrown.
+ */
+public final class StreamingEvaluator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingEvaluator.class);
+
+    private static final UTF8String COMMA = UTF8String.fromString(",");
+
+    private static final Record END = new Record();
+
+    private final boolean useVectorAPI;
+    private final Program program;
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes;
+    private final int workers;
+    private final int capacity;
+
+    /**
+     * Creates a new evaluator.
+     *
+     * @param environment the environment of the VMs
+     * @param schema the schema the program was compiled with
+     * @param program the program to evaluate
+     * @param workers the number of evaluation threads
+     * @param capacity the number of records in flight between the stages
+     * @throws IllegalArgumentException if the number of workers or the capacity is not positive
+     */
+    public StreamingEvaluator(final Map<String, String> environment,
+                              final StructType schema,
+                              final Program program,
+                              final int workers,
+                              final int capacity) {
+
+        if (workers <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Workers and capacity must be positive: " + workers + ", " + capacity);
+        }
+
+        this.useVectorAPI = SExpressionVM.useVectorAPI(environment);
+        this.program = program;
+        this.fieldTypes = SchemaHelper.convert(schema);
+        this.workers = workers;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Evaluates the program over an NDJSON export.
+     *
+     * @param input the export, left open
+     * @param idField the field holding the id of the records
+     * @param output where the results are written, flushed and left open
+     * @return the number of records evaluated
+     * @throws IOException if reading, parsing or writing fails
+     */
+    public long evaluateJson(final InputStream input, final String idField, final Writer output) throws IOException {
+        var parser = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE).createParser(input);
+        try (parser) {
+            return run(record -> readJson(parser, idField, record), output);
+        }
+    }
+
+    /**
+     * Evaluates the program over a CSV export.
+     *
+     * @param input the export, left open
+     * @param idColumn the column holding the id of the records
+     * @param output where the results are written, flushed and left open
+     * @return the number of records evaluated
+     * @throws IOException if reading, parsing or writing fails
+     * @throws IllegalArgumentException if the header has no id column
+     */
+    public long evaluateCsv(final Reader input, final String idColumn, final Writer output) throws IOException {
+        var parser = new CsvParser(input instanceof BufferedReader buffered ? buffered : new BufferedReader(input));
+        var header = new ArrayList<String>();
+        if (!parser.row(header, new BooleanArrayList())) {
+            return 0;
+        }
+
+        var id = header.indexOf(idColumn);
+        if (id < 0) {
+            throw new IllegalArgumentException("Column " + idColumn + " not found in " + header);
+        }
+
+        var keys = new UTF8String[header.size()];
+        for (var i = 0; i < keys.length; i++) {
+            keys[i] = UTF8String.fromString(header.get(i));
+        }
+
+        var cells = new ArrayList<String>();
+        var quoted = new BooleanArrayList();
+        return run(record -> readCsv(parser, keys, id, cells, quoted, record), output);
+    }
+
+    private long run(final RecordSource source, final Writer output) throws IOException {
+        var free = new ArrayBlockingQueue<Record>(this.capacity);
+        for (var i = 0; i < this.capacity; i++) {
+            free.add(new Record());
+        }
+
+        // both queues have room for every record and every end marker, only the free records are waited for
+        var pending = new ArrayBlockingQueue<Record>(this.capacity + this.workers);
+        var done = new ArrayBlockingQueue<Record>(this.capacity + this.workers);
+        var failure = new AtomicReference<Throwable>();
+
+        var threads = new ArrayList<Thread>();
+        threads.add(start("s3xty-reader", () -> read(source, free, pending, failure)));
+        for (var i = 0; i < this.workers; i++) {
+            threads.add(start("s3xty-worker-" + i, () -> evaluate(pending, done, failure)));
+        }
+
+        var records = 0L;
+        try {
+            var ended = 0;
+            while (ended < this.workers) {
+                var record = done.take();
+                if (record == END) {
+                    ended++;
+                    continue;
+                }
+
+                if (failure.get() == null) {
+                    try {
+                        write(record, output);
+                        records++;
+                    } catch (final IOException | RuntimeException exception) {
+                        failure.compareAndSet(null, exception);
+                    }
+                }
+                free.add(record);
+            }
+
+            // workers that failed before taking their records leave them pending, handing them back to the reader
+            // lets it see the failure instead of waiting for a free record forever
+            for (var record = pending.poll(); record != null; record = pending.poll()) {
+                if (record != END) {
+                    free.add(record);
+                }
+            }
+
+            for (var thread: threads) {
+                thread.join();
+            }
+        } catch (final InterruptedException interruptedException) {
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted after " + records + " records");
+        }
+
+        var exception = failure.get();
+        if (exception instanceof IOException ioException) {
+            throw ioException;
+        }
+        if (exception instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (exception != null) {
+            throw new IOException(exception);
+        }
+
+        output.flush();
+        LOGGER.debug("Evaluated {} records", records);
+        return records;
+    }
+
+    private static Thread start(final String name, final Runnable stage) {
+        var thread = new Thread(stage, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void read(final RecordSource source,
+                      final BlockingQueue<Record> free,
+                      final BlockingQueue<Record> pending,
+                      final AtomicReference<Throwable> failure) {
+
+        try {
+            while (failure.get() == null) {
+                var record = free.take();
+                if (!source.next(record.clear())) {
+                    break;
+                }
+                pending.add(record);
+            }
+        } catch (final InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, interruptedException);
+        } catch (final Throwable throwable) {
+            failure.compareAndSet(null, throwable);
+        } finally {
+            for (var i = 0; i < this.workers; i++) {
+                pending.add(END);
+            }
+        }
+    }
+
+    private void evaluate(final BlockingQueue<Record> pending, final BlockingQueue<Record> done, final AtomicReference<Throwable> failure) {
+        try {
+            var vm = new SExpressionVM(this.useVectorAPI, this.program);
+            var accessor = TraitAccessor.forPartition(this.fieldTypes);
+            var results = vm.results();
+            while (true) {
+                var record = pending.take();
+                if (record == END) {
+                    break;
+                }
+
+                // records read before a failure are only drained, every record goes back to the writer
+                try {
+                    if (failure.get() == null) {
+                        vm.reset();
+                        vm.evaluate(accessor.reset(record.traits()));
+                        for (var expression = 0; expression < results.length; expression++) {
+                            if (results[expression]) {
+                                record.matches.add(expression);
+                            }
+                        }
+                    }
+                } catch (final Throwable throwable) {
+                    failure.compareAndSet(null, throwable);
+                } finally {
+                    done.add(record);
+                }
+            }
+        } catch (final InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, interruptedException);
+        } catch (final Throwable throwable) {
+            failure.compareAndSet(null, throwable);
+        } finally {
+            done.add(END);
+        }
+    }
+
+    private static void write(final Record record, final Writer output) throws IOException {
+        output.write(record.id);
+        output.write('\t');
+        for (var i = 0; i < record.matches.size(); i++) {
+            if (i > 0) {
+                output.write(',');
+            }
+            output.write(Integer.toString(record.matches.getInt(i)));
+        }
+        output.write('\n');
+    }
+
+    private static boolean readJson(final JsonParser parser, final String idField, final Record record) throws IOException {
+        var token = parser.nextToken();
+        if (token == null) {
+            return false;
+        }
+
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a record object, not " + token);
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var name = parser.currentName();
+            var value = parser.nextToken();
+            if (name.equals(idField)) {
+                if (value.isStructStart()) {
+                    throw new JsonParseException(parser, "Id " + name + " holds a structured value");
+                }
+                record.id = parser.getValueAsString();
+                continue;
+            }
+
+            var key = UTF8String.fromString(name);
+            switch (value) {
+                case VALUE_NULL -> record.add(key, null);
+                case START_OBJECT -> throw new JsonParseException(parser, "Trait " + name + " holds an object");
+                case START_ARRAY -> {
+                    var elements = new ArrayList<UTF8String>();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        if (parser.currentToken().isStructStart()) {
+                            throw new JsonParseException(parser, "Trait " + name + " holds nested values");
+                        }
+                        var element = parser.getText();
+                        if (element.indexOf(',') >= 0) {
+                            throw new JsonParseException(parser, "Trait " + name + " holds an element with a comma: " + element);
+                        }
+                        elements.add(UTF8String.fromString(element));
+                    }
+                    record.add(key, UTF8String.concatWs(COMMA, elements.toArray(new UTF8String[0])));
+                }
+                default -> record.add(key, UTF8String.fromString(parser.getText()));
+            }
+        }
+
+        if (record.id == null) {
+            throw new JsonParseException(parser, "Record without " + idField);
+        }
+
+        return true;
+    }
+
+    private static boolean readCsv(final CsvParser parser,
+                                   final UTF8String[] keys,
+                                   final int id,
+                                   final ArrayList<String> cells,
+                                   final BooleanArrayList quoted,
+                                   final Record record) throws IOException {
+
+        // blank lines are skipped
+        do {
+            if (!parser.row(cells, quoted)) {
+                return false;
+            }
+        } while (cells.size() == 1 && cells.get(0).isEmpty() && !quoted.getBoolean(0));
+
+        if (cells.size() != keys.length) {
+            throw new IOException("Row " + parser.row + " has " + cells.size() + " fields instead of " + keys.length);
+        }
+
+        for (var i = 0; i < keys.length; i++) {
+            if (i == id) {
+                record.id = cells.get(i);
+            } else if (!cells.get(i).isEmpty() || quoted.getBoolean(i)) {
+                record.add(keys[i], UTF8String.fromString(cells.get(i)));
+            }
+        }
+
+        return true;
+    }
+
+    @FunctionalInterface
+    private interface RecordSource {
+        boolean next(Record record) throws IOException;
+    }
+
+    /**
+     * A record travelling through the stages, its trait entries, arrays of entries and matches are reused from record
+     * to record.
+     */
+    private static final class Record {
+        private String id;
+        private GenericInternalRow[] entries = new GenericInternalRow[16];
+        private int size;
+        // one array per number of entries, GenericArrayData cannot be resized
+        private GenericArrayData[] traits = new GenericArrayData[17];
+        private final IntArrayList matches = new IntArrayList();
+
+        private Record clear() {
+            this.id = null;
+            this.size = 0;
+            this.matches.clear();
+            return this;
+        }
+
+        private void add(final UTF8String key, final UTF8String value) {
+            if (this.size == this.entries.length) {
+                this.entries = Arrays.copyOf(this.entries, this.size * 2);
+            }
+
+            var entry = this.entries[this.size];
+            if (entry == null) {
+                entry = new GenericInternalRow(2);
+                this.entries[this.size] = entry;
+            }
+
+            entry.update(0, key);
+            entry.update(1, value);
+            this.size++;
+        }
+
+        private ArrayData traits() {
+            if (this.size >= this.traits.length) {
+                this.traits = Arrays.copyOf(this.traits, this.entries.length + 1);
+            }
+
+            var traits = this.traits[this.size];
+            if (traits == null) {
+                traits = new GenericArrayData(new Object[this.size]);
+                this.traits[this.size] = traits;
+            }
+
+            System.arraycopy(this.entries, 0, traits.array(), 0, this.size);
+            return traits;
+        }
+    }
+
+    /**
+     * Splits RFC 4180 CSV into rows of cells, quoted cells may hold delimiters, escaped quotes and line breaks.
+     */
+    private static final class CsvParser {
+        private final Reader reader;
+        private final StringBuilder cell = new StringBuilder();
+        private int pushedBack = -2;
+        private long row = 0;
+
+        private CsvParser(final Reader reader) {
+            this.reader = reader;
+        }
+
+        private boolean row(final ArrayList<String> cells, final BooleanArrayList quoted) throws IOException {
+            cells.clear();
+            quoted.clear();
+
+            var c = read();
+            if (c == -1) {
+                return false;
+            }
+
+            this.row++;
+            while (true) {
+                this.cell.setLength(0);
+                var isQuoted = c == '"';
+                if (isQuoted) {
+                    while (true) {
+                        c = read();
+                        if (c == -1) {
+                            throw new EOFException("Unterminated quoted field on row " + this.row);
+                        }
+
+                        if (c == '"') {
+                            c = read();
+                            if (c != '"') {
+                                break;
+                            }
+                        }
+                        this.cell.append((char) c);
+                    }
+
+                    if (c != ',' && c != '\r' && c != '\n' && c != -1) {
+                        throw new IOException("Unexpected character after a quoted field on row " + this.row);
+                    }
+                } else {
+                    while (c != ',' && c != '\r' && c != '\n' && c != -1) {
+                        this.cell.append((char) c);
+                        c = read();
+                    }
+                }
+
+                cells.add(this.cell.toString());
+                quoted.add(isQuoted);
+                if (c != ',') {
+                    break;
+                }
+                c = read();
+            }
+
+            if (c == '\r') {
+                var next = read();
+                if (next != '\n') {
+                    this.pushedBack = next;
+                }
+            }
+
+            return true;
+        }
+
+        private int read() throws IOException {
+            if (this.pushedBack != -2) {
+                var c = this.pushedBack;
+                this.pushedBack = -2;
+                return c;
+            }
+            return this.reader.read();
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package io.exsql.s3xty;
+
+import org.apache.spark.unsafe.types.UTF8String;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizer for S-expressions working on the UTF-8 bytes of the expression.
+ * Tokens are {@link UTF8String} slices of those bytes, only quoted strings containing escape sequences are copied.
+ * Escape sequences follow {@link java.io.StreamTokenizer}, which this tokenizer replaces.
+ */
+final class Tokenizer {
+
+    static final int EOF = -1;
+    static final int OPEN = '(';
+    static final int CLOSE = ')';
+    static final int ATOM = 'a';
+    static final int STRING = '"';
+
+    private final byte[] bytes;
+    private int offset = 0;
+
+    private int type;
+    private int position;
+    private UTF8String token;
+
+    Tokenizer(final String expression) {
+        this.bytes = expression.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Advances to the next token.
+     *
+     * @return the type of the token
+     */
+    int next() {
+        while (this.offset < this.bytes.length && (this.bytes[this.offset] & 0xFF) <= ' ') {
+            this.offset++;
+        }
+
+        this.position = this.offset;
+        this.token = null;
+        if (this.offset >= this.bytes.length) {
+            return this.type = EOF;
+        }
+
+        var b = this.bytes[this.offset];
+        switch (b) {
+            case '(':
+            case ')':
+                this.offset++;
+                return this.type = b;
+            case '"':
+            case '\'':
+                this.token = quoted(b);
+                return this.type = STRING;
+            default:
+                var start = this.offset;
+                while (this.offset < this.bytes.length && !isDelimiter(this.bytes[this.offset])) {
+                    this.offset++;
+                }
+                this.token = UTF8String.fromBytes(this.bytes, start, this.offset - start);
+                return this.type = ATOM;
+        }
+    }
+
+    int type() {
+        return this.type;
+    }
+
+    int position() {
+        return this.position;
+    }
+
+    UTF8String token() {
+        return this.token;
+    }
+
+    /**
+     * Checks that the current token has the given type.
+     *
+     * @param type the expected type
+     * @throws ParseException if the current token has another type
+     */
+    void expect(final int type) {
+        if (this.type != type) {
+            throw error("Expected " + describe(type) + " but found " + describe(this.type));
+        }
+    }
+
+    /**
+     * Checks that the current token is an atom or a quoted string and returns it.
+     *
+     * @return the current token
+     * @throws ParseException if the current token is not a value
+     */
+    UTF8String value() {
+        if (this.type != ATOM && this.type != STRING) {
+            throw error("Expected a value but found " + describe(this.type));
+        }
+
+        return this.token;
+    }
+
+    ParseException error(final String message) {
+        return new ParseException(message, this.position);
+    }
+
+    ParseException error(final String message, final Throwable cause) {
+        return new ParseException(message, this.position, cause);
+    }
+
+    private UTF8String quoted(final byte quote) {
+        var start = ++this.offset;
+        while (this.offset < this.bytes.length) {
+            var b = this.bytes[this.offset];
+            if (b == quote) {
+                this.offset++;
+                return UTF8String.fromBytes(this.bytes, start, this.offset - 1 - start);
+            }
+
+            if (b == '\\') {
+                return escaped(quote, start);
+            }
+
+            this.offset++;
+        }
+
+        throw error("Unterminated string");
+    }
+
+    private UTF8String escaped(final byte quote, final int start) {
+        var unescaped = new byte[this.bytes.length - start];
+        var length = this.offset - start;
+        System.arraycopy(this.bytes, start, unescaped, 0, length);
+
+        while (this.offset < this.bytes.length) {
+            var b = this.bytes[this.offset++];
+            if (b == quote) {
+                return UTF8String.fromBytes(unescaped, 0, length);
+            }
+
+            if (b == '\\' && this.offset < this.bytes.length) {
+                b = this.bytes[this.offset++];
+                switch (b) {
+                    case 'a' -> b = 0x7;
+                    case 'b' -> b = '\b';
+                    case 'f' -> b = 0xC;
+                    case 'n' -> b = '\n';
+                    case 'r' -> b = '\r';
+                    case 't' -> b = '\t';
+                    case 'v' -> b = 0xB;
+                    default -> {
+                        if (b >= '0' && b <= '7') {
+                            b = octal(b);
+                        }
+                    }
+                }
+            }
+
+            unescaped[length++] = b;
+        }
+
+        throw error("Unterminated string");
+    }
+
+    private byte octal(final byte first) {
+        var value = first - '0';
+        var digits = first <= '3' ? 2 : 1;
+        while (digits-- > 0 && this.offset < this.bytes.length && this.bytes[this.offset] >= '0' && this.bytes[this.offset] <= '7') {
+            value = value * 8 + (this.bytes[this.offset++] - '0');
+        }
+        return (byte) value;
+    }
+
+    private static boolean isDelimiter(final byte b) {
+        return (b & 0xFF) <= ' ' || b == '(' || b == ')' || b == '"' || b == '\'';
+    }
+
+    private static String describe(final int type) {
+        return switch (type) {
+            case EOF -> "end of expression";
+            case OPEN -> "'('";
+            case CLOSE -> "')'";
+            case STRING -> "a string";
+            default -> "an atom";
+        };
+    }
+
+}
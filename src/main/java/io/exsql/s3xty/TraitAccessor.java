@@ -2,29 +2,198 @@ package io.exsql.s3xty;
 
 import io.exsql.s3xty.value.Value;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.arrow.vector.complex.ListVector;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.catalyst.expressions.UnsafeArrayData;
 import org.apache.spark.sql.catalyst.util.ArrayData;
 import org.apache.spark.sql.types.DataType;
 import org.apache.spark.unsafe.types.UTF8String;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.OptionalDouble;
 import java.util.OptionalLong;
+import java.util.Set;
 
+/**
+ * Access to the traits of a single profile.
+ * Implementations only have to resolve a trait to its decoded {@link Value}, the typed getters derive from it.
+ */
 public interface TraitAccessor {
+
     Value get(final UTF8String key);
-    OptionalLong getLong(final UTF8String key);
-    OptionalDouble getDouble(final UTF8String key);
-    boolean getBoolean(final UTF8String key);
-    UTF8String[] getStrings(final UTF8String key);
-    long[] getLongs(final UTF8String key);
-    double[] getDoubles(final UTF8String key);
-    boolean[] getBooleans(final UTF8String key);
 
+    default OptionalLong getLong(final UTF8String key) {
+        var value = this.get(key);
+        if (value != null && !value.isNull()) {
+            return OptionalLong.of(value.toLong());
+        }
+
+        return OptionalLong.empty();
+    }
+
+    default OptionalDouble getDouble(final UTF8String key) {
+        var value = this.get(key);
+        if (value != null && !value.isNull()) {
+            return OptionalDouble.of(value.toDouble());
+        }
+
+        return OptionalDouble.empty();
+    }
+
+    default boolean getBoolean(final UTF8String key) {
+        var value = this.get(key);
+        if (value != null && !value.isNull()) {
+            return value.toBoolean();
+        }
+
+        return false;
+    }
+
+    default UTF8String[] getStrings(final UTF8String key) {
+        var value = this.get(key);
+        if (value != null && !value.isNull()) {
+            return value.toStrings();
+        }
+
+        return new UTF8String[0];
+    }
+
+    default long[] getLongs(final UTF8String key) {
+        var value = this.get(key);
+        if (value != null && !value.isNull()) {
+            return value.toLongs();
+        }
+
+        return new long[0];
+    }
+
+    default double[] getDoubles(final UTF8String key) {
+        var value = this.get(key);
+        if (value != null && !value.isNull()) {
+            return value.toDoubles();
+        }
+
+        return new double[0];
+    }
+
+    default boolean[] getBooleans(final UTF8String key) {
+        var value = this.get(key);
+        if (value != null && !value.isNull()) {
+            return value.toBooleans();
+        }
+
+        return new boolean[0];
+    }
+
+    /**
+     * Creates an accessor over the key/value entries of a profile, entries in Spark's unsafe format are read in place
+     * by an {@link UnsafeArrayDataAccessor}.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param entries the key/value entries of the profile
+     * @return the accessor
+     */
     static TraitAccessor forArrayData(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ArrayData entries) {
+        if (entries instanceof UnsafeArrayData unsafe) {
+            return new UnsafeArrayDataAccessor(fieldTypes, unsafe);
+        }
+
         return new CachedArrayDataAccessor(fieldTypes, entries);
     }
 
-    static TraitAccessor forParquetFiles(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final FileSystem fs, final String path) {
-        return null;
+    /**
+     * Creates an accessor rebound to each profile of a partition with
+     * {@link ReusableArrayDataAccessor#reset(ArrayData)}, so that one accessor per thread serves every profile.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @return the accessor, bound to an empty profile
+     */
+    static ReusableArrayDataAccessor forPartition(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes) {
+        return new ReusableArrayDataAccessor(fieldTypes);
+    }
+
+    /**
+     * Reads the profiles of an in-memory Arrow trait column, see {@link ArrowTraitBatch}.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param vector a {@code MAP<STRING, STRING>} or {@code LIST<STRUCT<key: STRING, value: STRING>>} column
+     * @return the batch
+     */
+    static ArrowTraitBatch forArrowVector(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ListVector vector) {
+        return new ArrowTraitBatch(fieldTypes, vector);
+    }
+
+    /**
+     * Streams the record batches of an Arrow IPC file, see {@link ArrowTraitReader}.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param path the Arrow IPC file
+     * @param column the trait column, or null to use the first column holding key/value string entries
+     * @return the reader, positioned before the first batch
+     */
+    static ArrowTraitReader forArrowFile(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final String path, final String column) {
+        try {
+            return new ArrowTraitReader(fieldTypes, java.nio.file.Path.of(path), column);
+        } catch (final IOException exception) {
+            throw new UncheckedIOException("Error opening arrow file: " + path, exception);
+        }
     }
+
+    /**
+     * Streams the profiles stored in Parquet files, see {@link ParquetTraitReader}.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param fs the file system holding the files
+     * @param path a Parquet file or a directory of Parquet files
+     * @return the reader, positioned before the first profile
+     */
+    static ParquetTraitReader forParquetFiles(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final FileSystem fs, final String path) {
+        return forParquetFiles(fieldTypes, fs, path, (Set<UTF8String>) null);
+    }
+
+    /**
+     * Streams the profiles stored in Parquet files, decoding only the given traits.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param fs the file system holding the files
+     * @param path a Parquet file or a directory of Parquet files
+     * @param keys the traits to decode, or null to decode every trait
+     * @return the reader, positioned before the first profile
+     */
+    static ParquetTraitReader forParquetFiles(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                                              final FileSystem fs,
+                                              final String path,
+                                              final Set<UTF8String> keys) {
+
+        try {
+            return new ParquetTraitReader(fieldTypes, fs, new Path(path), keys);
+        } catch (final IOException exception) {
+            throw new UncheckedIOException("Error opening parquet files: " + path, exception);
+        }
+    }
+
+    /**
+     * Streams the profiles stored in Parquet files that may match an expression of the program.
+     * Only the traits of the program are decoded, and row groups where no expression can match are skipped.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param fs the file system holding the files
+     * @param path a Parquet file or a directory of Parquet files
+     * @param program the program the profiles are evaluated with
+     * @return the reader, positioned before the first profile
+     */
+    static ParquetTraitReader forParquetFiles(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                                              final FileSystem fs,
+                                              final String path,
+                                              final Program program) {
+
+        try {
+            return new ParquetTraitReader(fieldTypes, fs, new Path(path), program);
+        } catch (final IOException exception) {
+            throw new UncheckedIOException("Error opening parquet files: " + path, exception);
+        }
+    }
+
 }
@@ -0,0 +1,159 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.StringArrayValue;
+import io.exsql.s3xty.value.StringValue;
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import org.apache.spark.unsafe.types.UTF8String;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interns the values of low-cardinality string traits, such as a country or a device, to integer ids.
+ * <p>
+ * A {@link TraitLayout} created with a dictionary interns the values of its string traits when a profile is decoded,
+ * and {@link Compiler#compile(org.apache.spark.sql.types.StructType, String[], TraitDictionary)} interns the constants
+ * of {@code trait-eq}, {@code trait-ne} and {@code trait-in}. The VM then compares ids instead of bytes, and tests the
+ * membership of a {@code trait-in} with a bitmap lookup. Values and constants that are not interned, because the
+ * dictionary is full or the trait is not encoded, are compared byte by byte as usual:
+ * <pre>{@code
+ * var dictionary = new TraitDictionary(Set.of(UTF8String.fromString("country")), 1024);
+ * var layout = TraitLayout.of(fieldTypes, keys, dictionary);
+ * var program = Compiler.compile(schema, expressions, dictionary);
+ * }</pre>
+ * Ids are only meaningful within the process: they are not serialized with a program, which falls back to byte
+ * comparisons once deserialized. Interning is thread-safe and the strings of the dictionary are never released.
+ */
+public final class TraitDictionary {
+
+    private static final AtomicInteger DICTIONARIES = new AtomicInteger();
+
+    private final int number = DICTIONARIES.incrementAndGet();
+
+    private final Set<UTF8String> traits;
+    private final int capacity;
+
+    private final ConcurrentHashMap<UTF8String, StringValue> ids = new ConcurrentHashMap<>();
+
+    // grown under the lock, the volatile write publishes the strings of every index handed out
+    private volatile StringValue[] values = new StringValue[16];
+    private int size = 0;
+
+    /**
+     * Creates a dictionary encoding every string trait.
+     *
+     * @param capacity the maximum number of strings to intern
+     */
+    public TraitDictionary(final int capacity) {
+        this(null, capacity);
+    }
+
+    /**
+     * Creates a dictionary encoding the given string traits.
+     *
+     * @param traits the traits to encode, or null to encode every string trait
+     * @param capacity the maximum number of strings to intern
+     * @throws IllegalArgumentException if the capacity is negative
+     */
+    public TraitDictionary(final Set<UTF8String> traits, final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+        }
+
+        this.traits = traits == null ? null : new ObjectOpenHashSet<>(traits);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Checks whether the values of a trait are encoded.
+     *
+     * @param key the trait
+     * @return true if the values of the trait are interned
+     */
+    public boolean encodes(final UTF8String key) {
+        return this.traits == null || this.traits.contains(key);
+    }
+
+    /**
+     * Interns a string.
+     *
+     * @param string the string, its bytes are copied when first interned
+     * @return the shared value of the string with its id, or a value without id if the dictionary is full
+     */
+    public StringValue encode(final UTF8String string) {
+        var value = this.ids.get(string);
+        if (value != null) {
+            return value;
+        }
+
+        synchronized (this) {
+            value = this.ids.get(string);
+            if (value != null) {
+                return value;
+            }
+
+            if (this.size == this.capacity) {
+                return Value.stringValue(string);
+            }
+
+            var copy = string.copy();
+            value = new StringValue(copy, false, ((long) this.number << 32) | this.size);
+
+            var values = this.values;
+            if (this.size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[this.size++] = value;
+            this.values = values;
+            this.ids.put(copy, value);
+            return value;
+        }
+    }
+
+    /**
+     * Interns the strings of a list and attaches the bitmap of their indexes to it.
+     *
+     * @param strings the list
+     * @return the list with its bitmap, or the given list if one of its strings cannot be interned
+     */
+    StringArrayValue encode(final StringArrayValue strings) {
+        var members = new long[0];
+        for (var string: strings.wrapped()) {
+            var id = this.encode(string).id();
+            if (id < 0) {
+                return strings;
+            }
+
+            var word = (int) id >>> 6;
+            if (word >= members.length) {
+                members = Arrays.copyOf(members, word + 1);
+            }
+            members[word] |= 1L << id;
+        }
+
+        return new StringArrayValue(strings.wrapped(), this.number, members);
+    }
+
+    /**
+     * Returns the value of an interned string.
+     *
+     * @param index the index of the string, the lower 32 bits of its id
+     * @return the shared value of the string
+     */
+    StringValue value(final int index) {
+        return this.values[index];
+    }
+
+    /**
+     * Returns the number of interned strings.
+     *
+     * @return the number of strings
+     */
+    public int size() {
+        return this.ids.size();
+    }
+
+}
@@ -0,0 +1,205 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.unsafe.types.UTF8String;
+
+/**
+ * Assigns a slot to every trait a {@link DecodedTraits} record can hold.
+ * <p>
+ * Every slot has a bit in the presence bitmap of a record, and an index in the typed storage of its declared type:
+ * a {@code long[]} for long traits, a {@code double[]} for double traits, a bitmap for boolean traits and a
+ * {@code Value[]} for strings and arrays. A layout is immutable and shared by every record decoded with it.
+ * <p>
+ * A layout created with a {@link TraitDictionary} interns the values of the string traits the dictionary encodes.
+ */
+public final class TraitLayout {
+
+    static final byte LONG = 0;
+    static final byte DOUBLE = 1;
+    static final byte BOOLEAN = 2;
+    static final byte VALUE = 3;
+
+    // the representations of the values of VALUE slots
+    static final byte STRING = 0;
+    static final byte LONG_ARRAY = 1;
+    static final byte DOUBLE_ARRAY = 2;
+    static final byte BOOLEAN_ARRAY = 3;
+    static final byte STRING_ARRAY = 4;
+
+    private final Object2IntOpenHashMap<UTF8String> slots = new Object2IntOpenHashMap<>();
+    private final UTF8String[] keys;
+    private final DataType[] types;
+    private final byte[] kinds;
+    private final byte[] valueKinds;
+    private final int[] indexes;
+    private final int[] counts = new int[4];
+    private final TraitDictionary dictionary;
+    private final boolean[] encoded;
+
+    private TraitLayout(final UTF8String[] keys, final DataType[] types, final TraitDictionary dictionary) {
+        this.slots.defaultReturnValue(-1);
+        this.keys = keys;
+        this.types = types;
+        this.kinds = new byte[keys.length];
+        this.valueKinds = new byte[keys.length];
+        this.indexes = new int[keys.length];
+        this.dictionary = dictionary;
+        this.encoded = new boolean[keys.length];
+
+        for (var slot = 0; slot < keys.length; slot++) {
+            this.slots.put(keys[slot], slot);
+
+            var type = types[slot];
+            if (type == DataTypes.LongType) {
+                this.kinds[slot] = LONG;
+            } else if (type == DataTypes.DoubleType) {
+                this.kinds[slot] = DOUBLE;
+            } else if (type == DataTypes.BooleanType) {
+                this.kinds[slot] = BOOLEAN;
+            } else {
+                this.kinds[slot] = VALUE;
+                this.valueKinds[slot] = valueKind(type);
+            }
+            this.indexes[slot] = this.counts[this.kinds[slot]]++;
+            this.encoded[slot] = dictionary != null && type == DataTypes.StringType && dictionary.encodes(keys[slot]);
+        }
+    }
+
+    private static byte valueKind(final DataType type) {
+        if (type.sameType(CachedArrayDataAccessor.LONG_ARRAY_TYPE)) {
+            return LONG_ARRAY;
+        } else if (type.sameType(CachedArrayDataAccessor.DOUBLE_ARRAY_TYPE)) {
+            return DOUBLE_ARRAY;
+        } else if (type.sameType(CachedArrayDataAccessor.BOOLEAN_ARRAY_TYPE)) {
+            return BOOLEAN_ARRAY;
+        } else if (type.sameType(CachedArrayDataAccessor.STRING_ARRAY_TYPE)) {
+            return STRING_ARRAY;
+        }
+
+        return STRING;
+    }
+
+    /**
+     * Creates a layout holding the declared traits and the given ones, undeclared traits are strings.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param keys additional traits, may be null
+     * @return the layout
+     */
+    public static TraitLayout of(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final Iterable<UTF8String> keys) {
+        return of(fieldTypes, keys, null);
+    }
+
+    /**
+     * Creates a layout holding the declared traits and the given ones, interning the string values the dictionary
+     * encodes.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param keys additional traits, may be null
+     * @param dictionary the dictionary to intern string values with, or null to keep them as decoded
+     * @return the layout
+     */
+    public static TraitLayout of(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes,
+                                 final Iterable<UTF8String> keys,
+                                 final TraitDictionary dictionary) {
+
+        var slots = new ObjectLinkedOpenHashSet<>(fieldTypes.keySet());
+        if (keys != null) {
+            for (var key: keys) {
+                slots.add(key);
+            }
+        }
+
+        var layout = slots.toArray(new UTF8String[0]);
+        var types = new DataType[layout.length];
+        for (var slot = 0; slot < types.length; slot++) {
+            types[slot] = fieldTypes.getOrDefault(layout[slot], DataTypes.StringType);
+        }
+
+        return new TraitLayout(layout, types, dictionary);
+    }
+
+    /**
+     * Decodes the traits of a profile, entries of traits the layout does not hold are left out.
+     *
+     * @param entries the key/value entries of the profile
+     * @return the decoded record
+     * @throws IllegalArgumentException if a value does not decode to the declared type of its trait
+     */
+    public DecodedTraits decode(final ArrayData entries) {
+        return new DecodedTraits(this, entries);
+    }
+
+    /**
+     * Returns the slot of a trait.
+     *
+     * @param key the trait
+     * @return the slot, or -1 if the layout does not hold the trait
+     */
+    public int slot(final UTF8String key) {
+        return this.slots.getInt(key);
+    }
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return the number of slots
+     */
+    public int size() {
+        return this.keys.length;
+    }
+
+    /**
+     * Returns the dictionary string values are interned with.
+     *
+     * @return the dictionary, or null
+     */
+    public TraitDictionary dictionary() {
+        return this.dictionary;
+    }
+
+    // decodes the value of a string or array trait, interning it if the slot is encoded
+    Value decode(final int slot, final UTF8String raw) {
+        if (this.encoded[slot]) {
+            return this.dictionary.encode(raw);
+        }
+
+        return CachedArrayDataAccessor.decode(this.types[slot], raw);
+    }
+
+    boolean encoded(final int slot) {
+        return this.encoded[slot];
+    }
+
+    UTF8String key(final int slot) {
+        return this.keys[slot];
+    }
+
+    DataType type(final int slot) {
+        return this.types[slot];
+    }
+
+    byte kind(final int slot) {
+        return this.kinds[slot];
+    }
+
+    // the representation of the values of a VALUE slot, classified once instead of comparing types on every access
+    byte valueKind(final int slot) {
+        return this.valueKinds[slot];
+    }
+
+    int index(final int slot) {
+        return this.indexes[slot];
+    }
+
+    int count(final byte kind) {
+        return this.counts[kind];
+    }
+
+}
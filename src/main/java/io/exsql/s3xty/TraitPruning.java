@@ -0,0 +1,62 @@
+package io.exsql.s3xty;
+
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.expressions.GetStructField;
+import scala.Option;
+
+import static org.apache.spark.sql.functions.filter;
+
+/**
+ * Drops the trait entries a program does not read from an {@code ARRAY<STRUCT<key: STRING, value: STRING>>} column.
+ * <p>
+ * Profiles usually carry many more traits than a program references. Pruning them right after the scan, before any
+ * shuffle, cache or evaluation, shrinks every later stage and the number of entries the accessors search, without
+ * changing the results of the program. The pruning is a plain Catalyst {@code filter} over the array, so that it is
+ * code generated with the rest of the stage.
+ * <pre>{@code
+ * var pruned = TraitPruning.prune(profiles, "traits", program).repartition(col("id"));
+ * }</pre>
+ */
+public final class TraitPruning {
+
+    private TraitPruning() {}
+
+    /**
+     * Creates a column holding only the trait entries a program reads.
+     *
+     * @param traits the trait column
+     * @param program the program
+     * @return the pruned trait column, null when the trait column is
+     */
+    public static Column prune(final Column traits, final Program program) {
+        var keys = program.referencedTraits().keySet().stream().map(Object::toString).toArray();
+
+        // the key is the first field of the entries whatever its name, as the accessors read it
+        return filter(traits, entry -> new Column(new GetStructField(entry.expr(), 0, Option.empty())).isin(keys));
+    }
+
+    /**
+     * Replaces a trait column of a dataset by the trait entries a program reads.
+     *
+     * @param profiles the profiles
+     * @param column the trait column of the profiles
+     * @param program the program
+     * @return the profiles with their pruned trait column
+     * @throws IllegalArgumentException if the trait column is missing or does not hold key/value string entries
+     */
+    public static Dataset<Row> prune(final Dataset<Row> profiles, final String column, final Program program) {
+        var schema = profiles.schema();
+        if (!schema.getFieldIndex(column).isDefined()) {
+            throw new IllegalArgumentException("Column " + column + " not found in " + schema.simpleString());
+        }
+
+        if (!ProgramExpression.isTraitColumn(schema.apply(column).dataType())) {
+            throw new IllegalArgumentException("Column " + column + " does not hold key/value string entries");
+        }
+
+        return profiles.withColumn(column, prune(profiles.col(column), program));
+    }
+
+}
@@ -0,0 +1,519 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.StringValue;
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.unsafe.Platform;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+
+/**
+ * An off-heap store of decoded profiles, for populations evaluated many times.
+ * <p>
+ * Profiles are decoded once against a {@link TraitLayout} into fixed width records allocated outside of the Java heap,
+ * so that a population of any size costs neither heap nor garbage collection work. A record holds the presence and
+ * null bitmaps of every slot, the long and double traits, the boolean bitmap and, for strings and arrays, a reference
+ * to their bytes in a separate variable length area: strings are stored as their UTF-8 bytes, arrays as their decoded
+ * elements. The strings of slots encoded by the {@link TraitDictionary} of the layout are stored as their id instead,
+ * and read back as the shared value of the dictionary.
+ * <p>
+ * Profiles are appended from any {@link TraitAccessor}, for instance the entries of an {@code ArrayData} or a
+ * {@link ParquetTraitReader}, and read back with a {@link Cursor}, an accessor moved from record to record:
+ * <pre>{@code
+ * try (var store = TraitStore.load(fieldTypes, layout, data)) {
+ *     var cursor = store.cursor();
+ *     while (cursor.next()) {
+ *         vm.reset();
+ *         vm.evaluate(cursor);
+ *     }
+ * }
+ * }</pre>
+ * Appending is not thread-safe and may move the records, so a store no longer accepts profiles once a cursor was
+ * created. From then on it can be read by any number of cursors on any number of threads. Moving a cursor and reading
+ * long, double and boolean traits through the typed getters does not allocate, strings and arrays are returned as new
+ * values. Strings read from the store point to its memory, so they must not be used once the store is closed.
+ */
+public final class TraitStore implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TraitStore.class);
+
+    // a value reference packs the offset of the bytes in the variable area and their length
+    private static final int LENGTH_BITS = 24;
+    private static final long MAX_LENGTH = (1L << LENGTH_BITS) - 1;
+
+    // offsets are far below 2^39, the sign bit flags the reference of an interned string holding its index
+    private static final long INTERNED = Long.MIN_VALUE;
+
+    private final TraitLayout layout;
+
+    private final long nullsOffset;
+    private final long longsOffset;
+    private final long doublesOffset;
+    private final long booleansOffset;
+    private final long valuesOffset;
+    private final long width;
+
+    private long records;
+    private long capacity;
+    private long rows = 0;
+
+    private long heap;
+    private long heapCapacity;
+    private long heapSize = 0;
+
+    private boolean closed = false;
+    private boolean sealed = false;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param layout the traits of the records
+     * @param expectedRows the number of records to allocate room for, the store grows past it
+     */
+    public TraitStore(final TraitLayout layout, final long expectedRows) {
+        this.layout = layout;
+        var words = words(layout.size());
+        this.nullsOffset = (long) words * Long.BYTES;
+        this.longsOffset = this.nullsOffset + (long) words * Long.BYTES;
+        this.doublesOffset = this.longsOffset + (long) layout.count(TraitLayout.LONG) * Long.BYTES;
+        this.booleansOffset = this.doublesOffset + (long) layout.count(TraitLayout.DOUBLE) * Double.BYTES;
+        this.valuesOffset = this.booleansOffset + (long) words(layout.count(TraitLayout.BOOLEAN)) * Long.BYTES;
+        this.width = this.valuesOffset + (long) layout.count(TraitLayout.VALUE) * Long.BYTES;
+
+        this.capacity = Math.max(expectedRows, 16);
+        this.records = Platform.allocateMemory(this.capacity * this.width);
+        this.heapCapacity = layout.count(TraitLayout.VALUE) == 0 ? 0 : this.capacity * 16;
+        this.heap = Platform.allocateMemory(Math.max(this.heapCapacity, 1));
+    }
+
+    /**
+     * Creates a store holding the given profiles.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param layout the traits of the records
+     * @param data the key/value entries of the profiles
+     * @return the store
+     * @throws IllegalArgumentException if a value does not decode to the declared type of its trait
+     */
+    public static TraitStore load(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final TraitLayout layout, final ArrayData[] data) {
+        var store = new TraitStore(layout, data.length);
+        try {
+            for (var entries: data) {
+                store.append(TraitAccessor.forArrayData(fieldTypes, entries));
+            }
+        } catch (final RuntimeException exception) {
+            store.close();
+            throw exception;
+        }
+
+        return store;
+    }
+
+    /**
+     * Appends every remaining profile of a Parquet reader.
+     *
+     * @param reader the reader, it is not closed
+     * @return the number of profiles appended
+     */
+    public long append(final ParquetTraitReader reader) {
+        var appended = 0L;
+        while (reader.next()) {
+            this.append((TraitAccessor) reader);
+            appended++;
+        }
+
+        return appended;
+    }
+
+    /**
+     * Appends a profile, only the traits of the layout are kept.
+     *
+     * @param traits the traits of the profile
+     * @return the index of the record
+     * @throws IllegalArgumentException if a value does not decode to the declared type of its trait
+     * @throws IllegalStateException if the store is closed or a cursor was created
+     */
+    public long append(final TraitAccessor traits) {
+        this.checkOpen();
+        if (this.sealed) {
+            throw new IllegalStateException("Trait store is read by cursors, profiles can no longer be appended");
+        }
+
+        if (this.rows == this.capacity) {
+            var capacity = this.capacity + (this.capacity >> 1);
+            this.records = Platform.reallocateMemory(this.records, this.capacity * this.width, capacity * this.width);
+            this.capacity = capacity;
+        }
+
+        var record = this.records + this.rows * this.width;
+        Platform.setMemory(record, (byte) 0, this.width);
+
+        for (var slot = 0; slot < this.layout.size(); slot++) {
+            var key = this.layout.key(slot);
+            Value value;
+            try {
+                value = traits.get(key);
+            } catch (final NumberFormatException exception) {
+                throw new IllegalArgumentException("Invalid value for trait " + key + " in profile " + this.rows, exception);
+            }
+
+            if (value == null) {
+                continue;
+            }
+
+            set(record, slot);
+            if (value.isNull()) {
+                set(record + this.nullsOffset, slot);
+                continue;
+            }
+
+            var index = this.layout.index(slot);
+            switch (this.layout.kind(slot)) {
+                case TraitLayout.LONG -> Platform.putLong(null, record + this.longsOffset + (long) index * Long.BYTES, value.toLong());
+                case TraitLayout.DOUBLE -> Platform.putDouble(null, record + this.doublesOffset + (long) index * Double.BYTES, value.toDouble());
+                case TraitLayout.BOOLEAN -> {
+                    if (value.toBoolean()) {
+                        set(record + this.booleansOffset, index);
+                    }
+                }
+                default -> Platform.putLong(null, record + this.valuesOffset + (long) index * Long.BYTES, this.write(slot, value));
+            }
+        }
+
+        return this.rows++;
+    }
+
+    /**
+     * Returns the number of records.
+     *
+     * @return the number of records
+     */
+    public long rows() {
+        return this.rows;
+    }
+
+    /**
+     * Returns the number of off-heap bytes used by the records and their variable length values.
+     *
+     * @return the number of bytes
+     */
+    public long bytes() {
+        return this.rows * this.width + this.heapSize;
+    }
+
+    /**
+     * Returns the layout of the records.
+     *
+     * @return the layout
+     */
+    public TraitLayout layout() {
+        return this.layout;
+    }
+
+    /**
+     * Creates a cursor positioned before the first record, no profile can be appended once a cursor was created.
+     *
+     * @return the cursor
+     * @throws IllegalStateException if the store is closed
+     */
+    public Cursor cursor() {
+        this.checkOpen();
+        this.sealed = true;
+        return new Cursor();
+    }
+
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        LOGGER.debug("Releasing {} records ({} bytes)", this.rows, this.bytes());
+        Platform.freeMemory(this.records);
+        Platform.freeMemory(this.heap);
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("Trait store is closed");
+        }
+    }
+
+    // writes the bytes of a string or the elements of an array, returns their reference
+    private long write(final int slot, final Value value) {
+        if (this.layout.encoded(slot) && value instanceof StringValue string) {
+            var interned = this.layout.dictionary().encode(string.wrapped());
+            if (interned.id() >= 0) {
+                return INTERNED | (int) interned.id();
+            }
+        }
+
+        long length;
+        switch (this.layout.valueKind(slot)) {
+            case TraitLayout.LONG_ARRAY -> {
+                var longs = value.toLongs();
+                length = (long) longs.length * Long.BYTES;
+                this.copy(longs, Platform.LONG_ARRAY_OFFSET, length);
+            }
+            case TraitLayout.DOUBLE_ARRAY -> {
+                var doubles = value.toDoubles();
+                length = (long) doubles.length * Double.BYTES;
+                this.copy(doubles, Platform.DOUBLE_ARRAY_OFFSET, length);
+            }
+            case TraitLayout.BOOLEAN_ARRAY -> {
+                var booleans = value.toBooleans();
+                length = booleans.length;
+                this.copy(booleans, Platform.BOOLEAN_ARRAY_OFFSET, length);
+            }
+            case TraitLayout.STRING_ARRAY -> {
+                // every element is prefixed by its length
+                var strings = value.toStrings();
+                length = 0;
+                for (var string: strings) {
+                    length += Integer.BYTES + string.numBytes();
+                }
+
+                var offset = this.reserve(length);
+                var address = this.heap + offset;
+                for (var string: strings) {
+                    Platform.putInt(null, address, string.numBytes());
+                    string.writeToMemory(null, address + Integer.BYTES);
+                    address += Integer.BYTES + string.numBytes();
+                }
+            }
+            default -> {
+                if (!(value instanceof StringValue string)) {
+                    throw new IllegalArgumentException("Unexpected value for a trait of type " + this.layout.type(slot).simpleString() + ": " + value);
+                }
+
+                length = string.wrapped().numBytes();
+                var offset = this.reserve(length);
+                string.wrapped().writeToMemory(null, this.heap + offset);
+            }
+        }
+
+        return reference(this.heapSize - length, length);
+    }
+
+    private void copy(final Object array, final long arrayOffset, final long length) {
+        var offset = this.reserve(length);
+        Platform.copyMemory(array, arrayOffset, null, this.heap + offset, length);
+    }
+
+    private long reserve(final long length) {
+        if (length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Value of " + length + " bytes is too large for a trait store");
+        }
+
+        if (this.heapSize + length > this.heapCapacity) {
+            var capacity = Math.max(this.heapCapacity + (this.heapCapacity >> 1), this.heapSize + length);
+            this.heap = Platform.reallocateMemory(this.heap, this.heapSize, capacity);
+            this.heapCapacity = capacity;
+        }
+
+        var offset = this.heapSize;
+        this.heapSize += length;
+        return offset;
+    }
+
+    private static long reference(final long offset, final long length) {
+        return (offset << LENGTH_BITS) | length;
+    }
+
+    private static int words(final int bits) {
+        return (bits + Long.SIZE - 1) >>> 6;
+    }
+
+    private static boolean isSet(final long address, final int bit) {
+        return (Platform.getLong(null, address + (long) (bit >>> 6) * Long.BYTES) & (1L << bit)) != 0;
+    }
+
+    private static void set(final long address, final int bit) {
+        var word = address + (long) (bit >>> 6) * Long.BYTES;
+        Platform.putLong(null, word, Platform.getLong(null, word) | (1L << bit));
+    }
+
+    /**
+     * An accessor over the records of the store, moved from record to record without allocating. Reading from a
+     * cursor of a closed store throws an {@link IllegalStateException}.
+     * A cursor is not thread-safe, but any number of cursors can read the same store.
+     */
+    public final class Cursor implements TraitAccessor {
+
+        private long row = -1;
+        private long record;
+
+        private Cursor() {}
+
+        /**
+         * Moves to the next record.
+         *
+         * @return true if the cursor is on a record, false past the last one
+         */
+        public boolean next() {
+            if (this.row + 1 >= TraitStore.this.rows) {
+                this.row = TraitStore.this.rows;
+                return false;
+            }
+
+            this.position(this.row + 1);
+            return true;
+        }
+
+        /**
+         * Moves to a record.
+         *
+         * @param row the index of the record
+         * @return this cursor
+         */
+        public Cursor position(final long row) {
+            if (row < 0 || row >= TraitStore.this.rows) {
+                throw new IndexOutOfBoundsException("Row " + row + " is out of the " + TraitStore.this.rows + " records of the store");
+            }
+
+            TraitStore.this.checkOpen();
+            this.row = row;
+            this.record = TraitStore.this.records + row * TraitStore.this.width;
+            return this;
+        }
+
+        /**
+         * Returns the index of the current record.
+         *
+         * @return the index of the record
+         */
+        public long row() {
+            return this.row;
+        }
+
+        @Override
+        public Value get(final UTF8String key) {
+            TraitStore.this.checkOpen();
+            var slot = TraitStore.this.layout.slot(key);
+            if (slot < 0 || !isSet(this.record, slot)) {
+                return null;
+            }
+
+            if (isSet(this.record + TraitStore.this.nullsOffset, slot)) {
+                return Value.nullValue();
+            }
+
+            var index = TraitStore.this.layout.index(slot);
+            return switch (TraitStore.this.layout.kind(slot)) {
+                case TraitLayout.LONG -> Value.longValue(this.longAt(index));
+                case TraitLayout.DOUBLE -> Value.doubleValue(this.doubleAt(index));
+                case TraitLayout.BOOLEAN -> Value.booleanValue(isSet(this.record + TraitStore.this.booleansOffset, index));
+                default -> this.valueAt(slot, index);
+            };
+        }
+
+        @Override
+        public OptionalLong getLong(final UTF8String key) {
+            var slot = this.slot(key, TraitLayout.LONG);
+            if (slot < 0) {
+                return slot == -1 ? OptionalLong.empty() : TraitAccessor.super.getLong(key);
+            }
+
+            return OptionalLong.of(this.longAt(TraitStore.this.layout.index(slot)));
+        }
+
+        @Override
+        public OptionalDouble getDouble(final UTF8String key) {
+            var slot = this.slot(key, TraitLayout.DOUBLE);
+            if (slot < 0) {
+                return slot == -1 ? OptionalDouble.empty() : TraitAccessor.super.getDouble(key);
+            }
+
+            return OptionalDouble.of(this.doubleAt(TraitStore.this.layout.index(slot)));
+        }
+
+        @Override
+        public boolean getBoolean(final UTF8String key) {
+            var slot = this.slot(key, TraitLayout.BOOLEAN);
+            if (slot < 0) {
+                return slot != -1 && TraitAccessor.super.getBoolean(key);
+            }
+
+            return isSet(this.record + TraitStore.this.booleansOffset, TraitStore.this.layout.index(slot));
+        }
+
+        // returns the slot of a trait of the given kind holding a value, -1 if it has none and -2 for other traits
+        private int slot(final UTF8String key, final byte kind) {
+            TraitStore.this.checkOpen();
+            var slot = TraitStore.this.layout.slot(key);
+            if (slot < 0 || TraitStore.this.layout.kind(slot) != kind) {
+                return -2;
+            }
+
+            if (!isSet(this.record, slot) || isSet(this.record + TraitStore.this.nullsOffset, slot)) {
+                return -1;
+            }
+
+            return slot;
+        }
+
+        private long longAt(final int index) {
+            return Platform.getLong(null, this.record + TraitStore.this.longsOffset + (long) index * Long.BYTES);
+        }
+
+        private double doubleAt(final int index) {
+            return Platform.getDouble(null, this.record + TraitStore.this.doublesOffset + (long) index * Double.BYTES);
+        }
+
+        private Value valueAt(final int slot, final int index) {
+            var reference = Platform.getLong(null, this.record + TraitStore.this.valuesOffset + (long) index * Long.BYTES);
+            if ((reference & INTERNED) != 0) {
+                return TraitStore.this.layout.dictionary().value((int) reference);
+            }
+
+            var address = TraitStore.this.heap + (reference >>> LENGTH_BITS);
+            var length = (int) (reference & MAX_LENGTH);
+
+            switch (TraitStore.this.layout.valueKind(slot)) {
+                case TraitLayout.LONG_ARRAY -> {
+                    var longs = new long[length / Long.BYTES];
+                    Platform.copyMemory(null, address, longs, Platform.LONG_ARRAY_OFFSET, length);
+                    return Value.longArrayValue(longs);
+                }
+                case TraitLayout.DOUBLE_ARRAY -> {
+                    var doubles = new double[length / Double.BYTES];
+                    Platform.copyMemory(null, address, doubles, Platform.DOUBLE_ARRAY_OFFSET, length);
+                    return Value.doubleArrayValue(doubles);
+                }
+                case TraitLayout.BOOLEAN_ARRAY -> {
+                    var booleans = new boolean[length];
+                    Platform.copyMemory(null, address, booleans, Platform.BOOLEAN_ARRAY_OFFSET, length);
+                    return Value.booleanArrayValue(booleans);
+                }
+                case TraitLayout.STRING_ARRAY -> {
+                    var count = 0;
+                    for (var position = address; position < address + length; position += Integer.BYTES + Platform.getInt(null, position)) {
+                        count++;
+                    }
+
+                    var strings = new UTF8String[count];
+                    var position = address;
+                    for (var i = 0; i < count; i++) {
+                        var size = Platform.getInt(null, position);
+                        strings[i] = UTF8String.fromAddress(null, position + Integer.BYTES, size);
+                        position += Integer.BYTES + size;
+                    }
+                    return Value.stringArrayValue(strings);
+                }
+                default -> {
+                    return Value.stringValue(UTF8String.fromAddress(null, address, length));
+                }
+            }
+        }
+
+    }
+
+}
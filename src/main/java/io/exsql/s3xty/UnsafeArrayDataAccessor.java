@@ -0,0 +1,209 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import io.exsql.s3xty.value.ValueParser;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.UnsafeArrayData;
+import org.apache.spark.sql.catalyst.expressions.UnsafeRow;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.unsafe.Platform;
+import org.apache.spark.unsafe.array.ByteArrayMethods;
+import org.apache.spark.unsafe.bitset.BitSetMethods;
+import org.apache.spark.unsafe.types.UTF8String;
+
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+
+/**
+ * An accessor reading the key/value entries of a profile straight from the memory of an {@link UnsafeArrayData}.
+ * <p>
+ * Every element of the array is an {@link UnsafeRow} of two string fields: a null bitmap word followed by the
+ * offset and size of the key and of the value, relative to the row. Keys are compared byte for byte where they are
+ * stored, and long, double and boolean traits are parsed from the bytes of their value, without materializing the
+ * {@link UnsafeRow} and {@link UTF8String} wrappers {@link UnsafeArrayData#getStruct(int, int)} would allocate for
+ * every entry. Other traits are decoded to a {@link Value} and cached like {@link CachedArrayDataAccessor} does.
+ * <p>
+ * The entry found for a trait and its parsed long or double value are memoized, so a program reading the same trait
+ * in several expressions scans and parses it once.
+ * <p>
+ * The first entry of a trait wins, entries with a null key are ignored.
+ */
+public final class UnsafeArrayDataAccessor implements TraitAccessor {
+
+    private static final int ROW_BITSET_WIDTH = UnsafeRow.calculateBitSetWidthInBytes(2);
+
+    // the value of a trait the profile holds with a null value, offsets are never negative
+    private static final long NULL_VALUE = -2;
+    private static final long MISSING = -1;
+    private static final long UNKNOWN = -3;
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes;
+
+    // only allocated once a trait is requested as a value, typed lookups do not need it
+    private Object2ObjectOpenHashMap<UTF8String, Value> cache;
+
+    // the result of find for every trait looked up, and the parsed value of long and double traits as raw bits
+    private Object2LongOpenHashMap<UTF8String> fields;
+    private Object2LongOpenHashMap<UTF8String> numbers;
+
+    private final Object base;
+    private final long offset;
+    private final int length;
+    private final long elements;
+
+    public UnsafeArrayDataAccessor(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final UnsafeArrayData entries) {
+        this.fieldTypes = fieldTypes;
+        this.base = entries.getBaseObject();
+        this.offset = entries.getBaseOffset();
+        this.length = entries.numElements();
+        this.elements = this.offset + UnsafeArrayData.calculateHeaderPortionInBytes(this.length);
+    }
+
+    @Override
+    public Value get(final UTF8String key) {
+        if (this.cache == null) {
+            this.cache = new Object2ObjectOpenHashMap<>();
+        }
+
+        var value = this.cache.get(key);
+        if (value != null || this.cache.containsKey(key)) {
+            return value;
+        }
+
+        var field = this.find(key);
+        if (field == NULL_VALUE) {
+            value = Value.nullValue();
+        } else if (field != MISSING) {
+            value = CachedArrayDataAccessor.decode(this.fieldTypes.getOrDefault(key, DataTypes.StringType), this.string(field));
+        }
+
+        this.cache.put(key, value);
+        return value;
+    }
+
+    @Override
+    public OptionalLong getLong(final UTF8String key) {
+        if (this.fieldTypes.get(key) != DataTypes.LongType) {
+            return TraitAccessor.super.getLong(key);
+        }
+
+        if (this.numbers != null && this.numbers.containsKey(key)) {
+            return OptionalLong.of(this.numbers.getLong(key));
+        }
+
+        var field = this.find(key);
+        if (field < 0) {
+            return OptionalLong.empty();
+        }
+
+        // the wrapper points into the array, the bytes are not copied
+        var value = this.string(field).toLongExact();
+        this.numbers().put(key, value);
+        return OptionalLong.of(value);
+    }
+
+    @Override
+    public OptionalDouble getDouble(final UTF8String key) {
+        if (this.fieldTypes.get(key) != DataTypes.DoubleType) {
+            return TraitAccessor.super.getDouble(key);
+        }
+
+        if (this.numbers != null && this.numbers.containsKey(key)) {
+            return OptionalDouble.of(Double.longBitsToDouble(this.numbers.getLong(key)));
+        }
+
+        var field = this.find(key);
+        if (field < 0) {
+            return OptionalDouble.empty();
+        }
+
+        var value = ValueParser.parseDouble(this.string(field));
+        this.numbers().put(key, Double.doubleToRawLongBits(value));
+        return OptionalDouble.of(value);
+    }
+
+    @Override
+    public boolean getBoolean(final UTF8String key) {
+        if (this.fieldTypes.get(key) != DataTypes.BooleanType) {
+            return TraitAccessor.super.getBoolean(key);
+        }
+
+        var field = this.find(key);
+        if (field < 0 || (int) field != 4) {
+            return false;
+        }
+
+        // same as Boolean.parseBoolean, only the four ascii letters of true match ignoring case
+        var address = this.offset + (field >>> 32);
+        return (Platform.getByte(this.base, address) | 0x20) == 't'
+                && (Platform.getByte(this.base, address + 1) | 0x20) == 'r'
+                && (Platform.getByte(this.base, address + 2) | 0x20) == 'u'
+                && (Platform.getByte(this.base, address + 3) | 0x20) == 'e';
+    }
+
+    private Object2LongOpenHashMap<UTF8String> numbers() {
+        if (this.numbers == null) {
+            this.numbers = new Object2LongOpenHashMap<>();
+        }
+
+        return this.numbers;
+    }
+
+    /**
+     * Finds the value of the first entry of a trait, scanning the entries only the first time the trait is looked up.
+     *
+     * @param key the trait
+     * @return the offset of the value relative to the array in the upper 32 bits and its size in the lower 32
+     * bits, {@link #NULL_VALUE} if the value is null or {@link #MISSING} if the profile does not hold the trait
+     */
+    private long find(final UTF8String key) {
+        if (this.fields == null) {
+            this.fields = new Object2LongOpenHashMap<>();
+            this.fields.defaultReturnValue(UNKNOWN);
+        }
+
+        var field = this.fields.getLong(key);
+        if (field == UNKNOWN) {
+            field = this.scan(key);
+            this.fields.put(key, field);
+        }
+
+        return field;
+    }
+
+    private long scan(final UTF8String key) {
+        var size = key.numBytes();
+        for (var i = 0; i < this.length; i++) {
+            if (BitSetMethods.isSet(this.base, this.offset + 8, i)) {
+                continue;
+            }
+
+            var element = Platform.getLong(this.base, this.elements + (long) i * 8);
+            var row = this.offset + (int) (element >> 32);
+            if (BitSetMethods.isSet(this.base, row, 0)) {
+                continue;
+            }
+
+            var keyField = Platform.getLong(this.base, row + ROW_BITSET_WIDTH);
+            if ((int) keyField != size || !ByteArrayMethods.arrayEquals(this.base, row + (int) (keyField >> 32), key.getBaseObject(), key.getBaseOffset(), size)) {
+                continue;
+            }
+
+            if (BitSetMethods.isSet(this.base, row, 1)) {
+                return NULL_VALUE;
+            }
+
+            var valueField = Platform.getLong(this.base, row + ROW_BITSET_WIDTH + 8);
+            return ((row - this.offset + (int) (valueField >> 32)) << 32) | (valueField & 0xFFFFFFFFL);
+        }
+
+        return MISSING;
+    }
+
+    private UTF8String string(final long field) {
+        return UTF8String.fromAddress(this.base, this.offset + (field >>> 32), (int) field);
+    }
+
+}
@@ -3,14 +3,56 @@ package io.exsql.s3xty.value;
 import com.google.re2j.Pattern;
 import org.jetbrains.annotations.NotNull;
 
-public record RegexpValue(Pattern pattern) implements Value {
+/**
+ * A regular expression operand.
+ * The pattern is compiled on first use when the value is created from its source,
+ * which keeps decoding a program cheap when only a few of its regular expressions are ever evaluated.
+ */
+public final class RegexpValue implements Value {
+
+    private final String source;
+    private volatile Pattern pattern;
+
+    public RegexpValue(final Pattern pattern) {
+        this.source = pattern.pattern();
+        this.pattern = pattern;
+    }
+
+    public RegexpValue(final String source) {
+        this.source = source;
+    }
+
+    public String source() {
+        return this.source;
+    }
+
+    public Pattern pattern() {
+        var compiled = this.pattern;
+        if (compiled == null) {
+            compiled = Pattern.compile(this.source);
+            this.pattern = compiled;
+        }
+
+        return compiled;
+    }
+
     public boolean matches(final Value value) {
-        if (value instanceof StringValue) return this.pattern.matches(((StringValue) value).wrapped().getBytes());
+        if (value instanceof StringValue) return this.pattern().matches(((StringValue) value).wrapped().getBytes());
         return false;
     }
 
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof RegexpValue && this.source.equals(((RegexpValue) other).source);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.source.hashCode();
+    }
+
     @Override
     public @NotNull String toString() {
-        return String.format("regexp(%s)", this.pattern.pattern());
+        return String.format("regexp(%s)", this.source);
     }
 }
@@ -5,7 +5,40 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.Arrays;
 
-public record StringArrayValue(UTF8String[] wrapped) implements Value {
+/**
+ * A list of strings.
+ * <p>
+ * A list whose every element is interned by a trait dictionary carries the number of the dictionary and a bitmap of
+ * the indexes of its elements, other lists have a dictionary of 0 and no bitmap.
+ */
+public record StringArrayValue(UTF8String[] wrapped, int dictionary, long[] members) implements Value {
+
+    public StringArrayValue(final UTF8String[] wrapped) {
+        this(wrapped, 0, null);
+    }
+
+    /**
+     * Checks whether an interned string is an element of this list.
+     *
+     * @param id the id of the string
+     * @return true if the string is an element, false if it is not, only meaningful if {@link #encodes(long)}
+     */
+    public boolean containsId(final long id) {
+        var index = (int) id;
+        var word = index >>> 6;
+        return word < this.members.length && (this.members[word] & (1L << index)) != 0;
+    }
+
+    /**
+     * Checks whether the membership of a string can be tested with its id.
+     *
+     * @param id the id of the string
+     * @return true if the list and the string are interned by the same dictionary
+     */
+    public boolean encodes(final long id) {
+        return this.members != null && id >= 0 && (int) (id >>> 32) == this.dictionary;
+    }
+
     @Override
     public long[] toLongs() {
         var result = new long[this.wrapped.length];
@@ -19,7 +52,7 @@ public record StringArrayValue(UTF8String[] wrapped) implements Value {
     public double[] toDoubles() {
         var result = new double[this.wrapped.length];
         for (int i = 0; i < this.wrapped.length; i++) {
-            result[i] = Double.parseDouble(this.wrapped[i].toString());
+            result[i] = ValueParser.parseDouble(this.wrapped[i]);
         }
         return result;
     }
@@ -3,7 +3,19 @@ package io.exsql.s3xty.value;
 import org.apache.spark.unsafe.types.UTF8String;
 import org.jetbrains.annotations.NotNull;
 
-public record StringValue(UTF8String wrapped, boolean lowercase) implements Value {
+/**
+ * A string value.
+ * <p>
+ * Strings interned by a trait dictionary carry its id, the number of the dictionary in the upper 32 bits and the
+ * index of the string in the lower 32 bits, other strings have an id of -1. Two strings with an id from the same
+ * dictionary are equal if and only if their ids are, the id is not part of {@link #equals(Object)}.
+ */
+public record StringValue(UTF8String wrapped, boolean lowercase, long id) implements Value {
+
+    public StringValue(final UTF8String wrapped, final boolean lowercase) {
+        this(wrapped, lowercase, -1);
+    }
+
     @Override
     public long toLong() {
         return this.wrapped.toLongExact();
@@ -11,7 +23,7 @@ public record StringValue(UTF8String wrapped, boolean lowercase) implements Valu
 
     @Override
     public double toDouble() {
-        return Double.parseDouble(this.wrapped.toString());
+        return ValueParser.parseDouble(this.wrapped);
     }
 
     @Override
@@ -23,6 +35,16 @@ public record StringValue(UTF8String wrapped, boolean lowercase) implements Valu
         return new StringValue(this.wrapped.toLowerCase(), true);
     }
 
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof StringValue string && this.lowercase == string.lowercase && this.wrapped.equals(string.wrapped);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.wrapped.hashCode() + Boolean.hashCode(this.lowercase);
+    }
+
     @Override
     public @NotNull String toString() {
         if (lowercase) return String.format("string(lowercase(%s))", this.wrapped);
@@ -80,7 +80,7 @@ public interface Value {
     }
 
     static StringArrayValue stringArrayValue(final UTF8String delimiter, final UTF8String wrapped) {
-        return new StringArrayValue(wrapped.splitSQL(delimiter, 0));
+        return new StringArrayValue(ValueParser.parseStrings(delimiter, wrapped));
     }
 
     static StringArrayValue stringArrayValue(final UTF8String[] wrapped) {
@@ -88,7 +88,7 @@ public interface Value {
     }
 
     static LongArrayValue longArrayValue(final UTF8String delimiter, final UTF8String wrapped) {
-        return new LongArrayValue(new StringArrayValue(wrapped.splitSQL(delimiter, 0)).toLongs());
+        return new LongArrayValue(ValueParser.parseLongs(delimiter, wrapped));
     }
 
     static LongArrayValue longArrayValue(final long[] wrapped) {
@@ -96,7 +96,7 @@ public interface Value {
     }
 
     static DoubleArrayValue doubleArrayValue(final UTF8String delimiter, final UTF8String wrapped) {
-        return new DoubleArrayValue(new StringArrayValue(wrapped.splitSQL(delimiter, 0)).toDoubles());
+        return new DoubleArrayValue(ValueParser.parseDoubles(delimiter, wrapped));
     }
 
     static DoubleArrayValue doubleArrayValue(final double[] wrapped) {
@@ -104,7 +104,7 @@ public interface Value {
     }
 
     static BooleanArrayValue booleanArrayValue(final UTF8String delimiter, final UTF8String wrapped) {
-        return new BooleanArrayValue(new StringArrayValue(wrapped.splitSQL(delimiter, 0)).toBooleans());
+        return new BooleanArrayValue(ValueParser.parseBooleans(delimiter, wrapped));
     }
 
     static BooleanArrayValue booleanArrayValue(final boolean[] wrapped) {
@@ -0,0 +1,282 @@
+package io.exsql.s3xty.value;
+
+import org.apache.spark.unsafe.Platform;
+import org.apache.spark.unsafe.array.ByteArrayMethods;
+import org.apache.spark.unsafe.types.UTF8String;
+
+/**
+ * Parses trait values from their UTF-8 bytes.
+ * <p>
+ * Delimited lists are scanned once for their delimiters to size the result, then every element is parsed where it
+ * is stored and written straight into a primitive array: no intermediate {@code UTF8String[]}, {@link String} or
+ * boxed value is created. The results are those of {@code splitSQL} followed by {@link UTF8String#toLongExact()},
+ * {@link Double#parseDouble(String)} or {@link Boolean#parseBoolean(String)}, including the exceptions thrown on
+ * invalid elements: anything the fast paths do not recognize is handed to those methods.
+ */
+public final class ValueParser {
+
+    // every power of ten up to 10^22 is exact, and so is the product or quotient of a mantissa below 2^53 by one
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private ValueParser() {}
+
+    /**
+     * Splits a delimited list of strings.
+     *
+     * @param delimiter the delimiter of the elements
+     * @param wrapped the list
+     * @return the elements, sharing a copy of the bytes of the list
+     */
+    public static UTF8String[] parseStrings(final UTF8String delimiter, final UTF8String wrapped) {
+        if (delimiter.numBytes() == 0) {
+            return new UTF8String[] {wrapped};
+        }
+
+        var bytes = new byte[wrapped.numBytes()];
+        wrapped.writeToMemory(bytes, Platform.BYTE_ARRAY_OFFSET);
+        var strings = new UTF8String[count(delimiter, bytes, Platform.BYTE_ARRAY_OFFSET, bytes.length)];
+        var start = 0;
+        for (var i = 0; i < strings.length; i++) {
+            var end = next(delimiter, bytes, Platform.BYTE_ARRAY_OFFSET, start, bytes.length);
+            strings[i] = UTF8String.fromBytes(bytes, start, end - start);
+            start = end + delimiter.numBytes();
+        }
+
+        return strings;
+    }
+
+    /**
+     * Parses a delimited list of longs.
+     *
+     * @param delimiter the delimiter of the elements
+     * @param wrapped the list
+     * @return the elements
+     * @throws NumberFormatException if an element is not a long
+     */
+    public static long[] parseLongs(final UTF8String delimiter, final UTF8String wrapped) {
+        if (delimiter.numBytes() == 0) {
+            return new long[] {wrapped.toLongExact()};
+        }
+
+        var base = wrapped.getBaseObject();
+        var offset = wrapped.getBaseOffset();
+        var length = wrapped.numBytes();
+        var longs = new long[count(delimiter, base, offset, length)];
+        var start = 0;
+        for (var i = 0; i < longs.length; i++) {
+            var end = next(delimiter, base, offset, start, length);
+            longs[i] = parseLong(base, offset + start, end - start);
+            start = end + delimiter.numBytes();
+        }
+
+        return longs;
+    }
+
+    /**
+     * Parses a delimited list of doubles.
+     *
+     * @param delimiter the delimiter of the elements
+     * @param wrapped the list
+     * @return the elements
+     * @throws NumberFormatException if an element is not a double
+     */
+    public static double[] parseDoubles(final UTF8String delimiter, final UTF8String wrapped) {
+        if (delimiter.numBytes() == 0) {
+            return new double[] {parseDouble(wrapped)};
+        }
+
+        var base = wrapped.getBaseObject();
+        var offset = wrapped.getBaseOffset();
+        var length = wrapped.numBytes();
+        var doubles = new double[count(delimiter, base, offset, length)];
+        var start = 0;
+        for (var i = 0; i < doubles.length; i++) {
+            var end = next(delimiter, base, offset, start, length);
+            doubles[i] = parseDouble(base, offset + start, end - start);
+            start = end + delimiter.numBytes();
+        }
+
+        return doubles;
+    }
+
+    /**
+     * Parses a delimited list of booleans, every element other than {@code true} in any case is false.
+     *
+     * @param delimiter the delimiter of the elements
+     * @param wrapped the list
+     * @return the elements
+     */
+    public static boolean[] parseBooleans(final UTF8String delimiter, final UTF8String wrapped) {
+        if (delimiter.numBytes() == 0) {
+            return new boolean[] {parseBoolean(wrapped.getBaseObject(), wrapped.getBaseOffset(), wrapped.numBytes())};
+        }
+
+        var base = wrapped.getBaseObject();
+        var offset = wrapped.getBaseOffset();
+        var length = wrapped.numBytes();
+        var booleans = new boolean[count(delimiter, base, offset, length)];
+        var start = 0;
+        for (var i = 0; i < booleans.length; i++) {
+            var end = next(delimiter, base, offset, start, length);
+            booleans[i] = parseBoolean(base, offset + start, end - start);
+            start = end + delimiter.numBytes();
+        }
+
+        return booleans;
+    }
+
+    /**
+     * Parses a double, as {@link Double#parseDouble(String)} would.
+     *
+     * @param wrapped the double
+     * @return the double
+     * @throws NumberFormatException if the string is not a double
+     */
+    public static double parseDouble(final UTF8String wrapped) {
+        return parseDouble(wrapped.getBaseObject(), wrapped.getBaseOffset(), wrapped.numBytes());
+    }
+
+    // the number of elements, an empty list holds one empty element like with splitSQL
+    private static int count(final UTF8String delimiter, final Object base, final long offset, final int length) {
+        var count = 1;
+        var position = next(delimiter, base, offset, 0, length);
+        while (position < length) {
+            count++;
+            position = next(delimiter, base, offset, position + delimiter.numBytes(), length);
+        }
+
+        return count;
+    }
+
+    // the position of the next delimiter from start, or length if there is none
+    private static int next(final UTF8String delimiter, final Object base, final long offset, final int start, final int length) {
+        var size = delimiter.numBytes();
+        var first = Platform.getByte(delimiter.getBaseObject(), delimiter.getBaseOffset());
+        for (var position = start; position <= length - size; position++) {
+            if (Platform.getByte(base, offset + position) != first) {
+                continue;
+            }
+
+            if (size == 1 || ByteArrayMethods.arrayEquals(base, offset + position, delimiter.getBaseObject(), delimiter.getBaseOffset(), size)) {
+                return position;
+            }
+        }
+
+        return length;
+    }
+
+    // same as UTF8String.toLongExact, which reports the elements this does not parse
+    private static long parseLong(final Object base, final long offset, final int length) {
+        var start = 0;
+        var end = length;
+        while (start < end && isWhitespaceOrISOControl(Platform.getByte(base, offset + start))) {
+            start++;
+        }
+        while (end > start && isWhitespaceOrISOControl(Platform.getByte(base, offset + end - 1))) {
+            end--;
+        }
+
+        var negative = false;
+        if (start < end) {
+            var sign = Platform.getByte(base, offset + start);
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                start++;
+            }
+        }
+
+        // accumulated negatively so that Long.MIN_VALUE parses, and at most 18 digits so that it never overflows
+        if (start == end || end - start > 18) {
+            return UTF8String.fromAddress(base, offset, length).toLongExact();
+        }
+
+        var result = 0L;
+        for (var position = start; position < end; position++) {
+            var digit = Platform.getByte(base, offset + position) - '0';
+            if (digit < 0 || digit > 9) {
+                return UTF8String.fromAddress(base, offset, length).toLongExact();
+            }
+            result = result * 10 - digit;
+        }
+
+        return negative ? result : -result;
+    }
+
+    // decimals with at most 15 significant digits and no exponent are computed exactly, as Clinger's fast path does
+    private static double parseDouble(final Object base, final long offset, final int length) {
+        // Double.parseDouble trims the characters up to the space
+        var start = 0;
+        var end = length;
+        while (start < end && (Platform.getByte(base, offset + start) & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (Platform.getByte(base, offset + end - 1) & 0xff) <= ' ') {
+            end--;
+        }
+
+        var position = start;
+        var negative = false;
+        if (position < end) {
+            var sign = Platform.getByte(base, offset + position);
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                position++;
+            }
+        }
+
+        var mantissa = 0L;
+        var digits = 0;
+        var significant = 0;
+        var exponent = 0;
+        var fraction = false;
+        for (; position < end; position++) {
+            var current = Platform.getByte(base, offset + position);
+            if (current == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+
+            var digit = current - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+
+            digits++;
+            mantissa = mantissa * 10 + digit;
+            if (mantissa != 0 && ++significant > 15) {
+                break;
+            }
+
+            if (fraction) {
+                exponent--;
+            }
+        }
+
+        // exponents, special values, type suffixes and long mantissas
+        if (position != end || digits == 0 || mantissa >= MAX_EXACT_MANTISSA || exponent < -22) {
+            return Double.parseDouble(UTF8String.fromAddress(base, offset, length).toString());
+        }
+
+        var value = exponent == 0 ? (double) mantissa : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    // same as Boolean.parseBoolean, only the four ascii letters of true match ignoring case
+    private static boolean parseBoolean(final Object base, final long offset, final int length) {
+        return length == 4
+                && (Platform.getByte(base, offset) | 0x20) == 't'
+                && (Platform.getByte(base, offset + 1) | 0x20) == 'r'
+                && (Platform.getByte(base, offset + 2) | 0x20) == 'u'
+                && (Platform.getByte(base, offset + 3) | 0x20) == 'e';
+    }
+
+    private static boolean isWhitespaceOrISOControl(final byte b) {
+        return Character.isWhitespace(b) || Character.isISOControl(b);
+    }
+
+}
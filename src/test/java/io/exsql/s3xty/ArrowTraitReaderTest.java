@@ -0,0 +1,153 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.complex.MapVector;
+import org.apache.arrow.vector.complex.StructVector;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static io.exsql.s3xty.TraitFixtures.decoded;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArrowTraitReaderTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final String[] expressions = {
+            "(or (trait-gt \"long\" \"50\") (trait-lt \"double\" \"1.0\"))",
+            "(and (trait-eq \"boolean\" \"true\") (trait-exists \"string\"))",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\"))",
+            "(not (trait-exists \"long\"))"
+    };
+
+    private final ArrayData[] records = RecordGenerator.generate(1500);
+
+    // profiles divisible by 97 are null and the values of profiles divisible by 13 are null
+    private void fill(final ListVector vector, final int from, final int to) {
+        var entries = (StructVector) vector.getDataVector();
+        var keys = entries.addOrGet(ArrowTraitBatch.KEY_FIELD, FieldType.notNullable(ArrowType.Utf8.INSTANCE), VarCharVector.class);
+        var values = entries.addOrGet(ArrowTraitBatch.VALUE_FIELD, FieldType.nullable(ArrowType.Utf8.INSTANCE), VarCharVector.class);
+        vector.allocateNew();
+
+        var entry = 0;
+        for (var i = from; i < to; i++) {
+            var row = i - from;
+            if (i % 97 == 0) {
+                vector.setNull(row);
+                continue;
+            }
+
+            vector.startNewValue(row);
+            var profile = this.records[i];
+            for (var j = 0; j < profile.numElements(); j++, entry++) {
+                var struct = profile.getStruct(j, 2);
+                entries.setIndexDefined(entry);
+                keys.setSafe(entry, struct.getUTF8String(0).getBytes());
+                if (i % 13 == 0) {
+                    values.setNull(entry);
+                } else {
+                    values.setSafe(entry, struct.getUTF8String(1).getBytes());
+                }
+            }
+            vector.endValue(row, profile.numElements());
+        }
+
+        entries.setValueCount(entry);
+        vector.setValueCount(to - from);
+    }
+
+    private TraitAccessor expected(final int i) {
+        return decoded(fieldTypes, i % 97 != 0 ? this.records[i] : ArrayData.toArrayData(new Object[0]), i % 13 != 0);
+    }
+
+    private void verifyBitmaps(final long[][] bitmaps, final int from, final int to) {
+        assertEquals(expressions.length, bitmaps.length);
+
+        var vm = new SExpressionVM(environment, Compiler.compile(schema, expressions));
+        for (var i = from; i < to; i++) {
+            vm.reset();
+            vm.evaluate(expected(i));
+            var row = i - from;
+            for (var expression = 0; expression < expressions.length; expression++) {
+                assertEquals(vm.results()[expression], (bitmaps[expression][row >>> 6] & (1L << row)) != 0, "profile " + i);
+            }
+        }
+    }
+
+    @Test
+    void verifyMapVectorInMemory() {
+        try (var allocator = new RootAllocator(); var vector = MapVector.empty("traits", allocator, false)) {
+            vector.addOrGetVector(FieldType.notNullable(ArrowType.Struct.INSTANCE));
+            fill(vector, 0, this.records.length);
+
+            var batch = TraitAccessor.forArrowVector(fieldTypes, vector);
+            assertEquals(this.records.length, batch.rows());
+            verifyBitmaps(batch.evaluate(new SExpressionVM(environment, Compiler.compile(schema, expressions))), 0, this.records.length);
+
+            // the batch is also the accessor of its current profile
+            batch.position(1);
+            assertEquals(expected(1).get(UTF8String.fromString("long")), batch.get(UTF8String.fromString("long")));
+            assertEquals(expected(1).get(UTF8String.fromString("string")), batch.get(UTF8String.fromString("string")));
+            assertThrows(IndexOutOfBoundsException.class, () -> batch.position(this.records.length));
+        }
+    }
+
+    @Test
+    void verifyListOfStructsAcrossRecordBatches(@TempDir final Path directory) throws IOException {
+        var file = directory.resolve("profiles.arrow");
+        var batches = List.of(new int[] {0, 1000}, new int[] {1000, this.records.length});
+        try (var allocator = new RootAllocator(); var vector = ListVector.empty("traits", allocator)) {
+            vector.addOrGetVector(FieldType.nullable(ArrowType.Struct.INSTANCE));
+            fill(vector, 0, 0);
+
+            try (var root = new VectorSchemaRoot(List.of(vector));
+                 var writer = new ArrowFileWriter(root, null, FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))) {
+                writer.start();
+                for (var range: batches) {
+                    fill(vector, range[0], range[1]);
+                    root.setRowCount(range[1] - range[0]);
+                    writer.writeBatch();
+                }
+                writer.end();
+            }
+        }
+
+        var vm = new SExpressionVM(environment, Compiler.compile(schema, expressions));
+        try (var reader = TraitAccessor.forArrowFile(fieldTypes, file.toString(), null)) {
+            for (var range: batches) {
+                assertTrue(reader.next());
+                assertEquals(range[1] - range[0], reader.batch().rows());
+                verifyBitmaps(reader.batch().evaluate(vm), range[0], range[1]);
+            }
+            assertFalse(reader.next());
+            assertThrows(IllegalStateException.class, reader::batch);
+        }
+
+        try (var reader = TraitAccessor.forArrowFile(fieldTypes, file.toString(), "profiles")) {
+            assertThrows(IllegalArgumentException.class, reader::next);
+        }
+    }
+
+}
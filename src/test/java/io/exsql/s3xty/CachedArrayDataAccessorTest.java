@@ -0,0 +1,75 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.expressions.UnsafeProjection;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import static io.exsql.s3xty.TraitFixtures.entry;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachedArrayDataAccessorTest {
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    @Test
+    void verifyLookupsInAnyOrder() {
+        var accessor = TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                entry("string", "hello"),
+                entry("boolean", "true"),
+                entry("double", null),
+                entry("long", "42"),
+                entry("long", "43")
+        }));
+
+        assertEquals(42L, accessor.getLong(UTF8String.fromString("long")).orElseThrow());
+        assertNull(accessor.get(UTF8String.fromString("missing")));
+        assertTrue(accessor.getBoolean(UTF8String.fromString("boolean")));
+        assertEquals(Value.stringValue(UTF8String.fromString("hello")), accessor.get(UTF8String.fromString("string")));
+        assertEquals(Value.nullValue(), accessor.get(UTF8String.fromString("double")));
+        assertNull(accessor.get(UTF8String.fromString("missing")));
+        assertEquals(Value.longValue(42), accessor.get(UTF8String.fromString("long")));
+    }
+
+    @Test
+    void verifyLookupsOverUnsafeEntries() {
+        var projection = UnsafeProjection.create(StructType.fromDDL("traits ARRAY<STRUCT<key: STRING, value: STRING>>"));
+        var entries = projection.apply(new GenericInternalRow(new Object[] {ArrayData.toArrayData(new InternalRow[] {
+                entry("string", "hello"),
+                null,
+                entry(null, "orphan"),
+                entry("double", null),
+                entry("long", "42"),
+                entry("long", "43")
+        })})).getArray(0).copy();
+
+        // the keys scanned past while looking up the last trait are found without scanning again
+        var accessor = new CachedArrayDataAccessor(fieldTypes, entries);
+        assertEquals(Value.longValue(42), accessor.get(UTF8String.fromString("long")));
+        assertEquals(Value.stringValue(UTF8String.fromString("hello")), accessor.get(UTF8String.fromString("string")));
+        assertEquals(Value.nullValue(), accessor.get(UTF8String.fromString("double")));
+        assertNull(accessor.get(UTF8String.fromString("missing")));
+        assertNull(accessor.get(UTF8String.fromString("boolean")));
+    }
+
+    @Test
+    void verifyUnrequestedTraitsAreNotDecoded() {
+        var accessor = TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                entry("long", "not a long"),
+                entry("double", "not a double"),
+                entry("boolean", "true")
+        }));
+
+        assertTrue(accessor.getBoolean(UTF8String.fromString("boolean")));
+        assertThrows(NumberFormatException.class, () -> accessor.getDouble(UTF8String.fromString("double")));
+    }
+
+}
@@ -0,0 +1,127 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompilerTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private ParseException parseError(final String expression) {
+        var exception = assertThrows(RuntimeException.class, () -> Compiler.compile(schema, expression));
+        assertInstanceOf(ParseException.class, exception.getCause());
+        return (ParseException) exception.getCause();
+    }
+
+    @Test
+    void verifyErrorPositions() {
+        assertEquals(1, parseError("(trait-foo \"long\" \"1\")").position());
+        assertEquals(17, parseError("(trait-eq \"long\" \"one\")").position());
+        assertEquals(21, parseError("(trait-eq \"long\" \"1\" \"2\")").position());
+        assertEquals(19, parseError("(trait-eq \"string\" \"unterminated)").position());
+        assertEquals(22, parseError("(or (trait-exists \"a\")").position());
+        assertEquals(0, parseError("trait-eq").position());
+        assertEquals(22, parseError("(trait-regex \"string\" \"(\")").position());
+    }
+
+    @Test
+    void verifyTrailingTokens() {
+        assertEquals(19, parseError("(trait-exists \"a\") )").position());
+        assertEquals(19, parseError("(trait-exists \"a\") junk").position());
+        assertEquals(18, parseError("(trait-exists \"a\")(trait-exists \"b\")").position());
+        assertEquals(25, parseError("(not (trait-exists \"a\")) \"b\"").position());
+        assertEquals(2, parseError("  ").position());
+        assertEquals(1, Compiler.compile(schema, " (trait-exists \"a\")\n").expressions().length);
+    }
+
+    @Test
+    void verifyTokens() {
+        var tokens = new Tokenizer("(trait-eq 'a b' \"c\\\"d\\n\" 42 \"\u00e9\")");
+        assertEquals(Tokenizer.OPEN, tokens.next());
+        assertEquals(Tokenizer.ATOM, tokens.next());
+        assertEquals(UTF8String.fromString("trait-eq"), tokens.token());
+        assertEquals(Tokenizer.STRING, tokens.next());
+        assertEquals(UTF8String.fromString("a b"), tokens.token());
+        assertEquals(Tokenizer.STRING, tokens.next());
+        assertEquals(UTF8String.fromString("c\"d\n"), tokens.token());
+        assertEquals(Tokenizer.ATOM, tokens.next());
+        assertEquals(UTF8String.fromString("42"), tokens.token());
+        assertEquals(Tokenizer.STRING, tokens.next());
+        assertEquals(UTF8String.fromString("\u00e9"), tokens.token());
+        assertEquals(28, tokens.position());
+        assertEquals(Tokenizer.CLOSE, tokens.next());
+        assertEquals(Tokenizer.EOF, tokens.next());
+    }
+
+    @Test
+    void verifyMultiValueArgumentInsideCombinator() {
+        var bag = TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                new GenericInternalRow(new Object[]{UTF8String.fromString("long"), UTF8String.fromString("2")}),
+                new GenericInternalRow(new Object[]{UTF8String.fromString("boolean"), UTF8String.fromString("false")})
+        }));
+
+        String[] expressions = {
+                "(and (trait-in \"long\" (\"1\" \"2\")) (trait-eq \"boolean\" \"false\"))",
+                "(or (trait-in \"long\" (\"3\" \"4\")) (not (trait-in \"boolean\" (\"false\"))))",
+                "(and (trait-eq \"long\" 2) (trait-eq \"boolean\" false))"
+        };
+
+        var vm = new SExpressionVM(environment, Compiler.compile(schema, expressions));
+        vm.evaluate(bag);
+        assertArrayEquals(new boolean[] {true, false, true}, vm.results());
+    }
+
+    @Test
+    void verifyParallelCompilationMatchesSequentialCompilation() {
+        var expressions = new String[5000];
+        for (var i = 0; i < expressions.length; i++) {
+            expressions[i] = switch (i % 3) {
+                case 0 -> "(or (trait-eq \"long\" \"" + i + "\") (trait-gt \"double\" \"2.5\"))";
+                case 1 -> "(and (trait-exists \"string\") (not (trait-regex \"string\" \"a" + i + ".*\")))";
+                default -> "(trait-in \"long\" (\"" + i + "\" \"" + (i + 1) + "\"))";
+            };
+        }
+
+        var sequential = Compiler.compile(schema, expressions, (ForkJoinPool) null);
+        var pool = new ForkJoinPool(4);
+        try {
+            assertEquals(sequential.toString(), Compiler.compile(schema, expressions, pool).toString());
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(sequential.toString(), Compiler.compile(schema, expressions).toString());
+    }
+
+    @Test
+    void verifyParallelCompilationReportsFirstError() {
+        var expressions = new String[2000];
+        Arrays.fill(expressions, "(trait-eq \"long\" \"1\")");
+        expressions[1500] = "(trait-eq \"long\" \"one\")";
+        expressions[700] = "";
+        expressions[1200] = "(trait-foo \"long\" \"1\")";
+
+        var pool = new ForkJoinPool(4);
+        try {
+            var exception = assertThrows(RuntimeException.class, () -> Compiler.compile(schema, expressions, pool));
+            assertEquals("Expression at index 700 cannot be null or empty", exception.getCause().getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static io.exsql.s3xty.TraitFixtures.decoded;
+import static io.exsql.s3xty.TraitFixtures.entry;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DecodedTraitsTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN, longs ARRAY<LONG>");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final String[] expressions = {
+            "(or (trait-gt \"long\" \"50\") (trait-lt \"double\" \"1.0\"))",
+            "(and (trait-eq \"boolean\" \"true\") (trait-exists \"string\"))",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\"))",
+            "(not (trait-exists \"long\"))",
+            "(trait-ne \"boolean\" \"false\")"
+    };
+
+    @Test
+    void verifyDecodedValues() {
+        var layout = TraitLayout.of(fieldTypes, List.of(UTF8String.fromString("string")));
+        var traits = layout.decode(ArrayData.toArrayData(new GenericInternalRow[] {
+                entry("long", "42"),
+                entry("double", null),
+                entry("boolean", "true"),
+                entry("longs", "1,2"),
+                entry("string", "hello"),
+                entry("unknown", "dropped"),
+                entry("long", "43")
+        }));
+
+        assertEquals(42L, traits.getLong(UTF8String.fromString("long")).orElseThrow());
+        assertEquals(Value.longValue(42), traits.get(UTF8String.fromString("long")));
+        assertTrue(traits.getDouble(UTF8String.fromString("double")).isEmpty());
+        assertEquals(Value.nullValue(), traits.get(UTF8String.fromString("double")));
+        assertTrue(traits.getBoolean(UTF8String.fromString("boolean")));
+        assertArrayEquals(new long[] {1, 2}, traits.getLongs(UTF8String.fromString("longs")));
+        assertEquals(Value.stringValue(UTF8String.fromString("hello")), traits.get(UTF8String.fromString("string")));
+        assertNull(traits.get(UTF8String.fromString("unknown")));
+        assertSame(layout, traits.layout());
+
+        assertThrows(IllegalArgumentException.class, () -> layout.decode(ArrayData.toArrayData(new GenericInternalRow[] {
+                entry("long", "forty-two")
+        })));
+    }
+
+    @Test
+    void verifyDecodedTraitsMatchEagerDecoding() {
+        var data = RecordGenerator.generate(1000);
+        var layout = TraitLayout.of(fieldTypes, List.of(UTF8String.fromString("string")));
+        var program = Compiler.compile(schema, expressions);
+
+        var vm = new SExpressionVM(environment, program);
+        var decodedVM = new SExpressionVM(environment, program);
+        for (var entries: data) {
+            vm.reset();
+            vm.evaluate(decoded(fieldTypes, entries));
+            decodedVM.reset();
+            decodedVM.evaluate(layout.decode(entries));
+            assertArrayEquals(vm.results(), decodedVM.results());
+        }
+    }
+
+    @Test
+    void verifyDecodedTraitsAreSharedAcrossThreads() throws Exception {
+        var data = RecordGenerator.generate(2000);
+        var layout = TraitLayout.of(fieldTypes, List.of(UTF8String.fromString("string")));
+        var traits = new DecodedTraits[data.length];
+        for (var i = 0; i < data.length; i++) {
+            traits[i] = layout.decode(data[i]);
+        }
+
+        var program = Compiler.compile(schema, expressions);
+        var tasks = new ArrayList<Callable<List<boolean[]>>>();
+        for (var thread = 0; thread < 4; thread++) {
+            tasks.add(() -> {
+                var results = new ArrayList<boolean[]>();
+                var vm = new SExpressionVM(environment, program);
+                for (var record: traits) {
+                    vm.reset();
+                    vm.evaluate(record);
+                    results.add(vm.results().clone());
+                }
+                return results;
+            });
+        }
+
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var futures = executor.invokeAll(tasks);
+            var expected = futures.get(0).get();
+            for (var future: futures) {
+                var results = future.get();
+                for (var i = 0; i < expected.size(); i++) {
+                    assertArrayEquals(expected.get(i), results.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
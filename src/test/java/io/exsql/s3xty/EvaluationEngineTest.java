@@ -0,0 +1,103 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EvaluationEngineTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final String[] expressions = {
+            "(or (trait-gt \"long\" \"50\") (trait-lt \"double\" \"1.0\"))",
+            "(and (trait-eq \"boolean\" \"true\") (trait-exists \"string\"))",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\"))",
+            "(not (trait-exists \"long\"))"
+    };
+
+    private final Program program = Compiler.compile(schema, expressions);
+
+    private ExpressionBitmaps expected(final ArrayData[] records) {
+        var matches = new ExpressionBitmaps(expressions.length);
+        var vm = new SExpressionVM(environment, program);
+        for (var row = 0; row < records.length; row++) {
+            vm.reset();
+            vm.evaluate(new CachedArrayDataAccessor(fieldTypes, records[row]));
+            matches.add(row, vm.results());
+        }
+
+        return matches;
+    }
+
+    private static void assertMatches(final ExpressionBitmaps expected, final ExpressionBitmaps actual, final String message) {
+        assertEquals(expected.expressions(), actual.expressions(), message);
+        for (var expression = 0; expression < expected.expressions(); expression++) {
+            assertEquals(expected.get(expression), actual.get(expression), message + ", expression " + expression);
+        }
+    }
+
+    @Test
+    void verifyArrayData() {
+        var pool = new ForkJoinPool(4);
+        try {
+            var engine = new EvaluationEngine(environment, pool);
+
+            // a partial last chunk, a single partial chunk and no record at all
+            for (var size: new int[] {3 * EvaluationEngine.CHUNK_SIZE + 100, 70, 0}) {
+                var records = RecordGenerator.generate(size);
+                assertMatches(expected(records), engine.evaluate(program, fieldTypes, records), size + " records");
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void verifyTraitStore() {
+        var records = RecordGenerator.generate(2 * EvaluationEngine.CHUNK_SIZE + 1);
+        var layout = TraitLayout.of(fieldTypes, List.of(UTF8String.fromString("string")));
+        try (var store = TraitStore.load(fieldTypes, layout, records)) {
+            var matches = new EvaluationEngine(environment, ForkJoinPool.commonPool()).evaluate(program, store);
+            assertMatches(expected(records), matches, "store");
+        }
+    }
+
+    @Test
+    void verifyCounts() {
+        var pool = new ForkJoinPool(3);
+        try {
+            var engine = new EvaluationEngine(environment, pool);
+            var records = RecordGenerator.generate(5 * EvaluationEngine.CHUNK_SIZE + 7);
+            var expected = expected(records);
+
+            var counts = engine.count(program, fieldTypes, records);
+            assertEquals(expressions.length, counts.length);
+            for (var expression = 0; expression < counts.length; expression++) {
+                assertEquals(expected.cardinality(expression), counts[expression], "expression " + expression);
+            }
+
+            var layout = TraitLayout.of(fieldTypes, List.of(UTF8String.fromString("string")));
+            try (var store = TraitStore.load(fieldTypes, layout, records)) {
+                assertArrayEquals(counts, engine.count(program, store));
+            }
+
+            assertArrayEquals(new long[expressions.length], engine.count(program, fieldTypes, new ArrayData[0]));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
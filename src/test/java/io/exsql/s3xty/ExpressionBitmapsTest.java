@@ -0,0 +1,96 @@
+package io.exsql.s3xty;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.*;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpressionBitmapsTest {
+
+    @Test
+    void verifyAccumulation() {
+        var bitmaps = new ExpressionBitmaps(3);
+        bitmaps.add(1, new boolean[] {true, false, true});
+        bitmaps.add(5, new boolean[] {true, false, false});
+        bitmaps.add(Integer.MAX_VALUE, new boolean[] {false, false, true});
+
+        assertEquals(RoaringBitmap.bitmapOf(1, 5), bitmaps.get(0));
+        assertTrue(bitmaps.get(1).isEmpty());
+        assertEquals(RoaringBitmap.bitmapOf(1, Integer.MAX_VALUE), bitmaps.get(2));
+        assertEquals(2, bitmaps.cardinality(2));
+
+        assertThrows(IllegalArgumentException.class, () -> bitmaps.add(2, new boolean[] {true}));
+    }
+
+    @Test
+    void verifyMerge() throws InterruptedException {
+        // every thread accumulates its own records, as the workers of the evaluation engine do
+        var threads = new Thread[4];
+        var partials = new ExpressionBitmaps[threads.length];
+        for (var t = 0; t < threads.length; t++) {
+            var thread = t;
+            partials[t] = new ExpressionBitmaps(2);
+            threads[t] = new Thread(() -> {
+                for (var id = thread; id < 100_000; id += threads.length) {
+                    partials[thread].add(id, new boolean[] {id % 3 == 0, id % 1000 == 0});
+                }
+            });
+            threads[t].start();
+        }
+
+        var merged = new ExpressionBitmaps(2);
+        for (var t = 0; t < threads.length; t++) {
+            threads[t].join();
+            assertSame(merged, merged.merge(partials[t]));
+        }
+
+        assertEquals(33_334, merged.cardinality(0));
+        assertEquals(100, merged.cardinality(1));
+        assertTrue(merged.get(1).contains(99_000));
+
+        assertThrows(IllegalArgumentException.class, () -> merged.merge(new ExpressionBitmaps(3)));
+    }
+
+    @Test
+    void verifySerialization(@TempDir final Path directory) throws IOException {
+        var bitmaps = new ExpressionBitmaps(3);
+        var all = new boolean[] {true, true, false};
+        var first = new boolean[] {true, false, false};
+        for (var id = 0; id < 1_000_000; id++) {
+            bitmaps.add(id, id < 500_000 ? all : first);
+        }
+        bitmaps.runOptimize();
+
+        // consecutive ids are stored as runs, far below one bit per record and expression
+        assertTrue(bitmaps.serializedSizeInBytes() < 1024, bitmaps.serializedSizeInBytes() + " bytes");
+
+        var path = directory.resolve("bitmaps.bin");
+        bitmaps.write(path);
+        var read = ExpressionBitmaps.read(path);
+        assertEquals(3, read.expressions());
+        for (var expression = 0; expression < 3; expression++) {
+            assertEquals(bitmaps.get(expression), read.get(expression));
+        }
+        assertEquals(bitmaps.serializedSizeInBytes(), path.toFile().length());
+
+        assertThrows(StreamCorruptedException.class, () -> ExpressionBitmaps.read(new DataInputStream(new ByteArrayInputStream(new byte[] {0, 0, 0, 0, 1}))));
+
+        // a count is never allocated before the bitmaps it counts are read
+        var header = new ByteArrayOutputStream();
+        var output = new DataOutputStream(header);
+        output.writeInt(ExpressionBitmaps.MAGIC);
+        output.writeByte(ExpressionBitmaps.VERSION);
+        output.writeInt(Integer.MAX_VALUE);
+        bitmaps.get(0).serialize(output);
+        assertThrows(EOFException.class, () -> ExpressionBitmaps.read(new DataInputStream(new ByteArrayInputStream(header.toByteArray()))));
+
+        var negative = header.toByteArray();
+        negative[5] = (byte) 0x80;
+        assertThrows(StreamCorruptedException.class, () -> ExpressionBitmaps.read(new DataInputStream(new ByteArrayInputStream(negative))));
+    }
+
+}
@@ -0,0 +1,91 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LiveProgramTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private TraitAccessor bag() {
+        return TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                new GenericInternalRow(new Object[]{UTF8String.fromString("long"), UTF8String.fromString("10")}),
+                new GenericInternalRow(new Object[]{UTF8String.fromString("double"), UTF8String.fromString("2.5")}),
+                new GenericInternalRow(new Object[]{UTF8String.fromString("boolean"), UTF8String.fromString("true")})
+        }));
+    }
+
+    @Test
+    void verifyLinkedProgramMatchesCompiledProgram() {
+        String[] expressions = {
+                "(or (trait-eq \"long\" \"1\") (trait-eq \"double\" \"2.5\"))",
+                "(and (trait-gt \"long\" \"5\") (trait-eq \"boolean\" \"false\"))",
+                "(or (and (trait-eq \"long\" \"10\") (trait-eq \"boolean\" \"true\")) (trait-eq \"double\" \"1.0\"))"
+        };
+
+        var live = new LiveProgram(schema);
+        for (var i = 0; i < expressions.length; i++) {
+            live.put("segment-" + i, expressions[i]);
+        }
+
+        assertEquals(Compiler.compile(schema, expressions).toString(), live.current().toString());
+    }
+
+    @Test
+    void verifyAddReplaceRemove() {
+        var live = new LiveProgram(schema);
+        var vm = new SExpressionVM(environment, live);
+
+        assertEquals(0, live.put("long", "(trait-eq \"long\" \"10\")"));
+        assertEquals(1, live.put("double", "(trait-eq \"double\" \"1.0\")"));
+
+        vm.evaluate(bag());
+        assertArrayEquals(new boolean[] {true, false}, vm.results());
+
+        // replacing keeps the slot
+        assertEquals(1, live.put("double", "(trait-eq \"double\" \"2.5\")"));
+        vm.reset();
+        vm.evaluate(bag());
+        assertArrayEquals(new boolean[] {true, true}, vm.results());
+
+        // removing frees the slot, which is then reused
+        assertTrue(live.remove("long"));
+        assertFalse(live.remove("long"));
+        assertEquals(-1, live.slot("long"));
+        vm.reset();
+        vm.evaluate(bag());
+        assertArrayEquals(new boolean[] {false, true}, vm.results());
+
+        assertEquals(0, live.put("long-gt", "(trait-gt \"long\" \"5\")"));
+        assertEquals(2, live.size());
+        vm.reset();
+        vm.evaluate(bag());
+        assertArrayEquals(new boolean[] {true, true}, vm.results());
+    }
+
+    @Test
+    void verifyInvalidExpressionIsNotPublished() {
+        var live = new LiveProgram(schema);
+        live.put("long", "(trait-eq \"long\" \"10\")");
+
+        var published = live.current();
+        assertThrows(RuntimeException.class, () -> live.put("long", "(trait-eq \"long\" \"ten\")"));
+        assertThrows(RuntimeException.class, () -> live.put("double", ""));
+        assertSame(published, live.current());
+        assertEquals(1, live.size());
+    }
+
+}
@@ -0,0 +1,106 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedProgramTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN, strings ARRAY<STRING>");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final String[] expressions = {
+            "(or (trait-eq \"long\" \"1\") (trait-gt \"double\" \"2.5\"))",
+            "(and (trait-eq \"long\" \"10\") (trait-eq \"boolean\" \"true\"))",
+            "(not (trait-regex \"string\" \"h.*o\"))",
+            "(trait-contains-any \"strings\" (\"a\" \"b\"))",
+            "(and (trait-exists \"string\") (trait-ci-eq \"string\" \"HELLO\"))"
+    };
+
+    private TraitAccessor bag() {
+        return TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                new GenericInternalRow(new Object[]{UTF8String.fromString("long"), UTF8String.fromString("10")}),
+                new GenericInternalRow(new Object[]{UTF8String.fromString("double"), UTF8String.fromString("2.5")}),
+                new GenericInternalRow(new Object[]{UTF8String.fromString("boolean"), UTF8String.fromString("true")}),
+                new GenericInternalRow(new Object[]{UTF8String.fromString("string"), UTF8String.fromString("hello")}),
+                new GenericInternalRow(new Object[]{UTF8String.fromString("strings"), UTF8String.fromString("c,b")})
+        }));
+    }
+
+    @Test
+    void verifyMappedProgramMatchesProgram(@TempDir final Path directory) throws IOException {
+        var program = Compiler.compile(schema, expressions);
+        var path = directory.resolve("program.s3xq");
+        MappedProgram.write(program, path);
+
+        var mapped = MappedProgram.open(path);
+        assertEquals(expressions.length, mapped.outputs());
+        assertEquals(expressions[2], mapped.expression(2));
+
+        var vm = new SExpressionVM(environment, program);
+        vm.evaluate(bag());
+
+        var mappedVM = new SExpressionVM(environment, mapped);
+        mappedVM.evaluate(bag());
+        assertArrayEquals(new boolean[] {false, true, false, true, true}, mappedVM.results());
+        assertArrayEquals(vm.results(), mappedVM.results());
+
+        // the same mapping backs any number of VMs
+        var otherVM = new SExpressionVM(environment, mapped);
+        otherVM.evaluate(bag());
+        assertArrayEquals(vm.results(), otherVM.results());
+    }
+
+    @Test
+    void verifyInvalidBuffersAreRejected() throws IOException {
+        var bytes = MappedProgram.toBytes(Compiler.compile(schema, expressions));
+
+        var magic = bytes.clone();
+        magic[0] ^= 0x01;
+        assertThrows(StreamCorruptedException.class, () -> MappedProgram.wrap(ByteBuffer.wrap(magic)));
+
+        var truncated = ByteBuffer.wrap(bytes, 0, 32);
+        assertThrows(StreamCorruptedException.class, () -> MappedProgram.wrap(truncated));
+
+        // counts of the header
+        assertThrows(StreamCorruptedException.class, () -> MappedProgram.wrap(corrupt(bytes, 8, -1)));
+        assertThrows(StreamCorruptedException.class, () -> MappedProgram.wrap(corrupt(bytes, 12, -1)));
+        assertThrows(StreamCorruptedException.class, () -> MappedProgram.wrap(corrupt(bytes, 12, Integer.MAX_VALUE)));
+        assertThrows(StreamCorruptedException.class, () -> MappedProgram.wrap(corrupt(bytes, 16, Integer.MAX_VALUE)));
+
+        // operations and arguments of the code
+        var mapped = MappedProgram.wrap(ByteBuffer.wrap(bytes));
+        assertThrows(StreamCorruptedException.class, () -> MappedProgram.wrap(corrupt(bytes, 20, OperationCode.values().length)));
+        for (var index = 0; index < mapped.length(); index++) {
+            var argument = 24 + index * 8;
+            switch (mapped.operation(index)) {
+                case LOAD -> assertThrows(StreamCorruptedException.class, () -> MappedProgram.wrap(corrupt(bytes, argument, -1)));
+                case JUMP_IF_TRUE, JUMP_IF_FALSE -> assertThrows(StreamCorruptedException.class, () -> MappedProgram.wrap(corrupt(bytes, argument, mapped.length())));
+                case STORE_RESULT -> assertThrows(StreamCorruptedException.class, () -> MappedProgram.wrap(corrupt(bytes, argument, mapped.outputs())));
+                default -> {}
+            }
+        }
+    }
+
+    private static ByteBuffer corrupt(final byte[] bytes, final int offset, final int value) {
+        return ByteBuffer.wrap(bytes.clone()).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+    }
+
+}
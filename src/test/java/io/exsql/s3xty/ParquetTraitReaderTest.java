@@ -0,0 +1,279 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static io.exsql.s3xty.TraitFixtures.decoded;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParquetTraitReaderTest {
+
+    private static final MessageType LIST_SCHEMA = MessageTypeParser.parseMessageType("""
+            message spark_schema {
+              required binary id (STRING);
+              optional group traits (LIST) {
+                repeated group list {
+                  optional group element {
+                    optional binary key (STRING);
+                    optional binary value (STRING);
+                  }
+                }
+              }
+            }
+            """);
+
+    private static final MessageType MAP_SCHEMA = MessageTypeParser.parseMessageType("""
+            message spark_schema {
+              required binary id (STRING);
+              optional group traits (MAP) {
+                repeated group key_value {
+                  required binary key (STRING);
+                  optional binary value (STRING);
+                }
+              }
+            }
+            """);
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final String[] expressions = {
+            "(or (trait-gt \"long\" \"50\") (trait-lt \"double\" \"1.0\"))",
+            "(and (trait-eq \"boolean\" \"true\") (trait-exists \"string\"))",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\"))",
+            "(not (trait-exists \"long\"))"
+    };
+
+    private final ArrayData[] records = RecordGenerator.generate(2000);
+
+    private final FileSystem fs = FileSystem.getLocal(new Configuration());
+
+    public ParquetTraitReaderTest() throws IOException {}
+
+    private void write(final Path path, final MessageType type, final boolean dictionary, final int from, final int to) throws IOException {
+        var factory = new SimpleGroupFactory(type);
+        try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(path)
+                .withConf(fs.getConf())
+                .withType(type)
+                .withRowGroupSize(4096L)
+                .withPageSize(1024)
+                .withDictionaryEncoding(dictionary)
+                .build()) {
+
+            for (var i = from; i < to; i++) {
+                var record = factory.newGroup().append("id", String.valueOf(i));
+                // leave some profiles without any trait and some with an empty list
+                if (i % 97 != 0) {
+                    var traits = record.addGroup("traits");
+                    if (i % 89 != 0) {
+                        var entries = this.records[i];
+                        for (var j = 0; j < entries.numElements(); j++) {
+                            var entry = entries.getStruct(j, 2);
+                            var group = type == LIST_SCHEMA ? traits.addGroup("list").addGroup("element") : traits.addGroup("key_value");
+                            group.append("key", entry.getUTF8String(0).toString());
+                            // keep a null value around
+                            if (i % 13 != 0) {
+                                group.append("value", entry.getUTF8String(1).toString());
+                            }
+                        }
+                    }
+                }
+                writer.write(record);
+            }
+        }
+    }
+
+    private TraitAccessor expected(final int i) {
+        return decoded(fieldTypes, i % 97 != 0 && i % 89 != 0 ? this.records[i] : ArrayData.toArrayData(new Object[0]), i % 13 != 0);
+    }
+
+    private List<boolean[]> evaluate(final ParquetTraitReader reader) throws IOException {
+        var results = new ArrayList<boolean[]>();
+        var vm = new SExpressionVM(environment, Compiler.compile(schema, expressions));
+        try (reader) {
+            while (reader.next()) {
+                vm.reset();
+                vm.evaluate(reader);
+                results.add(vm.results().clone());
+            }
+        }
+        return results;
+    }
+
+    private void verifyResults(final List<boolean[]> results) {
+        assertEquals(this.records.length, results.size());
+
+        var vm = new SExpressionVM(environment, Compiler.compile(schema, expressions));
+        for (var i = 0; i < this.records.length; i++) {
+            vm.reset();
+            vm.evaluate(expected(i));
+            assertArrayEquals(vm.results(), results.get(i), "profile " + i);
+        }
+    }
+
+    @Test
+    void verifyListLayoutAcrossFilesAndRowGroups(@TempDir final java.nio.file.Path directory) throws IOException {
+        write(new Path(directory.resolve("part-00000.parquet").toUri()), LIST_SCHEMA, true, 0, 1200);
+        write(new Path(directory.resolve("part-00001.parquet").toUri()), LIST_SCHEMA, true, 1200, this.records.length);
+        fs.create(new Path(directory.resolve("_SUCCESS").toUri())).close();
+
+        verifyResults(evaluate(TraitAccessor.forParquetFiles(fieldTypes, fs, directory.toString())));
+    }
+
+    @Test
+    void verifyMapLayoutWithoutDictionary(@TempDir final java.nio.file.Path directory) throws IOException {
+        var file = directory.resolve("profiles.parquet");
+        write(new Path(file.toUri()), MAP_SCHEMA, false, 0, this.records.length);
+
+        verifyResults(evaluate(TraitAccessor.forParquetFiles(fieldTypes, fs, file.toString())));
+    }
+
+    @Test
+    void verifyOnlyReferencedTraitsAreDecoded(@TempDir final java.nio.file.Path directory) throws IOException {
+        var file = directory.resolve("profiles.parquet");
+        write(new Path(file.toUri()), LIST_SCHEMA, true, 0, this.records.length);
+
+        var keys = new ObjectOpenHashSet<UTF8String>();
+        keys.add(UTF8String.fromString("long"));
+        keys.add(UTF8String.fromString("double"));
+        keys.add(UTF8String.fromString("boolean"));
+        keys.add(UTF8String.fromString("string"));
+        verifyResults(evaluate(TraitAccessor.forParquetFiles(fieldTypes, fs, file.toString(), keys)));
+
+        keys.remove(UTF8String.fromString("string"));
+        try (var reader = TraitAccessor.forParquetFiles(fieldTypes, fs, file.toString(), keys)) {
+            var profiles = 0;
+            while (reader.next()) {
+                assertNull(reader.get(UTF8String.fromString("string")));
+                assertEquals(expected(profiles).get(UTF8String.fromString("long")), reader.get(UTF8String.fromString("long")));
+                profiles++;
+            }
+            assertEquals(this.records.length, profiles);
+        }
+    }
+
+    @Test
+    void verifyRowGroupsThatCannotMatchAreSkipped(@TempDir final java.nio.file.Path directory) throws IOException {
+        var file = new Path(directory.resolve("profiles.parquet").toUri());
+        var factory = new SimpleGroupFactory(MAP_SCHEMA);
+        try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(file)
+                .withConf(fs.getConf())
+                .withType(MAP_SCHEMA)
+                .withRowGroupSize(4096L)
+                .build()) {
+
+            // european profiles first, without any ltv, then american ones
+            for (var i = 0; i < 4000; i++) {
+                var record = factory.newGroup().append("id", String.valueOf(i));
+                var traits = record.addGroup("traits");
+                traits.addGroup("key_value").append("key", "country").append("value", i < 2000 ? (i % 2 == 0 ? "fr" : "de") : (i % 2 == 0 ? "us" : "ca"));
+                if (i >= 2000) {
+                    traits.addGroup("key_value").append("key", "ltv").append("value", String.valueOf(i % 1000));
+                }
+                writer.write(record);
+            }
+        }
+
+        var program = Compiler.compile(StructType.fromDDL("ltv LONG"), new String[] {
+                "(trait-eq \"country\" \"us\")",
+                "(and (trait-gt \"ltv\" \"900\") (trait-eq \"country\" \"ca\"))"
+        });
+
+        var matches = new ArrayList<Long>();
+        try (var reader = TraitAccessor.forParquetFiles(fieldTypes, fs, file.toString())) {
+            var vm = new SExpressionVM(environment, program);
+            while (reader.next()) {
+                vm.reset();
+                vm.evaluate(reader);
+                if (vm.results()[0] || vm.results()[1]) {
+                    matches.add(reader.row());
+                }
+            }
+            assertEquals(0, reader.skippedRowGroups());
+        }
+
+        var filtered = new ArrayList<Long>();
+        try (var reader = TraitAccessor.forParquetFiles(fieldTypes, fs, file.toString(), program)) {
+            var vm = new SExpressionVM(environment, program);
+            while (reader.next()) {
+                vm.reset();
+                vm.evaluate(reader);
+                if (vm.results()[0] || vm.results()[1]) {
+                    filtered.add(reader.row());
+                }
+            }
+
+            assertTrue(reader.skippedRowGroups() > 0);
+            assertTrue(reader.skippedRows() >= 1000, "skipped " + reader.skippedRows());
+            assertTrue(reader.skippedBytes() > 0);
+        }
+
+        assertEquals(1100, matches.size());
+        assertEquals(matches, filtered);
+    }
+
+    @Test
+    void verifyFirstEntryOfATraitWins(@TempDir final java.nio.file.Path directory) throws IOException {
+        var file = new Path(directory.resolve("profiles.parquet").toUri());
+        var factory = new SimpleGroupFactory(LIST_SCHEMA);
+        try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(file).withConf(fs.getConf()).withType(LIST_SCHEMA).build()) {
+            var record = factory.newGroup().append("id", "0");
+            var traits = record.addGroup("traits");
+            traits.addGroup("list").addGroup("element").append("key", "long").append("value", "10");
+            traits.addGroup("list").addGroup("element").append("key", "long").append("value", "100");
+            traits.addGroup("list").addGroup("element").append("key", "string");
+            traits.addGroup("list").addGroup("element").append("key", "string").append("value", "hello");
+            writer.write(record);
+        }
+
+        try (var reader = TraitAccessor.forParquetFiles(fieldTypes, fs, file.toString())) {
+            assertTrue(reader.next());
+            assertEquals(10L, reader.get(UTF8String.fromString("long")).toLong());
+            assertSame(Value.nullValue(), reader.get(UTF8String.fromString("string")));
+
+            var vm = new SExpressionVM(environment, Compiler.compile(schema, expressions));
+            vm.evaluate(reader);
+            assertFalse(vm.results()[0]);
+            assertFalse(vm.results()[2]);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void verifyFilesWithoutTraitsAreRejected(@TempDir final java.nio.file.Path directory) throws IOException {
+        var type = MessageTypeParser.parseMessageType("message spark_schema { required binary id (STRING); }");
+        var file = new Path(directory.resolve("profiles.parquet").toUri());
+        try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(file).withConf(fs.getConf()).withType(type).build()) {
+            writer.write(new SimpleGroupFactory(type).newGroup().append("id", "0"));
+        }
+
+        try (var reader = TraitAccessor.forParquetFiles(fieldTypes, fs, file.toString())) {
+            assertThrows(IllegalArgumentException.class, reader::next);
+        }
+    }
+
+}
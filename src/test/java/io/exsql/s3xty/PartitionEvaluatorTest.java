@@ -0,0 +1,106 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import static io.exsql.s3xty.TraitFixtures.decoded;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionEvaluatorTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final StructType rowSchema = StructType.fromDDL("id INT, traits ARRAY<STRUCT<key: STRING, value: STRING>>");
+
+    private final ArrayData[] records = RecordGenerator.generate(500);
+
+    private boolean[] expected(final Program program, final ArrayData entries) {
+        var vm = new SExpressionVM(environment, program);
+        vm.evaluate(decoded(fieldTypes, entries));
+        return vm.results().clone();
+    }
+
+    private String[] expressions(final int count) {
+        var templates = new String[] {
+                "(or (trait-gt \"long\" \"%d\") (trait-lt \"double\" \"1.0\"))",
+                "(and (trait-eq \"boolean\" \"true\") (trait-gt \"long\" \"%d\"))",
+                "(trait-in \"string\" (\"hello\" \"world\" \"%d\"))",
+                "(not (trait-lt \"long\" \"%d\"))"
+        };
+
+        var expressions = new String[count];
+        for (var i = 0; i < count; i++) {
+            expressions[i] = String.format(templates[i % templates.length], i);
+        }
+        return expressions;
+    }
+
+    @Test
+    void verifyPartitions() {
+        var spark = SparkSession.builder().master("local[1]").appName("s3xty")
+                .config("spark.ui.enabled", "false")
+                .getOrCreate();
+        try {
+            var rows = new ArrayList<Row>();
+            for (var i = 0; i < this.records.length; i++) {
+                // every tenth profile has a null trait column
+                if (i % 10 == 0) {
+                    rows.add(RowFactory.create(i, null));
+                    continue;
+                }
+
+                var entries = new ArrayList<Row>();
+                for (var j = 0; j < this.records[i].numElements(); j++) {
+                    var entry = this.records[i].getStruct(j, 2);
+                    entries.add(RowFactory.create(entry.getUTF8String(0).toString(), entry.getUTF8String(1).toString()));
+                }
+                rows.add(RowFactory.create(i, CollectionConverters.asScala(entries).toSeq()));
+            }
+
+            var profiles = spark.createDataFrame(rows, rowSchema).repartition(3);
+
+            // more expressions than fit in a single column of bits
+            var program = Compiler.compile(schema, expressions(70));
+            var matches = PartitionEvaluator.evaluate(profiles, "traits", schema, program);
+            assertArrayEquals(new String[] {"id", "traits", "matches_0", "matches_1"}, matches.columns());
+
+            var results = matches.collectAsList();
+            assertEquals(this.records.length, results.size());
+            for (var result: results) {
+                var i = result.getInt(0);
+                if (i % 10 == 0) {
+                    assertTrue(result.isNullAt(2), "profile " + i);
+                    assertTrue(result.isNullAt(3), "profile " + i);
+                    continue;
+                }
+
+                var expected = expected(program, this.records[i]);
+                for (var expression = 0; expression < expected.length; expression++) {
+                    var bits = result.getLong(2 + expression / 64);
+                    assertEquals(expected[expression], (bits & (1L << expression)) != 0, "profile " + i + ", expression " + expression);
+                }
+            }
+
+            assertThrows(IllegalArgumentException.class, () -> PartitionEvaluator.evaluate(profiles, "id", schema, program));
+            assertThrows(IllegalArgumentException.class, () -> PartitionEvaluator.evaluate(profiles, "missing", schema, program));
+        } finally {
+            spark.stop();
+        }
+    }
+
+}
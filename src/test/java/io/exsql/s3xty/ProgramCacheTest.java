@@ -0,0 +1,95 @@
+package io.exsql.s3xty;
+
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProgramCacheTest {
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE");
+
+    private final String[] expressions = {
+            "(or (trait-eq \"long\" \"-1\") (trait-gt \"double\" \"2.5\"))",
+            "(trait-regex \"string\" \"h.*o\")"
+    };
+
+    private static byte[] serialize(final Program program) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var output = new ObjectOutputStream(bytes)) {
+            output.writeObject(program);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Program deserialize(final byte[] bytes) throws IOException, ClassNotFoundException {
+        try (var input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Program) input.readObject();
+        }
+    }
+
+    @Test
+    void verifyProgramsAreDecodedOnce() throws IOException {
+        var cache = new ProgramCache(4);
+        var bytes = ProgramCodec.toBytes(Compiler.compile(schema, expressions));
+
+        var first = cache.fromBytes(bytes);
+        var second = cache.fromBytes(bytes);
+        assertSame(first, second);
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.size());
+
+        var vm = new SExpressionVM(Map.of(), second);
+        vm.evaluate(TraitAccessor.forArrayData(SchemaHelper.convert(schema), ArrayData.toArrayData(new GenericInternalRow[] {
+                new GenericInternalRow(new Object[]{UTF8String.fromString("long"), UTF8String.fromString("-1")}),
+                new GenericInternalRow(new Object[]{UTF8String.fromString("string"), UTF8String.fromString("hello")}),
+        })));
+        assertArrayEquals(new boolean[] {true, true}, vm.results());
+    }
+
+    @Test
+    void verifyLeastRecentlyUsedEviction() throws IOException {
+        var cache = new ProgramCache(2);
+        var a = ProgramCodec.toBytes(Compiler.compile(schema, "(trait-eq \"long\" \"1\")"));
+        var b = ProgramCodec.toBytes(Compiler.compile(schema, "(trait-eq \"long\" \"2\")"));
+        var c = ProgramCodec.toBytes(Compiler.compile(schema, "(trait-eq \"long\" \"3\")"));
+
+        cache.fromBytes(a);
+        cache.fromBytes(b);
+        cache.fromBytes(a);
+        cache.fromBytes(c);
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.misses());
+
+        // b was the least recently used
+        cache.fromBytes(a);
+        assertEquals(2, cache.hits());
+        cache.fromBytes(b);
+        assertEquals(4, cache.misses());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertThrows(IllegalArgumentException.class, () -> new ProgramCache(0));
+        assertThrows(StreamCorruptedException.class, () -> cache.fromBytes(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}));
+    }
+
+    @Test
+    void verifyJavaSerializationIsShared() throws IOException, ClassNotFoundException {
+        var bytes = serialize(Compiler.compile(schema, new String[] {"(trait-lt \"long\" \"12345\")", "(trait-exists \"x\")"}));
+
+        var hits = ProgramCache.shared().hits();
+        var first = deserialize(bytes);
+        var second = deserialize(bytes);
+        assertSame(first.instructions(), second.instructions());
+        assertEquals(hits + 1, ProgramCache.shared().hits());
+        assertEquals(first.toString(), second.toString());
+    }
+
+}
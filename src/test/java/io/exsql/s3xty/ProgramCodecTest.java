@@ -0,0 +1,116 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProgramCodecTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL(
+            "long LONG, double DOUBLE, boolean BOOLEAN, strings ARRAY<STRING>, longs ARRAY<LONG>, doubles ARRAY<DOUBLE>, booleans ARRAY<BOOLEAN>"
+    );
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final String[] expressions = {
+            "(or (trait-eq \"long\" \"-1\") (trait-gt \"double\" \"2.5\") (trait-eq \"boolean\" \"true\"))",
+            "(and (trait-ci-eq \"string\" \"Hello\") (not (trait-regex \"string\" \"h.*o\")))",
+            "(trait-in \"long\" (\"1\" \"2\" \"3\"))",
+            "(trait-contains-any \"strings\" (\"a\" \"b\"))",
+            "(trait-contains-any \"doubles\" (\"1.5\" \"2.5\"))",
+            "(trait-contains-any \"booleans\" (\"true\"))",
+            "(trait-exists \"string\")",
+            "(trait-eq \"long\" \"-1\")"
+    };
+
+    @Test
+    void verifyRoundTrip() throws IOException {
+        var program = Compiler.compile(schema, expressions);
+        var decoded = ProgramCodec.fromBytes(ProgramCodec.toBytes(program));
+        assertEquals(program.toString(), decoded.toString());
+
+        var bag = TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                new GenericInternalRow(new Object[]{UTF8String.fromString("long"), UTF8String.fromString("-1")}),
+                new GenericInternalRow(new Object[]{UTF8String.fromString("string"), UTF8String.fromString("hello")}),
+        }));
+
+        var vm = new SExpressionVM(environment, decoded);
+        vm.evaluate(bag);
+        assertArrayEquals(new boolean[] {true, false, false, false, false, false, true, true}, vm.results());
+    }
+
+    @Test
+    void verifyConstantsAreDeduplicated() {
+        var once = ProgramCodec.toBytes(Compiler.compile(schema, "(trait-eq \"long\" \"-1\")"));
+        var twice = ProgramCodec.toBytes(Compiler.compile(schema, new String[] {"(trait-eq \"long\" \"-1\")", "(trait-eq \"long\" \"-1\")"}));
+
+        // the second copy only adds its expression text and opcodes
+        var expressionLength = "(trait-eq \"long\" \"-1\")".length() + 2;
+        assertTrue(twice.length - once.length <= expressionLength + 16, "second expression took " + (twice.length - once.length) + " bytes");
+    }
+
+    @Test
+    void verifyJavaSerialization() throws IOException, ClassNotFoundException {
+        var program = Compiler.compile(schema, expressions);
+
+        var output = new ByteArrayOutputStream();
+        try (var oos = new ObjectOutputStream(output)) {
+            oos.writeObject(program);
+        }
+
+        try (var ois = new ObjectInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            assertEquals(program.toString(), ois.readObject().toString());
+        }
+    }
+
+    @Test
+    void verifyCorruptionIsDetected() {
+        var bytes = ProgramCodec.toBytes(Compiler.compile(schema, expressions));
+
+        var flipped = bytes.clone();
+        flipped[bytes.length / 2] ^= 0x10;
+        assertThrows(StreamCorruptedException.class, () -> ProgramCodec.fromBytes(flipped));
+
+        var version = bytes.clone();
+        version[4] = (byte) (ProgramCodec.VERSION + 1);
+        assertThrows(StreamCorruptedException.class, () -> ProgramCodec.fromBytes(version));
+
+        var truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> ProgramCodec.fromBytes(truncated));
+    }
+
+    @Test
+    public void verifyLengthsAreBounded() throws IOException {
+        var bytes = ProgramCodec.toBytes(Compiler.compile(schema, "(trait-gt \"long\" \"50\")"));
+
+        // the payload length follows the magic and the version
+        var negative = bytes.clone();
+        negative[5] = (byte) 0x80;
+        assertThrows(StreamCorruptedException.class, () -> ProgramCodec.fromBytes(negative));
+
+        var huge = bytes.clone();
+        huge[5] = (byte) 0x7F;
+        assertThrows(StreamCorruptedException.class, () -> ProgramCodec.fromBytes(huge));
+
+        var beyond = bytes.clone();
+        beyond[5] = 0x3F;
+        assertThrows(EOFException.class, () -> ProgramCodec.fromBytes(beyond));
+
+        // counts inside a payload with a valid checksum
+        assertThrows(StreamCorruptedException.class, () -> ProgramCodec.decodePayload(new byte[] {-1, -1, -1, -1, 0x07}));
+        assertThrows(StreamCorruptedException.class, () -> ProgramCodec.decodePayload(new byte[] {-1, -1, -1, -1, 0x0F}));
+    }
+
+}
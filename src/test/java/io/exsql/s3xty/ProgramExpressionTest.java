@@ -0,0 +1,200 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.expressions.BoundReference;
+import org.apache.spark.sql.catalyst.expressions.Expression;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.expressions.codegen.GenerateUnsafeProjection$;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.spark.sql.functions.col;
+import static io.exsql.s3xty.TraitFixtures.decoded;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProgramExpressionTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final StructType rowSchema = StructType.fromDDL("traits ARRAY<STRUCT<key: STRING, value: STRING>>");
+
+    private final String[] expressions = {
+            "(or (trait-gt \"long\" \"50\") (trait-lt \"double\" \"1.0\"))",
+            "(and (trait-eq \"boolean\" \"true\") (trait-exists \"string\"))",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\"))",
+            "(not (trait-exists \"long\"))",
+            "(trait-eq \"long\" \"42\")",
+            "(trait-ge \"long\" \"50\")",
+            "(trait-ne \"double\" \"0.0\")",
+            "(trait-eq \"boolean\" \"false\")",
+            "(trait-lt \"string\" \"m\")",
+            "(trait-ne \"string\" \"hello\")",
+            "(trait-exists \"double\")",
+            "(trait-exists \"string\")"
+    };
+
+    private final Program program = Compiler.compile(schema, expressions);
+
+    private final ArrayData[] records = RecordGenerator.generate(500);
+
+    private boolean[] expected(final ArrayData entries) {
+        var vm = new SExpressionVM(environment, this.program);
+        vm.evaluate(decoded(fieldTypes, entries));
+        return vm.results().clone();
+    }
+
+    private ProgramExpression expression() {
+        return expression(this.program);
+    }
+
+    private ProgramExpression expression(final Program program) {
+        return new ProgramExpression(new BoundReference(0, rowSchema.fields()[0].dataType(), true), program, this.fieldTypes);
+    }
+
+    private InternalRow row(final int i) {
+        // every tenth profile has a null trait column
+        return new GenericInternalRow(new Object[] {i % 10 == 0 ? null : this.records[i]});
+    }
+
+    private void verify(final int i, final ArrayData results) {
+        if (i % 10 == 0) {
+            assertNull(results, "profile " + i);
+        } else {
+            assertArrayEquals(expected(this.records[i]), results.toBooleanArray(), "profile " + i);
+        }
+    }
+
+    @Test
+    void verifyInterpreted() {
+        var expression = expression();
+        assertTrue(expression.checkInputDataTypes().isSuccess());
+        assertEquals(DataTypes.createArrayType(DataTypes.BooleanType, false), expression.dataType());
+
+        for (var i = 0; i < this.records.length; i++) {
+            verify(i, (ArrayData) expression.eval(row(i)));
+        }
+
+        var invalid = new ProgramExpression(new BoundReference(0, DataTypes.StringType, true), this.program, this.fieldTypes);
+        assertTrue(invalid.checkInputDataTypes().isFailure());
+    }
+
+    @Test
+    void verifyGeneratedCode() {
+        var projection = GenerateUnsafeProjection$.MODULE$.generate(
+                CollectionConverters.asScala(List.<Expression>of(expression())).toSeq(),
+                false
+        );
+
+        for (var i = 0; i < this.records.length; i++) {
+            var result = projection.apply(row(i));
+            verify(i, result.isNullAt(0) ? null : result.getArray(0));
+        }
+    }
+
+    @Test
+    void verifyLeafPredicates() {
+        var leaves = LeafPredicate.of(this.program);
+        for (var expression = 0; expression < leaves.length; expression++) {
+            assertEquals(expression >= 4, leaves[expression] != null, "expression " + expression);
+        }
+
+        // the residual program leaves the results of the leaves untouched
+        var residual = LeafPredicate.residual(this.program, leaves);
+        var vm = new SExpressionVM(environment, residual);
+        for (var record: this.records) {
+            vm.reset();
+            vm.evaluate(new CachedArrayDataAccessor(fieldTypes, record));
+            var expected = expected(record);
+            for (var expression = 0; expression < expected.length; expression++) {
+                assertEquals(expression < 4 && expected[expression], vm.results()[expression]);
+            }
+        }
+
+        // more leaves than fit in one generated function, and no expression left to the VM
+        var comparisons = new String[ProgramExpression.LEAVES_PER_FUNCTION * 3 + 1];
+        for (var i = 0; i < comparisons.length; i++) {
+            comparisons[i] = "(trait-gt \"long\" \"" + (i * 40 - 5000) + "\")";
+        }
+
+        var only = Compiler.compile(schema, comparisons);
+        assertEquals(1, LeafPredicate.residual(only, LeafPredicate.of(only)).instructions().length);
+
+        var projection = GenerateUnsafeProjection$.MODULE$.generate(
+                CollectionConverters.asScala(List.<Expression>of(expression(only))).toSeq(),
+                false
+        );
+        var expected = new SExpressionVM(environment, only);
+        for (var i = 0; i < this.records.length; i++) {
+            if (i % 10 == 0) {
+                continue;
+            }
+
+            expected.reset();
+            expected.evaluate(new CachedArrayDataAccessor(fieldTypes, this.records[i]));
+            assertArrayEquals(expected.results(), projection.apply(row(i)).getArray(0).toBooleanArray(), "profile " + i);
+        }
+    }
+
+    @Test
+    void verifyWholeStageCodegen() {
+        var spark = SparkSession.builder().master("local[1]").appName("s3xty")
+                .config("spark.ui.enabled", "false")
+                // otherwise the projection of local rows is evaluated by the optimizer
+                .config("spark.sql.optimizer.excludedRules", "org.apache.spark.sql.catalyst.optimizer.ConvertToLocalRelation")
+                .getOrCreate();
+        try {
+            var rows = new ArrayList<Row>();
+            for (var i = 0; i < this.records.length; i++) {
+                if (i % 10 == 0) {
+                    rows.add(RowFactory.create((Object) null));
+                    continue;
+                }
+
+                var entries = new ArrayList<Row>();
+                for (var j = 0; j < this.records[i].numElements(); j++) {
+                    var entry = this.records[i].getStruct(j, 2);
+                    entries.add(RowFactory.create(entry.getUTF8String(0).toString(), entry.getUTF8String(1).toString()));
+                }
+                rows.add(RowFactory.create(CollectionConverters.asScala(entries).toSeq()));
+            }
+
+            var profiles = spark.createDataFrame(rows, rowSchema);
+            var matches = profiles.select(ProgramExpression.column(col("traits"), schema, this.program).as("matches"));
+            assertTrue(matches.queryExecution().executedPlan().toString().contains("*(1) Project"), matches.queryExecution().executedPlan().toString());
+
+            var results = matches.collectAsList();
+            for (var i = 0; i < this.records.length; i++) {
+                if (i % 10 == 0) {
+                    assertTrue(results.get(i).isNullAt(0), "profile " + i);
+                    continue;
+                }
+
+                var expected = expected(this.records[i]);
+                var actual = results.get(i).<Boolean>getList(0);
+                for (var expression = 0; expression < expected.length; expression++) {
+                    assertEquals(expected[expression], actual.get(expression), "profile " + i);
+                }
+            }
+        } finally {
+            spark.stop();
+        }
+    }
+
+}
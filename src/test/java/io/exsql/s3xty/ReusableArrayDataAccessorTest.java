@@ -0,0 +1,86 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static io.exsql.s3xty.TraitFixtures.decoded;
+import static io.exsql.s3xty.TraitFixtures.entry;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReusableArrayDataAccessorTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN, longs ARRAY<LONG>");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final String[] expressions = {
+            "(or (trait-gt \"long\" \"50\") (trait-lt \"double\" \"1.0\"))",
+            "(and (trait-eq \"boolean\" \"true\") (trait-exists \"string\"))",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\"))",
+            "(not (trait-exists \"long\"))",
+            "(trait-ne \"boolean\" \"false\")"
+    };
+
+    @Test
+    void verifyResetForgetsPreviousProfile() {
+        var accessor = TraitAccessor.forPartition(fieldTypes);
+        assertNull(accessor.get(UTF8String.fromString("long")));
+
+        accessor.reset(ArrayData.toArrayData(new GenericInternalRow[] {
+                entry("string", "hello"),
+                entry("boolean", "true"),
+                entry("double", null),
+                entry("longs", "1,2"),
+                entry("long", "42"),
+                entry("long", "43")
+        }));
+
+        // out of order lookups, the first entry of a trait wins
+        assertEquals(42L, accessor.getLong(UTF8String.fromString("long")).orElseThrow());
+        assertTrue(accessor.getBoolean(UTF8String.fromString("boolean")));
+        assertTrue(accessor.getDouble(UTF8String.fromString("double")).isEmpty());
+        assertEquals(Value.nullValue(), accessor.get(UTF8String.fromString("double")));
+        assertArrayEquals(new long[] {1, 2}, accessor.getLongs(UTF8String.fromString("longs")));
+        assertEquals(Value.stringValue(UTF8String.fromString("hello")), accessor.get(UTF8String.fromString("string")));
+        assertEquals(Value.longValue(42), accessor.get(UTF8String.fromString("long")));
+
+        accessor.reset(ArrayData.toArrayData(new GenericInternalRow[] {
+                entry("double", "0.5")
+        }));
+
+        assertTrue(accessor.getLong(UTF8String.fromString("long")).isEmpty());
+        assertFalse(accessor.getBoolean(UTF8String.fromString("boolean")));
+        assertEquals(0.5, accessor.getDouble(UTF8String.fromString("double")).orElseThrow());
+        assertNull(accessor.get(UTF8String.fromString("string")));
+        assertNull(accessor.get(UTF8String.fromString("longs")));
+    }
+
+    @Test
+    void verifyResultsMatchOneAccessorPerProfile() {
+        var data = RecordGenerator.generate(2000);
+        var program = Compiler.compile(schema, expressions);
+        var accessor = new ReusableArrayDataAccessor(fieldTypes, TraitLayout.of(fieldTypes, List.of(UTF8String.fromString("string"))));
+
+        var vm = new SExpressionVM(environment, program);
+        var reusedVM = new SExpressionVM(environment, program);
+        for (var entries: data) {
+            vm.reset();
+            vm.evaluate(decoded(fieldTypes, entries));
+            reusedVM.reset();
+            reusedVM.evaluate(accessor.reset(entries));
+            assertArrayEquals(vm.results(), reusedVM.results());
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package io.exsql.s3xty;
+
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RowGroupFilterTest {
+
+    private final StructType schema = StructType.fromDDL("ltv LONG, score DOUBLE");
+
+    private record Statistics(Set<String> keys, boolean nulls, String... dictionary) implements RowGroupFilter.Statistics {
+        @Override
+        public boolean mayContain(final UTF8String key) {
+            return this.keys == null || this.keys.contains(key.toString());
+        }
+
+        @Override
+        public boolean mayHaveNullValues() {
+            return this.nulls;
+        }
+
+        @Override
+        public UTF8String[] values() {
+            return this.dictionary == null ? null : Arrays.stream(this.dictionary).map(UTF8String::fromString).toArray(UTF8String[]::new);
+        }
+    }
+
+    private boolean mayMatch(final Statistics statistics, final String... expressions) {
+        return new RowGroupFilter(Compiler.compile(schema, expressions)).mayMatch(statistics);
+    }
+
+    @Test
+    void verifyMissingTraits() {
+        var statistics = new Statistics(Set.of("ltv"), false, (String[]) null);
+        assertFalse(mayMatch(statistics, "(trait-eq \"country\" \"us\")"));
+        assertFalse(mayMatch(statistics, "(trait-exists \"country\")"));
+        assertTrue(mayMatch(statistics, "(not (trait-exists \"country\"))"));
+        assertTrue(mayMatch(statistics, "(trait-gt \"ltv\" \"500\")"));
+        assertFalse(mayMatch(statistics, "(and (trait-gt \"ltv\" \"500\") (trait-exists \"country\"))"));
+        assertTrue(mayMatch(statistics, "(trait-eq \"country\" \"us\")", "(trait-exists \"ltv\")"));
+    }
+
+    @Test
+    void verifyDictionaryValues() {
+        var statistics = new Statistics(null, false, "fr", "de", "12", "0.5");
+        assertFalse(mayMatch(statistics, "(trait-in \"country\" (\"us\" \"ca\"))"));
+        assertTrue(mayMatch(statistics, "(trait-eq \"country\" \"fr\")"));
+        assertFalse(mayMatch(statistics, "(trait-gt \"ltv\" \"100\")"));
+        assertTrue(mayMatch(statistics, "(trait-lt \"ltv\" \"100\")"));
+        assertFalse(mayMatch(statistics, "(trait-gt \"score\" \"12.5\")"));
+        assertTrue(mayMatch(statistics, "(trait-ne \"country\" \"fr\")"));
+        assertFalse(mayMatch(statistics, "(or (trait-eq \"country\" \"us\") (trait-ge \"ltv\" \"13\"))"));
+        assertTrue(mayMatch(statistics, "(or (trait-eq \"country\" \"us\") (trait-ge \"ltv\" \"12\"))"));
+        assertFalse(mayMatch(statistics, "(not (or (trait-exists \"country\") (not (trait-eq \"country\" \"us\"))))"));
+    }
+
+    @Test
+    void verifyPredicatesAreDecidedIndependently() {
+        // a missing country makes trait-ne true, even though trait-exists rules it out in the same profile
+        assertTrue(mayMatch(new Statistics(null, false, "fr"), "(and (trait-exists \"country\") (trait-ne \"country\" \"fr\"))"));
+        assertFalse(mayMatch(new Statistics(null, false, "fr"), "(and (trait-exists \"country\") (trait-eq \"country\" \"us\"))"));
+    }
+
+    @Test
+    void verifyUnknownValues() {
+        var statistics = new Statistics(null, true, (String[]) null);
+        assertTrue(mayMatch(statistics, "(trait-eq \"country\" \"us\")"));
+        assertTrue(mayMatch(statistics, "(and (trait-gt \"ltv\" \"500\") (trait-regex \"country\" \"^u.*\"))"));
+    }
+
+    @Test
+    void verifyReferencedTraits() {
+        var filter = new RowGroupFilter(Compiler.compile(schema, new String[] {
+                "(and (trait-gt \"ltv\" \"500\") (trait-regex \"country\" \"^u.*\"))",
+                "(trait-exists \"score\")"
+        }));
+        assertEquals(Set.of(UTF8String.fromString("ltv"), UTF8String.fromString("country"), UTF8String.fromString("score")), filter.keys());
+    }
+
+}
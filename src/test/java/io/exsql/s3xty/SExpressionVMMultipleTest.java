@@ -9,6 +9,7 @@ import org.apache.spark.unsafe.types.UTF8String;
 import org.junit.jupiter.api.Test;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -121,4 +122,42 @@ public class SExpressionVMMultipleTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    void verifySharedProgram() throws InterruptedException {
+        String[] expressions = {
+                "(or (trait-eq \"long\" \"1\") (trait-gt \"double\" \"2.0\"))",
+                "(and (trait-eq \"boolean\" \"true\") (not (trait-lt \"long\" \"0\")))"
+        };
+        var program = Compiler.compile(schema, expressions);
+
+        // one program instance backs every VM, each of them keeps its own program counter
+        var threads = new Thread[4];
+        var failures = new AtomicInteger();
+        for (var t = 0; t < threads.length; t++) {
+            var value = t;
+            threads[t] = new Thread(() -> {
+                var vm = new SExpressionVM(environment, program);
+                for (var i = 0; i < 10_000; i++) {
+                    var bag = TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                            new GenericInternalRow(new Object[]{UTF8String.fromString("long"), UTF8String.fromString(Integer.toString(value))}),
+                            new GenericInternalRow(new Object[]{UTF8String.fromString("boolean"), UTF8String.fromString("true")})
+                    }));
+
+                    vm.reset();
+                    vm.evaluate(bag);
+                    if (vm.results()[0] != (value == 1) || !vm.results()[1]) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        for (var thread: threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+    }
+
+}
@@ -0,0 +1,109 @@
+package io.exsql.s3xty;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SExpressionVMPoolTest {
+
+    private final StructType schema = StructType.fromDDL("long LONG");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private TraitAccessor traits(final String value) {
+        return TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                new GenericInternalRow(new Object[]{UTF8String.fromString("long"), UTF8String.fromString(value)})
+        }));
+    }
+
+    @Test
+    void verifyVMsAreReused() {
+        var pool = new SExpressionVMPool(Map.of(), 2);
+        var program = Compiler.compile(schema, new String[] {"(trait-eq \"long\" \"1\")", "(trait-gt \"long\" \"5\")"});
+
+        SExpressionVM first;
+        try (var lease = pool.acquire(program)) {
+            first = lease.vm();
+            first.evaluate(traits("1"));
+            assertArrayEquals(new boolean[] {true, false}, first.results());
+        }
+        assertEquals(1, pool.idle());
+
+        var lease = pool.acquire(program);
+        try (lease) {
+            assertSame(first, lease.vm());
+            assertEquals(0, pool.idle());
+
+            // a VM leased while the first one is in use is a new one
+            try (var nested = pool.acquire(program)) {
+                assertNotSame(first, nested.vm());
+            }
+
+            lease.vm().evaluate(traits("7"));
+            assertArrayEquals(new boolean[] {false, true}, lease.vm().results());
+        }
+        assertEquals(2, pool.idle());
+
+        // closing a lease again has no effect
+        assertThrows(IllegalStateException.class, lease::vm);
+        lease.close();
+        assertEquals(2, pool.idle());
+
+        // a stale lease does not share the VM with its next holder
+        try (var next = pool.acquire(program)) {
+            assertSame(first, next.vm());
+            assertThrows(IllegalStateException.class, lease::vm);
+            lease.close();
+            assertEquals(1, pool.idle());
+        }
+        assertEquals(2, pool.idle());
+    }
+
+    @Test
+    void verifyPoolIsBounded() {
+        var pool = new SExpressionVMPool(Map.of(), 2);
+        var a = Compiler.compile(schema, "(trait-eq \"long\" \"1\")");
+        var b = Compiler.compile(schema, "(trait-eq \"long\" \"2\")");
+        var c = Compiler.compile(schema, "(trait-eq \"long\" \"3\")");
+
+        SExpressionVM vmA;
+        try (var lease = pool.acquire(a)) {
+            vmA = lease.vm();
+        }
+        pool.acquire(b).close();
+        pool.acquire(c).close();
+        assertEquals(2, pool.idle());
+
+        // the VM of a was dropped
+        try (var lease = pool.acquire(a)) {
+            assertNotSame(vmA, lease.vm());
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new SExpressionVMPool(Map.of(), 0));
+    }
+
+    @Test
+    void verifyThreadsHaveTheirOwnVMs() throws InterruptedException {
+        var pool = new SExpressionVMPool(Map.of(), 2);
+        var program = Compiler.compile(schema, "(trait-eq \"long\" \"1\")");
+        pool.acquire(program).close();
+
+        var other = new AtomicReference<Integer>();
+        var thread = new Thread(() -> other.set(pool.idle()));
+        thread.start();
+        thread.join();
+
+        assertEquals(0, other.get());
+        assertEquals(1, pool.idle());
+    }
+
+}
@@ -0,0 +1,200 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.BooleanValue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingEvaluatorTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN, longs ARRAY<LONG>");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final String[] expressions = {
+            "(or (trait-gt \"long\" \"50\") (trait-lt \"double\" \"1.0\"))",
+            "(and (trait-eq \"boolean\" \"true\") (trait-exists \"string\"))",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\"))",
+            "(not (trait-exists \"long\"))",
+            "(trait-eq \"string\" \"\")"
+    };
+
+    private final Program program = Compiler.compile(schema, expressions);
+
+    private final ArrayData[] records = RecordGenerator.generate(2000);
+
+    private static final List<String> KEYS = List.of("long", "double", "boolean", "string");
+
+    private String expected(final ArrayData entries) {
+        var vm = new SExpressionVM(environment, program);
+        vm.evaluate(new CachedArrayDataAccessor(fieldTypes, entries));
+
+        var matches = new IntArrayList();
+        for (var expression = 0; expression < vm.results().length; expression++) {
+            if (vm.results()[expression]) {
+                matches.add(expression);
+            }
+        }
+        return String.join(",", matches.intStream().mapToObj(Integer::toString).toList());
+    }
+
+    private static Map<String, String> traits(final ArrayData entries) {
+        var traits = new HashMap<String, String>();
+        for (var j = 0; j < entries.numElements(); j++) {
+            var entry = entries.getStruct(j, 2);
+            traits.put(entry.getUTF8String(0).toString(), entry.getUTF8String(1).toString());
+        }
+        return traits;
+    }
+
+    private static Map<String, String> results(final String output) {
+        var results = new HashMap<String, String>();
+        for (var line: output.split("\n")) {
+            var fields = line.split("\t", -1);
+            assertNull(results.put(fields[0], fields[1]), "duplicate record " + fields[0]);
+        }
+        return results;
+    }
+
+    private void verify(final String output) {
+        var results = results(output);
+        assertEquals(this.records.length, results.size());
+        for (var i = 0; i < this.records.length; i++) {
+            assertEquals(expected(this.records[i]), results.get("r" + i), "record " + i);
+        }
+    }
+
+    @Test
+    void verifyJson() throws IOException {
+        var json = new StringBuilder();
+        for (var i = 0; i < this.records.length; i++) {
+            json.append("{\"id\": \"r").append(i).append('"');
+            for (var trait: traits(this.records[i]).entrySet()) {
+                json.append(", \"").append(trait.getKey()).append("\": ");
+                if (trait.getKey().equals("long")) {
+                    json.append(trait.getValue());
+                } else {
+                    json.append('"').append(trait.getValue()).append('"');
+                }
+            }
+            json.append("}\n");
+        }
+
+        var evaluator = new StreamingEvaluator(environment, schema, program, 3, 4);
+        var output = new StringWriter();
+        var count = evaluator.evaluateJson(new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)), "id", output);
+        assertEquals(this.records.length, count);
+        verify(output.toString());
+
+        // arrays are joined with commas
+        output = new StringWriter();
+        new StreamingEvaluator(environment, schema, Compiler.compile(schema, "(trait-contains-any \"longs\" (\"3\"))"), 1, 1)
+                .evaluateJson(new ByteArrayInputStream("{\"id\": 7, \"longs\": [1, 2, 3]}".getBytes(StandardCharsets.UTF_8)), "id", output);
+        assertEquals("7\t0\n", output.toString());
+    }
+
+    @Test
+    void verifyCsv() throws IOException {
+        var csv = new StringBuilder("id,").append(String.join(",", KEYS)).append("\r\n");
+        for (var i = 0; i < this.records.length; i++) {
+            var traits = traits(this.records[i]);
+            csv.append("\"r").append(i).append('"');
+            for (var key: KEYS) {
+                csv.append(',');
+                var value = traits.get(key);
+                if (value != null) {
+                    csv.append(value.isEmpty() ? "\"\"" : value);
+                }
+            }
+            csv.append("\r\n");
+            if (i % 100 == 0) {
+                csv.append("\n");
+            }
+        }
+
+        var evaluator = new StreamingEvaluator(environment, schema, program, 2, 8);
+        var output = new StringWriter();
+        assertEquals(this.records.length, evaluator.evaluateCsv(new StringReader(csv.toString()), "id", output));
+        verify(output.toString());
+
+        // quoted cells hold delimiters, quotes and line breaks
+        output = new StringWriter();
+        var quoted = "id,string,longs\n\"a,\"\"b\"\"\nc\",\"hello\",\"1,2\"\n";
+        new StreamingEvaluator(environment, schema, Compiler.compile(schema, new String[] {
+                "(trait-eq \"string\" \"hello\")", "(trait-contains-any \"longs\" (\"2\"))"
+        }), 1, 1).evaluateCsv(new StringReader(quoted), "id", output);
+        assertEquals("a,\"b\"\nc\t0,1\n", output.toString());
+    }
+
+    @Test
+    void verifyFailures() {
+        var evaluator = new StreamingEvaluator(environment, schema, program, 2, 2);
+        assertThrows(IllegalArgumentException.class, () -> evaluator.evaluateCsv(new StringReader("key,long\n1,2\n"), "id", new StringWriter()));
+        assertThrows(IOException.class, () -> evaluator.evaluateCsv(new StringReader("id,long\n1,2\n2\n"), "id", new StringWriter()));
+        assertThrows(IOException.class, () -> evaluator.evaluateCsv(new StringReader("id,long\n1,\"2\n"), "id", new StringWriter()));
+        assertThrows(IOException.class, () -> evaluator.evaluateJson(new ByteArrayInputStream("{\"id\": 1}\n{\"id\": 2, \"long\": {}}".getBytes(StandardCharsets.UTF_8)), "id", new StringWriter()));
+        assertThrows(IOException.class, () -> evaluator.evaluateJson(new ByteArrayInputStream("{\"long\": 1}".getBytes(StandardCharsets.UTF_8)), "id", new StringWriter()));
+        assertThrows(IOException.class, () -> evaluator.evaluateJson(new ByteArrayInputStream("{\"id\": {\"long\": 1}}\n{\"id\": 2}".getBytes(StandardCharsets.UTF_8)), "id", new StringWriter()));
+        assertThrows(IOException.class, () -> evaluator.evaluateJson(new ByteArrayInputStream("{\"id\": [1, 2], \"long\": 1}".getBytes(StandardCharsets.UTF_8)), "id", new StringWriter()));
+        assertThrows(IOException.class, () -> evaluator.evaluateJson(new ByteArrayInputStream("{\"id\": 1, \"strings\": [\"a,b\", \"c\"]}".getBytes(StandardCharsets.UTF_8)), "id", new StringWriter()));
+
+        // a failing writer stops the pipeline
+        var failing = new Writer() {
+            @Override
+            public void write(final char[] buffer, final int offset, final int length) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        var exception = assertThrows(IOException.class, () -> evaluator.evaluateCsv(new StringReader("id,long\n1,2\n2,3\n"), "id", failing));
+        assertEquals("disk full", exception.getMessage());
+
+        assertThrows(IllegalArgumentException.class, () -> new StreamingEvaluator(environment, schema, program, 0, 1));
+    }
+
+    @Test
+    void verifyVMFailures() {
+        // more loads than the stack holds
+        var instructions = new Instruction[SExpressionVM.DEFAULT_STACK_SIZE + 2];
+        Arrays.fill(instructions, Instruction.load(new BooleanValue(true)));
+        instructions[instructions.length - 1] = Instruction.halt();
+        var overflowing = new Program(new String[] {"overflow"}, instructions);
+
+        var csv = new StringBuilder("id,long\n");
+        for (var i = 0; i < 10; i++) {
+            csv.append(i).append(',').append(i).append('\n');
+        }
+
+        for (var workers: new int[] {1, 3}) {
+            var evaluator = new StreamingEvaluator(environment, schema, overflowing, workers, 2);
+            var exception = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(IOException.class, () -> evaluator.evaluateCsv(new StringReader(csv.toString()), "id", new StringWriter())));
+            assertInstanceOf(StackOverflowError.class, exception.getCause());
+        }
+
+        // workers failing before their first record leave more records pending than the reader has free ones
+        var missing = new StreamingEvaluator(environment, schema, null, 2, 2);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(NullPointerException.class, () -> missing.evaluateCsv(new StringReader(csv.toString()), "id", new StringWriter())));
+    }
+
+}
@@ -0,0 +1,190 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.StringArrayValue;
+import io.exsql.s3xty.value.StringValue;
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraitDictionaryTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final String[] expressions = {
+            "(trait-eq \"string\" \"hello\")",
+            "(trait-ne \"string\" \"world\")",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\" \"missing\"))",
+            "(and (trait-gt \"long\" \"50\") (trait-eq \"string\" \"red\"))",
+            "(trait-ci-eq \"string\" \"HELLO\")"
+    };
+
+    private final ArrayData[] records = RecordGenerator.generate(2000);
+
+    private static final UTF8String STRING = UTF8String.fromString("string");
+
+    private void verify(final TraitDictionary dictionary, final List<TraitAccessor> encoded) {
+        var expected = new SExpressionVM(environment, Compiler.compile(schema, expressions));
+        var vm = new SExpressionVM(environment, Compiler.compile(schema, expressions, dictionary));
+        for (var i = 0; i < this.records.length; i++) {
+            expected.reset();
+            expected.evaluate(new CachedArrayDataAccessor(fieldTypes, this.records[i]));
+            vm.reset();
+            vm.evaluate(encoded.get(i));
+            assertArrayEquals(expected.results(), vm.results(), "profile " + i);
+        }
+    }
+
+    @Test
+    void verifyInterning() {
+        var dictionary = new TraitDictionary(2);
+        var hello = dictionary.encode(UTF8String.fromString("hello"));
+        var world = dictionary.encode(UTF8String.fromString("world"));
+
+        assertTrue(hello.id() >= 0);
+        assertNotEquals(hello.id(), world.id());
+        assertSame(hello, dictionary.encode(UTF8String.fromString("hello")));
+        assertSame(world, dictionary.value((int) world.id()));
+        assertEquals(Value.stringValue(UTF8String.fromString("hello")), hello);
+
+        // a full dictionary leaves new strings as they are
+        var red = dictionary.encode(UTF8String.fromString("red"));
+        assertEquals(-1, red.id());
+        assertEquals(2, dictionary.size());
+
+        // ids of distinct dictionaries are never compared
+        var other = new TraitDictionary(2).encode(UTF8String.fromString("world"));
+        assertEquals((int) hello.id(), (int) other.id());
+        assertFalse(Operation.nullSafeStringEq(hello, other, false));
+        assertTrue(Operation.nullSafeStringEq(world, other, false));
+
+        var strings = dictionary.encode(new StringArrayValue(new UTF8String[] {UTF8String.fromString("world")}));
+        assertTrue(Operation.nullSafeStringArrayContains(world, strings));
+        assertFalse(Operation.nullSafeStringArrayContains(hello, strings));
+        assertTrue(Operation.nullSafeStringArrayContains(other, strings));
+        assertNull(dictionary.encode(new StringArrayValue(new UTF8String[] {UTF8String.fromString("blue")})).members());
+
+        assertThrows(IllegalArgumentException.class, () -> new TraitDictionary(-1));
+    }
+
+    @Test
+    void verifyDecodedTraits() {
+        var dictionary = new TraitDictionary(Set.of(STRING), 1024);
+        var layout = TraitLayout.of(fieldTypes, List.of(STRING), dictionary);
+        var decoded = new ArrayList<TraitAccessor>();
+        for (var record: this.records) {
+            decoded.add(layout.decode(record));
+        }
+
+        verify(dictionary, decoded);
+        assertTrue(dictionary.size() > 0);
+
+        // the values of a trait are shared between profiles
+        var first = decoded.stream().map(traits -> traits.get(STRING)).filter(StringValue.class::isInstance).findFirst().orElseThrow();
+        assertSame(first, dictionary.encode(((StringValue) first).wrapped()));
+    }
+
+    @Test
+    void verifyReusableAccessor() {
+        var dictionary = new TraitDictionary(1024);
+        var accessor = new ReusableArrayDataAccessor(fieldTypes, TraitLayout.of(fieldTypes, List.of(STRING), dictionary));
+        var expected = new SExpressionVM(environment, Compiler.compile(schema, expressions));
+        var vm = new SExpressionVM(environment, Compiler.compile(schema, expressions, dictionary));
+        for (var i = 0; i < this.records.length; i++) {
+            expected.reset();
+            expected.evaluate(new CachedArrayDataAccessor(fieldTypes, this.records[i]));
+            vm.reset();
+            vm.evaluate(accessor.reset(this.records[i]));
+            assertArrayEquals(expected.results(), vm.results(), "profile " + i);
+        }
+    }
+
+    @Test
+    void verifyTraitStore() {
+        // too small for every value of the trait, the values left out are stored as bytes
+        var dictionary = new TraitDictionary(8);
+        try (var store = TraitStore.load(fieldTypes, TraitLayout.of(fieldTypes, List.of(STRING), dictionary), this.records)) {
+            var cursors = new ArrayList<TraitAccessor>();
+            for (var i = 0; i < this.records.length; i++) {
+                cursors.add(store.cursor().position(i));
+            }
+
+            verify(dictionary, cursors);
+            assertEquals(8, dictionary.size());
+        }
+    }
+
+    @Test
+    void verifyInternedConstants() {
+        var dictionary = new TraitDictionary(Set.of(STRING), 1024);
+        var program = Compiler.compile(schema, new String[] {
+                "(and (trait-eq \"string\" \"hello\") (trait-ne \"other\" \"world\"))",
+                "(or (trait-lt \"string\" \"red\") (trait-in \"string\" (\"a\" \"b\")))"
+        }, dictionary);
+
+        // only the constants of equality and membership tests of encoded traits are interned
+        var interned = new ArrayList<String>();
+        for (var instruction: program.instructions()) {
+            if (instruction.operation() != OperationCode.LOAD) {
+                continue;
+            }
+
+            if (instruction.operand(0) instanceof StringValue string && string.id() >= 0) {
+                interned.add(string.wrapped().toString());
+            } else if (instruction.operand(0) instanceof StringArrayValue strings && strings.members() != null) {
+                interned.add(Arrays.toString(strings.wrapped()));
+            }
+        }
+
+        assertEquals(List.of("hello", "[a, b]"), interned);
+    }
+
+    @Test
+    void verifySerializedProgram() throws IOException, ClassNotFoundException {
+        var dictionary = new TraitDictionary(1024);
+        var program = Compiler.compile(schema, expressions, dictionary);
+
+        var bytes = new ByteArrayOutputStream();
+        try (var output = new ObjectOutputStream(bytes)) {
+            output.writeObject(program);
+        }
+
+        // the ids are left out, the deserialized program compares bytes
+        Program deserialized;
+        try (var input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            deserialized = (Program) input.readObject();
+        }
+
+        var layout = TraitLayout.of(fieldTypes, List.of(STRING), dictionary);
+        var expected = new SExpressionVM(environment, Compiler.compile(schema, expressions));
+        var vm = new SExpressionVM(environment, deserialized);
+        for (var record: this.records) {
+            expected.reset();
+            expected.evaluate(new CachedArrayDataAccessor(fieldTypes, record));
+            vm.reset();
+            vm.evaluate(layout.decode(record));
+            assertArrayEquals(expected.results(), vm.results());
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.unsafe.types.UTF8String;
+
+/**
+ * The trait entries and the reference accessor shared by the accessor and reader tests.
+ */
+final class TraitFixtures {
+
+    private TraitFixtures() {}
+
+    /**
+     * Creates a key/value entry.
+     *
+     * @param key the key, or null
+     * @param value the value, or null
+     * @return the entry
+     */
+    static GenericInternalRow entry(final String key, final String value) {
+        return new GenericInternalRow(new Object[] {
+                key == null ? null : UTF8String.fromString(key),
+                value == null ? null : UTF8String.fromString(value)
+        });
+    }
+
+    /**
+     * Decodes every entry of a profile up front, the first entry of a trait wins.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param entries the key/value entries of the profile
+     * @return an accessor over the decoded traits
+     */
+    static TraitAccessor decoded(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ArrayData entries) {
+        return decoded(fieldTypes, entries, true);
+    }
+
+    /**
+     * Decodes every entry of a profile up front, the first entry of a trait wins.
+     *
+     * @param fieldTypes the declared types of the traits
+     * @param entries the key/value entries of the profile
+     * @param values false to read every value as null, as readers do for profiles written without values
+     * @return an accessor over the decoded traits
+     */
+    static TraitAccessor decoded(final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes, final ArrayData entries, final boolean values) {
+        var traits = new Object2ObjectOpenHashMap<UTF8String, Value>();
+        for (var i = 0; i < entries.numElements(); i++) {
+            var entry = entries.getStruct(i, 2);
+            var key = entry.getUTF8String(0);
+            var value = values ? entry.getUTF8String(1) : null;
+            traits.putIfAbsent(key, CachedArrayDataAccessor.decode(fieldTypes.getOrDefault(key, DataTypes.StringType), value));
+        }
+        return traits::get;
+    }
+
+}
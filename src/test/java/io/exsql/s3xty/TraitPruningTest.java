@@ -0,0 +1,110 @@
+package io.exsql.s3xty;
+
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.apache.spark.sql.functions.col;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraitPruningTest {
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN");
+
+    private final StructType rowSchema = StructType.fromDDL("id INT, traits ARRAY<STRUCT<key: STRING, value: STRING>>");
+
+    private final String[] expressions = {
+            "(or (trait-gt \"long\" \"50\") (trait-lt \"double\" \"1.0\"))",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\"))",
+            "(not (trait-exists \"long\"))"
+    };
+
+    private final Program program = Compiler.compile(schema, expressions);
+
+    private final ArrayData[] records = RecordGenerator.generate(200);
+
+    @Test
+    void verifyReferencedTraits() {
+        var traits = this.program.referencedTraits();
+        assertEquals(Map.of(
+                UTF8String.fromString("long"), DataTypes.LongType,
+                UTF8String.fromString("double"), DataTypes.DoubleType,
+                UTF8String.fromString("string"), DataTypes.StringType
+        ), traits);
+
+        assertEquals(traits.keySet(), new RowGroupFilter(this.program).keys());
+    }
+
+    @Test
+    void verifyPruning() {
+        var spark = SparkSession.builder().master("local[1]").appName("s3xty")
+                .config("spark.ui.enabled", "false")
+                .getOrCreate();
+        try {
+            var rows = new ArrayList<Row>();
+            for (var i = 0; i < this.records.length; i++) {
+                if (i % 10 == 0) {
+                    rows.add(RowFactory.create(i, null));
+                    continue;
+                }
+
+                var entries = new ArrayList<Row>();
+                for (var j = 0; j < this.records[i].numElements(); j++) {
+                    var entry = this.records[i].getStruct(j, 2);
+                    entries.add(RowFactory.create(entry.getUTF8String(0).toString(), entry.getUTF8String(1).toString()));
+                }
+                rows.add(RowFactory.create(i, CollectionConverters.asScala(entries).toSeq()));
+            }
+
+            var profiles = spark.createDataFrame(rows, rowSchema);
+            var pruned = TraitPruning.prune(profiles, "traits", this.program);
+            assertArrayEquals(profiles.columns(), pruned.columns());
+
+            var keys = this.program.referencedTraits().keySet();
+            var expected = profiles.select(ProgramExpression.column(col("traits"), schema, this.program)).collectAsList();
+            var actual = pruned.select(col("traits"), ProgramExpression.column(col("traits"), schema, this.program)).collectAsList();
+            for (var i = 0; i < this.records.length; i++) {
+                if (i % 10 == 0) {
+                    assertTrue(actual.get(i).isNullAt(0), "profile " + i);
+                    continue;
+                }
+
+                var kept = 0;
+                for (var j = 0; j < this.records[i].numElements(); j++) {
+                    if (keys.contains(this.records[i].getStruct(j, 2).getUTF8String(0))) {
+                        kept++;
+                    }
+                }
+
+                var entries = actual.get(i).<Row>getList(0);
+                assertEquals(kept, entries.size(), "profile " + i);
+                for (var entry: entries) {
+                    assertTrue(keys.contains(UTF8String.fromString(entry.getString(0))), "profile " + i);
+                }
+                assertEquals(expected.get(i).getList(0), actual.get(i).getList(1), "profile " + i);
+            }
+
+            // the key is the first field of the entries, whatever its name
+            var renamed = profiles.withColumn("traits", col("traits").cast("array<struct<name: string, value: string>>"));
+            assertEquals(
+                    pruned.select(col("traits")).collectAsList(),
+                    TraitPruning.prune(renamed, "traits", this.program).select(col("traits")).collectAsList()
+            );
+
+            assertThrows(IllegalArgumentException.class, () -> TraitPruning.prune(profiles, "id", this.program));
+            assertThrows(IllegalArgumentException.class, () -> TraitPruning.prune(profiles, "missing", this.program));
+        } finally {
+            spark.stop();
+        }
+    }
+
+}
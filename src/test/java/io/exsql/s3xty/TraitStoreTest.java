@@ -0,0 +1,116 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static io.exsql.s3xty.TraitFixtures.entry;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraitStoreTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN, longs ARRAY<LONG>, doubles ARRAY<DOUBLE>, booleans ARRAY<BOOLEAN>, strings ARRAY<STRING>");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final TraitLayout layout = TraitLayout.of(fieldTypes, List.of(UTF8String.fromString("string")));
+
+    private final String[] expressions = {
+            "(or (trait-gt \"long\" \"50\") (trait-lt \"double\" \"1.0\"))",
+            "(and (trait-eq \"boolean\" \"true\") (trait-exists \"string\"))",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\"))",
+            "(not (trait-exists \"long\"))",
+            "(trait-ne \"boolean\" \"false\")"
+    };
+
+    @Test
+    void verifyStoredTraits() {
+        try (var store = new TraitStore(layout, 1)) {
+            assertEquals(0, store.append(TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                    entry("long", "42"),
+                    entry("double", null),
+                    entry("boolean", "true"),
+                    entry("longs", "1,2,3"),
+                    entry("doubles", "0.5,1.5"),
+                    entry("booleans", "true,false"),
+                    entry("strings", "a,,bc"),
+                    entry("string", "hello"),
+                    entry("unknown", "dropped")
+            }))));
+            for (var i = 1; i < 100; i++) {
+                store.append(TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                        entry("long", String.valueOf(i)),
+                        entry("string", "profile-" + i)
+                })));
+            }
+            assertThrows(IllegalArgumentException.class, () -> store.append(TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                    entry("long", "forty-two")
+            }))));
+            assertEquals(100, store.rows());
+            assertTrue(store.bytes() > 0);
+
+            var cursor = store.cursor().position(0);
+            assertEquals(42L, cursor.getLong(UTF8String.fromString("long")).orElseThrow());
+            assertTrue(cursor.getDouble(UTF8String.fromString("double")).isEmpty());
+            assertEquals(Value.nullValue(), cursor.get(UTF8String.fromString("double")));
+            assertTrue(cursor.getBoolean(UTF8String.fromString("boolean")));
+            assertArrayEquals(new long[] {1, 2, 3}, cursor.getLongs(UTF8String.fromString("longs")));
+            assertArrayEquals(new double[] {0.5, 1.5}, cursor.getDoubles(UTF8String.fromString("doubles")));
+            assertArrayEquals(new boolean[] {true, false}, cursor.getBooleans(UTF8String.fromString("booleans")));
+            assertArrayEquals(new UTF8String[] {UTF8String.fromString("a"), UTF8String.fromString(""), UTF8String.fromString("bc")}, cursor.getStrings(UTF8String.fromString("strings")));
+            assertEquals(Value.stringValue(UTF8String.fromString("hello")), cursor.get(UTF8String.fromString("string")));
+            assertNull(cursor.get(UTF8String.fromString("unknown")));
+
+            cursor.position(99);
+            assertEquals(99L, cursor.getLong(UTF8String.fromString("long")).orElseThrow());
+            assertEquals(Value.stringValue(UTF8String.fromString("profile-99")), cursor.get(UTF8String.fromString("string")));
+            assertFalse(cursor.getBoolean(UTF8String.fromString("boolean")));
+            assertNull(cursor.get(UTF8String.fromString("longs")));
+            assertThrows(IndexOutOfBoundsException.class, () -> cursor.position(100));
+
+            // records never move once they are read
+            assertThrows(IllegalStateException.class, () -> store.append(TraitAccessor.forArrayData(fieldTypes, ArrayData.toArrayData(new GenericInternalRow[] {
+                    entry("long", "100")
+            }))));
+        }
+    }
+
+    @Test
+    void verifyResultsMatchArrayData() {
+        var data = RecordGenerator.generate(3000);
+        var program = Compiler.compile(schema, expressions);
+
+        var store = TraitStore.load(fieldTypes, layout, data);
+        TraitStore.Cursor cursor;
+        try (store) {
+            var vm = new SExpressionVM(environment, program);
+            var storedVM = new SExpressionVM(environment, program);
+            cursor = store.cursor();
+            for (var entries: data) {
+                assertTrue(cursor.next());
+                vm.reset();
+                vm.evaluate(new CachedArrayDataAccessor(fieldTypes, entries));
+                storedVM.reset();
+                storedVM.evaluate(cursor);
+                assertArrayEquals(vm.results(), storedVM.results(), "profile " + cursor.row());
+            }
+            assertFalse(cursor.next());
+        }
+
+        assertThrows(IllegalStateException.class, store::cursor);
+        assertThrows(IllegalStateException.class, () -> cursor.get(UTF8String.fromString("long")));
+        assertThrows(IllegalStateException.class, () -> cursor.getLong(UTF8String.fromString("long")));
+    }
+
+}
@@ -0,0 +1,101 @@
+package io.exsql.s3xty;
+
+import io.exsql.s3xty.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.expressions.UnsafeArrayData;
+import org.apache.spark.sql.catalyst.expressions.UnsafeProjection;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static io.exsql.s3xty.TraitFixtures.entry;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnsafeArrayDataAccessorTest {
+
+    private final Map<String, String> environment = Map.of();
+
+    private final StructType schema = StructType.fromDDL("long LONG, double DOUBLE, boolean BOOLEAN, longs ARRAY<LONG>");
+
+    private final Object2ObjectOpenHashMap<UTF8String, DataType> fieldTypes = SchemaHelper.convert(schema);
+
+    private final UnsafeProjection projection = UnsafeProjection.create(StructType.fromDDL("traits ARRAY<STRUCT<key: STRING, value: STRING>>"));
+
+    private final String[] expressions = {
+            "(or (trait-gt \"long\" \"50\") (trait-lt \"double\" \"1.0\"))",
+            "(and (trait-eq \"boolean\" \"true\") (trait-exists \"string\"))",
+            "(trait-in \"string\" (\"hello\" \"world\" \"red\"))",
+            "(not (trait-exists \"long\"))",
+            "(trait-ne \"boolean\" \"false\")"
+    };
+
+    private UnsafeArrayData toUnsafe(final ArrayData entries) {
+        return this.projection.apply(new GenericInternalRow(new Object[] {entries})).getArray(0).copy();
+    }
+
+    @Test
+    void verifyTraitsAreReadInPlace() {
+        var accessor = TraitAccessor.forArrayData(fieldTypes, toUnsafe(ArrayData.toArrayData(new InternalRow[] {
+                entry("string", "hello"),
+                null,
+                entry("boolean", "TRUE"),
+                entry("double", null),
+                entry("longs", "1,2"),
+                entry("long", "42"),
+                entry("long", "43")
+        })));
+
+        assertInstanceOf(UnsafeArrayDataAccessor.class, accessor);
+        assertEquals(42L, accessor.getLong(UTF8String.fromString("long")).orElseThrow());
+        assertEquals(Value.longValue(42), accessor.get(UTF8String.fromString("long")));
+        assertTrue(accessor.getBoolean(UTF8String.fromString("boolean")));
+        assertTrue(accessor.getDouble(UTF8String.fromString("double")).isEmpty());
+        assertEquals(Value.nullValue(), accessor.get(UTF8String.fromString("double")));
+        assertArrayEquals(new long[] {1, 2}, accessor.getLongs(UTF8String.fromString("longs")));
+        assertEquals(Value.stringValue(UTF8String.fromString("hello")), accessor.get(UTF8String.fromString("string")));
+        assertNull(accessor.get(UTF8String.fromString("missing")));
+        assertTrue(accessor.getLong(UTF8String.fromString("missing")).isEmpty());
+    }
+
+    @Test
+    void verifyRepeatedLookupsAreMemoized() {
+        var accessor = TraitAccessor.forArrayData(fieldTypes, toUnsafe(ArrayData.toArrayData(new InternalRow[] {
+                entry("double", "2.5"),
+                entry("long", "42"),
+                entry("boolean", null)
+        })));
+
+        for (var i = 0; i < 2; i++) {
+            assertEquals(42L, accessor.getLong(UTF8String.fromString("long")).orElseThrow());
+            assertEquals(2.5, accessor.getDouble(UTF8String.fromString("double")).orElseThrow());
+            assertFalse(accessor.getBoolean(UTF8String.fromString("boolean")));
+            assertTrue(accessor.getLong(UTF8String.fromString("missing")).isEmpty());
+        }
+        assertEquals(Value.longValue(42), accessor.get(UTF8String.fromString("long")));
+        assertEquals(Value.nullValue(), accessor.get(UTF8String.fromString("boolean")));
+    }
+
+    @Test
+    void verifyResultsMatchGenericArrays() {
+        var data = RecordGenerator.generate(2000);
+        var program = Compiler.compile(schema, expressions);
+
+        var vm = new SExpressionVM(environment, program);
+        var unsafeVM = new SExpressionVM(environment, program);
+        for (var entries: data) {
+            vm.reset();
+            vm.evaluate(new CachedArrayDataAccessor(fieldTypes, entries));
+            unsafeVM.reset();
+            unsafeVM.evaluate(TraitAccessor.forArrayData(fieldTypes, toUnsafe(entries)));
+            assertArrayEquals(vm.results(), unsafeVM.results());
+        }
+    }
+
+}
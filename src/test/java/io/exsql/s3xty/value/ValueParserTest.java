@@ -0,0 +1,108 @@
+package io.exsql.s3xty.value;
+
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ValueParserTest {
+
+    private static final UTF8String COMMA = UTF8String.fromString(",");
+
+    private static final String[] DOUBLES = {
+            "0", "-0", "+1", "1.", ".5", "1.50", "0.1", "0.000123", "3.141592653589793", "123456789012345",
+            "1234567890123456789", "9007199254740993", "0.1000000000000000055511151231257827", "1e10", "-2.5E-3",
+            "NaN", "-Infinity", "1d", "2.5f", "0x1p3", " 42.25 ", "\t7\n", "1e-400", "0.0000000000000000000000001"
+    };
+
+    private static final String[] LONGS = {
+            "0", "-0", "+7", "42", " 42 ", "\t-42\n", "123456789012345678", "9223372036854775807",
+            "-9223372036854775808", "00000000000000000000012"
+    };
+
+    private static final String[] INVALID_LONGS = {
+            "", " ", "-", "+", "1.5", "1e3", "9223372036854775808", "-9223372036854775809", "12a", "- 1"
+    };
+
+    private static final String[] INVALID_DOUBLES = {"", " ", "-", ".", "1..2", "1.2.3", "abc", "1 5"};
+
+    private static UTF8String list(final String... elements) {
+        return UTF8String.fromString(String.join(",", elements));
+    }
+
+    @Test
+    void verifyDoubles() {
+        for (var string: DOUBLES) {
+            assertEquals(Double.parseDouble(string), ValueParser.parseDouble(UTF8String.fromString(string)), string);
+        }
+
+        assertArrayEquals(new StringArrayValue(list(DOUBLES).splitSQL(COMMA, 0)).toDoubles(), ValueParser.parseDoubles(COMMA, list(DOUBLES)));
+        assertEquals(1.0 / 0.0, ValueParser.parseDouble(UTF8String.fromString("1e400")));
+
+        for (var string: INVALID_DOUBLES) {
+            assertThrows(NumberFormatException.class, () -> ValueParser.parseDouble(UTF8String.fromString(string)), string);
+            assertThrows(NumberFormatException.class, () -> ValueParser.parseDoubles(COMMA, list("1.5", string)), string);
+        }
+    }
+
+    @Test
+    void verifyRandomDoubles() {
+        var random = new Random(42);
+        for (var i = 0; i < 100_000; i++) {
+            var string = switch (i % 3) {
+                case 0 -> Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(20) - 10));
+                case 1 -> String.format("%." + random.nextInt(12) + "f", random.nextGaussian() * 1000);
+                default -> Long.toString(random.nextLong() >> random.nextInt(64)) + "." + random.nextInt(1000);
+            };
+            assertEquals(Double.parseDouble(string), ValueParser.parseDouble(UTF8String.fromString(string)), string);
+        }
+    }
+
+    @Test
+    void verifyLongs() {
+        assertArrayEquals(new StringArrayValue(list(LONGS).splitSQL(COMMA, 0)).toLongs(), ValueParser.parseLongs(COMMA, list(LONGS)));
+
+        for (var string: INVALID_LONGS) {
+            assertThrows(NumberFormatException.class, () -> UTF8String.fromString(string).toLongExact(), string);
+            assertThrows(NumberFormatException.class, () -> ValueParser.parseLongs(COMMA, list("1", string)), string);
+        }
+
+        // the trailing empty element is kept, like with splitSQL
+        assertThrows(NumberFormatException.class, () -> ValueParser.parseLongs(COMMA, UTF8String.fromString("1,2,")));
+    }
+
+    @Test
+    void verifyBooleans() {
+        var booleans = list("true", "TRUE", "tRuE", "false", "", " true", "yes", "1", "truth");
+        assertArrayEquals(new StringArrayValue(booleans.splitSQL(COMMA, 0)).toBooleans(), ValueParser.parseBooleans(COMMA, booleans));
+    }
+
+    @Test
+    void verifyStrings() {
+        var delimiters = new String[] {",", ";", "::", "\u00e9", "|"};
+        var lists = new String[] {"", ",", "a", "a,b", ",a,,b,", "caf\u00e9,\u00e9t\u00e9", "a::b:c::", "a|b||", "::::"};
+        for (var delimiter: delimiters) {
+            for (var list: lists) {
+                var wrapped = UTF8String.fromString(list);
+                var separator = UTF8String.fromString(delimiter);
+                assertArrayEquals(wrapped.splitSQL(separator, 0), ValueParser.parseStrings(separator, wrapped), list + " split by " + delimiter);
+            }
+        }
+
+        var wrapped = UTF8String.fromString("a,b");
+        assertArrayEquals(new UTF8String[] {wrapped}, ValueParser.parseStrings(UTF8String.EMPTY_UTF8, wrapped));
+        assertArrayEquals(new long[] {12}, ValueParser.parseLongs(UTF8String.EMPTY_UTF8, UTF8String.fromString("12")));
+    }
+
+    @Test
+    void verifyValueFactories() {
+        var wrapped = UTF8String.fromString("1,2,3");
+        assertArrayEquals(new long[] {1, 2, 3}, Value.longArrayValue(COMMA, wrapped).toLongs());
+        assertArrayEquals(new double[] {1, 2, 3}, Value.doubleArrayValue(COMMA, wrapped).toDoubles());
+        assertArrayEquals(new boolean[] {false, false, false}, Value.booleanArrayValue(COMMA, wrapped).toBooleans());
+        assertArrayEquals(wrapped.splitSQL(COMMA, 0), Value.stringArrayValue(COMMA, wrapped).toStrings());
+    }
+
+}